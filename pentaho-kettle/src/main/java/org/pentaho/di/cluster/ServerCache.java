@@ -55,7 +55,7 @@ public final class ServerCache {
     public static final String PARAM_ETL_JOB_ID = System.getProperty("KETTLE_JOB_ID_KEY", "ETL_CALLER");
 
     static final String KEY_ETL_CACHE_ID = System.getProperty("KETTLE_CACHE_ID_KEY", "CACHE_ID");
-    static final String KEY_ETL_REQUEST_ID = System.getProperty("KETTLE_REQUEST_ID_KEY", "REQUEST_ID");
+    public static final String KEY_ETL_REQUEST_ID = System.getProperty("KETTLE_REQUEST_ID_KEY", "REQUEST_ID");
 
     // On master node, it's for name -> revision + md5; on slave server, it's name -> md5
     private static final Cache<String, String> resourceCache = CacheBuilder.newBuilder()
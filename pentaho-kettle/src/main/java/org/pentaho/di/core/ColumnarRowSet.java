@@ -0,0 +1,350 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Row set moving {@link RowBatch}es instead of single rows, so that producer and consumer only synchronize once per
+ * batch. Steps not aware of batches keep using putRow/getRow, while batch-aware steps can use putBatch/getBatch.
+ * <p>
+ * Unlike {@link BlockingBatchingRowSet}, a starving consumer takes over the partially filled batch of the producer,
+ * so a small amount of rows won't stall the transformation.
+ *
+ * @author Zhichun Wu
+ */
+public class ColumnarRowSet extends BaseRowSet implements Comparable<RowSet>, RowSet {
+    public static final boolean COLUMNAR_ROWSET_ENABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_COLUMNAR_ROWSET", "N"));
+
+    private final int batchSize;
+    private final int timeoutGet;
+    private final int timeoutPut;
+
+    private final ConcurrentLinkedQueue<RowBatch> queue = new ConcurrentLinkedQueue<RowBatch>();
+    // free slots in the queue
+    private final Semaphore space;
+    // batches in the queue
+    private final Semaphore available = new Semaphore(0);
+
+    // guards the open batch and the hand-over of batches into the queue
+    private final Object openLock = new Object();
+    private RowBatch open;
+    private volatile int openSize;
+    // only accessed by the producer, last row metadata found compatible with the open batch
+    private RowMetaInterface boundMeta;
+
+    // only accessed by the consumer
+    private RowBatch reading;
+    private int readIndex;
+    private volatile int readRemaining;
+
+    private final AtomicInteger queuedRows = new AtomicInteger();
+    // batches queued without a slot by setDone, so no slot should be released when taking them
+    private final AtomicInteger unpermitted = new AtomicInteger();
+
+    /**
+     * Create new columnar row set.
+     *
+     * @param maxSize maximum number of rows
+     */
+    public ColumnarRowSet(int maxSize) {
+        this(maxSize, RowBatch.DEFAULT_CAPACITY);
+    }
+
+    public ColumnarRowSet(int maxSize, int batchSize) {
+        super();
+
+        this.batchSize = Math.max(1, batchSize);
+        this.space = new Semaphore(Math.max(1, maxSize / this.batchSize));
+
+        timeoutGet = Const.toInt(EnvUtil.getSystemProperty(Const.KETTLE_ROWSET_GET_TIMEOUT), Const.TIMEOUT_GET_MILLIS);
+        timeoutPut = Const.toInt(EnvUtil.getSystemProperty(Const.KETTLE_ROWSET_PUT_TIMEOUT), Const.TIMEOUT_PUT_MILLIS);
+    }
+
+    private void enqueue(RowBatch batch) {
+        queue.add(batch);
+        queuedRows.addAndGet(batch.size());
+        available.release();
+    }
+
+    /**
+     * Move the open batch into the queue, waiting for free space if necessary.
+     *
+     * @return false if there's still no space after the given time
+     */
+    private boolean flushOpen(long time, TimeUnit tu) {
+        try {
+            if (!space.tryAcquire(time, tu)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        synchronized (openLock) {
+            if (open == null || open.isEmpty()) {
+                // taken by the consumer in the meantime
+                space.release();
+            } else {
+                enqueue(open);
+            }
+            open = null;
+            openSize = 0;
+        }
+
+        return true;
+    }
+
+    /**
+     * Producers may pass a new instance of the same row metadata for each row, which should not end up with one batch
+     * per row.
+     */
+    private boolean isCompatible(RowBatch batch, RowMetaInterface rowMeta) {
+        if (rowMeta == boundMeta) {
+            return true;
+        } else if (batch.isCompatible(rowMeta)) {
+            boundMeta = rowMeta;
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean putRow(RowMetaInterface rowMeta, Object[] rowData) {
+        return putRowWait(rowMeta, rowData, timeoutPut, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean putRowWait(RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu) {
+        RowBatch batch = open;
+        // only the producer creates or fills batches, so no need to lock for reading
+        if (batch != null && (batch.isFull() || !isCompatible(batch, rowMeta)) && !flushOpen(time, tu)) {
+            return false;
+        }
+
+        synchronized (openLock) {
+            if (open == null) {
+                if (getRowMeta() == null) {
+                    setRowMeta(rowMeta);
+                }
+                open = new RowBatch(rowMeta, batchSize);
+                boundMeta = rowMeta;
+            }
+            open.add(rowData);
+            openSize = open.size();
+        }
+
+        return true;
+    }
+
+    /**
+     * Put a whole batch, typically produced by a batch-aware step.
+     *
+     * @param batch batch of rows
+     * @param time  maximum time to wait for free space
+     * @param tu    time unit
+     * @return false if there's no free space after the given time
+     */
+    public boolean putBatchWait(RowBatch batch, long time, TimeUnit tu) {
+        if (open != null && !flushOpen(time, tu)) {
+            return false;
+        }
+
+        if (batch == null || batch.isEmpty()) {
+            return true;
+        }
+
+        try {
+            if (!space.tryAcquire(time, tu)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        synchronized (openLock) {
+            if (getRowMeta() == null) {
+                setRowMeta(batch.getRowMeta());
+            }
+            enqueue(batch);
+        }
+
+        return true;
+    }
+
+    public boolean putBatch(RowBatch batch) {
+        return putBatchWait(batch, timeoutPut, TimeUnit.MILLISECONDS);
+    }
+
+    private RowBatch takeQueued() {
+        RowBatch batch = queue.poll();
+        if (batch != null) {
+            queuedRows.addAndGet(-batch.size());
+            for (int n = unpermitted.get(); n > 0; n = unpermitted.get()) {
+                if (unpermitted.compareAndSet(n, n - 1)) {
+                    return batch;
+                }
+            }
+            space.release();
+        }
+        return batch;
+    }
+
+    private RowBatch nextBatch(long time, TimeUnit tu) {
+        try {
+            if (time > 0 ? available.tryAcquire(time, tu) : available.tryAcquire()) {
+                return takeQueued();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // waited long enough, take over whatever the producer has right now
+        synchronized (openLock) {
+            if (available.tryAcquire()) {
+                return takeQueued();
+            } else if (open != null && !open.isEmpty()) {
+                RowBatch batch = open;
+                open = null;
+                openSize = 0;
+                return batch;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean ensureReadable(long time, TimeUnit tu) {
+        if (reading != null && readIndex < reading.size()) {
+            return true;
+        }
+
+        reading = nextBatch(time, tu);
+        readIndex = 0;
+        readRemaining = reading == null ? 0 : reading.size();
+
+        if (reading != null && reading.getRowMeta() != null) {
+            setRowMeta(reading.getRowMeta());
+        }
+
+        return reading != null;
+    }
+
+    private Object[] nextRow(long time, TimeUnit tu) {
+        if (!ensureReadable(time, tu)) {
+            return null;
+        }
+
+        Object[] row = reading.getRow(readIndex++);
+        readRemaining = reading.size() - readIndex;
+        return row;
+    }
+
+    @Override
+    public Object[] getRow() {
+        return nextRow(timeoutGet, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Object[] getRowImmediate() {
+        return nextRow(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Object[] getRowWait(long timeout, TimeUnit tu) {
+        return nextRow(timeout, tu);
+    }
+
+    /**
+     * Get remaining rows of the current batch, or the next batch as a whole. Don't mix this with getRow unless the
+     * current batch has been fully consumed.
+     *
+     * @param timeout maximum time to wait
+     * @param tu      time unit
+     * @return batch of rows, or null if nothing available
+     */
+    public RowBatch getBatchWait(long timeout, TimeUnit tu) {
+        if (reading != null && readIndex == 0 && reading.size() > 0) {
+            RowBatch batch = reading;
+            reading = null;
+            readRemaining = 0;
+            return batch;
+        }
+
+        RowBatch batch = nextBatch(timeout, tu);
+        if (batch != null && batch.getRowMeta() != null) {
+            setRowMeta(batch.getRowMeta());
+        }
+
+        return batch;
+    }
+
+    public RowBatch getBatch() {
+        return getBatchWait(timeoutGet, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void setDone() {
+        // the queue may be full, make sure nothing is left behind even without a free slot
+        synchronized (openLock) {
+            if (open != null && !open.isEmpty()) {
+                if (!space.tryAcquire()) {
+                    unpermitted.incrementAndGet();
+                }
+                enqueue(open);
+            }
+            open = null;
+            openSize = 0;
+        }
+
+        super.setDone();
+    }
+
+    @Override
+    public int size() {
+        return queuedRows.get() + openSize + readRemaining;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (openLock) {
+            while (available.tryAcquire()) {
+                takeQueued();
+            }
+            queue.clear();
+            queuedRows.set(0);
+            unpermitted.set(0);
+            open = null;
+            openSize = 0;
+        }
+
+        reading = null;
+        readIndex = 0;
+        readRemaining = 0;
+
+        done.set(false);
+    }
+}
@@ -0,0 +1,50 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core;
+
+/**
+ * Row set whose capacity can be changed while rows are flowing.
+ *
+ * @author Zhichun Wu
+ */
+public interface ResizableRowSet extends RowSet {
+    /**
+     * @return current maximum number of rows
+     */
+    int getCapacity();
+
+    /**
+     * @return upper limit of the capacity
+     */
+    int getMaxCapacity();
+
+    /**
+     * Change capacity of the row set. Rows already in the row set are kept even if there are more than the new capacity.
+     *
+     * @param capacity new maximum number of rows
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * @return accumulated time the producer waited on a full row set, in nanoseconds
+     */
+    long getPutWaitNanos();
+
+    /**
+     * @return accumulated time the consumer waited on an empty row set, in nanoseconds
+     */
+    long getGetWaitNanos();
+}
@@ -0,0 +1,260 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core;
+
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Columnar batch of rows sharing the same row metadata. Integer, number and boolean columns(in normal storage) are kept
+ * in primitive arrays, everything else as objects. Nulls are tracked in a bitmap per column.
+ *
+ * @author Zhichun Wu
+ */
+public final class RowBatch {
+    public static final int DEFAULT_CAPACITY
+            = Integer.parseInt(System.getProperty("KETTLE_COLUMNAR_BATCH_SIZE", "1024"));
+
+    static final byte KIND_OBJECT = 0;
+    static final byte KIND_LONG = 1;
+    static final byte KIND_DOUBLE = 2;
+    static final byte KIND_BOOLEAN = 3;
+
+    private final RowMetaInterface rowMeta;
+    private final int capacity;
+    private final int width;
+    private final byte[] kinds;
+
+    private final long[][] longColumns;
+    private final double[][] doubleColumns;
+    private final boolean[][] booleanColumns;
+    // also used by primitive columns for values not matching the declared type
+    private final Object[][] objectColumns;
+    private final long[][] nulls;
+
+    private int size;
+
+    public RowBatch(RowMetaInterface rowMeta) {
+        this(rowMeta, DEFAULT_CAPACITY);
+    }
+
+    public RowBatch(RowMetaInterface rowMeta, int capacity) {
+        this.rowMeta = rowMeta;
+        this.capacity = capacity;
+        this.width = rowMeta == null ? 0 : rowMeta.size();
+        this.kinds = new byte[width];
+
+        this.longColumns = new long[width][];
+        this.doubleColumns = new double[width][];
+        this.booleanColumns = new boolean[width][];
+        this.objectColumns = new Object[width][];
+        this.nulls = new long[width][];
+
+        for (int c = 0; c < width; c++) {
+            ValueMetaInterface valueMeta = rowMeta.getValueMeta(c);
+            int type = valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL
+                    ? valueMeta.getType() : ValueMetaInterface.TYPE_NONE;
+            switch (type) {
+                case ValueMetaInterface.TYPE_INTEGER:
+                    kinds[c] = KIND_LONG;
+                    longColumns[c] = new long[capacity];
+                    break;
+                case ValueMetaInterface.TYPE_NUMBER:
+                    kinds[c] = KIND_DOUBLE;
+                    doubleColumns[c] = new double[capacity];
+                    break;
+                case ValueMetaInterface.TYPE_BOOLEAN:
+                    kinds[c] = KIND_BOOLEAN;
+                    booleanColumns[c] = new boolean[capacity];
+                    break;
+                default:
+                    kinds[c] = KIND_OBJECT;
+                    objectColumns[c] = new Object[capacity];
+                    break;
+            }
+            nulls[c] = new long[(capacity + 63) >>> 6];
+        }
+    }
+
+    private void putObject(int column, int index, Object value) {
+        if (objectColumns[column] == null) {
+            objectColumns[column] = new Object[capacity];
+        }
+        objectColumns[column][index] = value;
+    }
+
+    /**
+     * Append a row to this batch.
+     *
+     * @param row row of data
+     * @return false if the batch is full
+     */
+    public boolean add(Object[] row) {
+        if (size >= capacity) {
+            return false;
+        }
+
+        int index = size;
+        for (int c = 0; c < width; c++) {
+            Object value = c < row.length ? row[c] : null;
+            if (value == null) {
+                nulls[c][index >>> 6] |= 1L << index;
+                continue;
+            }
+
+            switch (kinds[c]) {
+                case KIND_LONG:
+                    if (value instanceof Long) {
+                        longColumns[c][index] = (Long) value;
+                    } else {
+                        putObject(c, index, value);
+                    }
+                    break;
+                case KIND_DOUBLE:
+                    if (value instanceof Double) {
+                        doubleColumns[c][index] = (Double) value;
+                    } else {
+                        putObject(c, index, value);
+                    }
+                    break;
+                case KIND_BOOLEAN:
+                    if (value instanceof Boolean) {
+                        booleanColumns[c][index] = (Boolean) value;
+                    } else {
+                        putObject(c, index, value);
+                    }
+                    break;
+                default:
+                    objectColumns[c][index] = value;
+                    break;
+            }
+        }
+        size++;
+
+        return true;
+    }
+
+    /**
+     * Materialize a row for steps not aware of batches.
+     *
+     * @param index row index in this batch
+     * @return row of data
+     */
+    public Object[] getRow(int index) {
+        Object[] row = RowDataUtil.allocateRowData(width);
+        for (int c = 0; c < width; c++) {
+            row[c] = getObject(c, index);
+        }
+        return row;
+    }
+
+    public Object getObject(int column, int index) {
+        if (isNull(column, index)) {
+            return null;
+        }
+
+        Object[] objects = objectColumns[column];
+        if (objects != null && objects[index] != null) {
+            return objects[index];
+        }
+
+        switch (kinds[column]) {
+            case KIND_LONG:
+                return longColumns[column][index];
+            case KIND_DOUBLE:
+                return doubleColumns[column][index];
+            case KIND_BOOLEAN:
+                return booleanColumns[column][index];
+            default:
+                return null;
+        }
+    }
+
+    public boolean isNull(int column, int index) {
+        return (nulls[column][index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param column column index
+     * @return primitive values of an integer column, or null if the column is not stored as long
+     */
+    public long[] getLongColumn(int column) {
+        return objectColumns[column] == null ? longColumns[column] : null;
+    }
+
+    /**
+     * @param column column index
+     * @return primitive values of a number column, or null if the column is not stored as double
+     */
+    public double[] getDoubleColumn(int column) {
+        return objectColumns[column] == null ? doubleColumns[column] : null;
+    }
+
+    /**
+     * @param column column index
+     * @return primitive values of a boolean column, or null if the column is not stored as boolean
+     */
+    public boolean[] getBooleanColumn(int column) {
+        return objectColumns[column] == null ? booleanColumns[column] : null;
+    }
+
+    public RowMetaInterface getRowMeta() {
+        return rowMeta;
+    }
+
+    /**
+     * Check if rows described by the given metadata can be added to this batch, which is the case when field names,
+     * types and storage types are all the same, even if it's a different instance.
+     *
+     * @param other row metadata
+     * @return true if it's compatible with metadata of this batch
+     */
+    public boolean isCompatible(RowMetaInterface other) {
+        if (other == rowMeta) {
+            return true;
+        } else if (other == null || rowMeta == null || other.size() != width) {
+            return false;
+        }
+
+        for (int c = 0; c < width; c++) {
+            ValueMetaInterface mine = rowMeta.getValueMeta(c);
+            ValueMetaInterface theirs = other.getValueMeta(c);
+            if (mine.getType() != theirs.getType() || mine.getStorageType() != theirs.getStorageType()
+                    || !Const.nullToEmpty(mine.getName()).equals(Const.nullToEmpty(theirs.getName()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+}
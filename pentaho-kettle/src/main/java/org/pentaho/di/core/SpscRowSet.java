@@ -0,0 +1,250 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free row set for exactly one producer thread and one consumer thread, which is the case for hops between two
+ * single step copies. Rows are kept in a ring buffer, and both sides spin for a short while before parking when the
+ * buffer is full or empty.
+ * <p>
+ * Capacity can be changed at runtime, anywhere between 1 and the size of the ring buffer. Time spent waiting on a
+ * full or an empty buffer is accumulated, so that capacity can be adapted to the actual back-pressure.
+ *
+ * @author Zhichun Wu
+ */
+public class SpscRowSet extends BaseRowSet implements Comparable<RowSet>, RowSet, ResizableRowSet {
+    public static final boolean SPSC_ROWSET_DISABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_SPSC_ROWSET_DISABLED", "N"));
+
+    static final int SPIN_TRIES = 256;
+    static final int YIELD_TRIES = 64;
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    // sequences are 128 bytes apart to avoid false sharing
+    private static final int PRODUCER = 15;
+    private static final int CONSUMER = 31;
+
+    private final Object[][] buffer;
+    private final int mask;
+    private volatile int capacity;
+    private final AtomicLongArray sequences = new AtomicLongArray(48);
+
+    private final int timeoutGet;
+    private final int timeoutPut;
+
+    // only accessed by the producer
+    private long cachedConsumer;
+    private RowMetaInterface lastRowMeta;
+    private volatile long putWaitNanos;
+    // only accessed by the consumer
+    private long cachedProducer;
+    private volatile long getWaitNanos;
+
+    /**
+     * Create new lock-free row set.
+     *
+     * @param maxSize maximum number of rows
+     */
+    public SpscRowSet(int maxSize) {
+        this(maxSize, maxSize);
+    }
+
+    /**
+     * Create new lock-free row set with adjustable capacity.
+     *
+     * @param maxSize     initial maximum number of rows
+     * @param maxCapacity upper limit of the capacity, rounded up to the next power of two
+     */
+    public SpscRowSet(int maxSize, int maxCapacity) {
+        super();
+
+        int size = 2;
+        while (size < Math.max(maxSize, maxCapacity) && size < (1 << 30)) {
+            size <<= 1;
+        }
+        buffer = new Object[size][];
+        mask = size - 1;
+        capacity = Math.max(1, Math.min(maxSize, size));
+
+        timeoutGet = Const.toInt(EnvUtil.getSystemProperty(Const.KETTLE_ROWSET_GET_TIMEOUT), Const.TIMEOUT_GET_MILLIS);
+        timeoutPut = Const.toInt(EnvUtil.getSystemProperty(Const.KETTLE_ROWSET_PUT_TIMEOUT), Const.TIMEOUT_PUT_MILLIS);
+    }
+
+    /**
+     * Spin, then yield, then park for an increasing period of time.
+     *
+     * @param tries    number of failed tries so far
+     * @param deadline deadline in nanoseconds
+     * @return false if the deadline has passed
+     */
+    private static boolean idle(int tries, long deadline) {
+        if (tries < SPIN_TRIES) {
+            return true;
+        } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+            return true;
+        }
+
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0L || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        long parkNanos = 1000L << Math.min(10, tries - SPIN_TRIES - YIELD_TRIES);
+        LockSupport.parkNanos(Math.min(remaining, Math.min(parkNanos, MAX_PARK_NANOS)));
+        return true;
+    }
+
+    @Override
+    public boolean putRow(RowMetaInterface rowMeta, Object[] rowData) {
+        return putRowWait(rowMeta, rowData, timeoutPut, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean putRowWait(RowMetaInterface rowMeta, Object[] rowData, long time, TimeUnit tu) {
+        long tail = sequences.get(PRODUCER);
+        int limit = capacity;
+
+        if (tail - cachedConsumer >= limit && tail - (cachedConsumer = sequences.get(CONSUMER)) >= limit) {
+            if (time <= 0L) {
+                return false;
+            }
+
+            long start = System.nanoTime();
+            try {
+                long deadline = start + tu.toNanos(time);
+                for (int tries = 0; tail - (cachedConsumer = sequences.get(CONSUMER)) >= limit; tries++) {
+                    if (!idle(tries, deadline)) {
+                        return false;
+                    }
+                }
+            } finally {
+                putWaitNanos += System.nanoTime() - start;
+            }
+        }
+
+        if (rowMeta != lastRowMeta) {
+            setRowMeta(rowMeta);
+            lastRowMeta = rowMeta;
+        }
+
+        buffer[(int) tail & mask] = rowData;
+        // publish the row after it's been written
+        sequences.lazySet(PRODUCER, tail + 1);
+
+        return true;
+    }
+
+    private Object[] poll(long time, TimeUnit tu) {
+        long head = sequences.get(CONSUMER);
+
+        if (head >= cachedProducer && head >= (cachedProducer = sequences.get(PRODUCER))) {
+            if (time <= 0L) {
+                return null;
+            }
+
+            long start = System.nanoTime();
+            try {
+                long deadline = start + tu.toNanos(time);
+                for (int tries = 0; head >= (cachedProducer = sequences.get(PRODUCER)); tries++) {
+                    if (!idle(tries, deadline)) {
+                        return null;
+                    }
+                }
+            } finally {
+                getWaitNanos += System.nanoTime() - start;
+            }
+        }
+
+        int index = (int) head & mask;
+        Object[] row = buffer[index];
+        buffer[index] = null;
+        sequences.lazySet(CONSUMER, head + 1);
+
+        return row;
+    }
+
+    @Override
+    public Object[] getRow() {
+        return poll(timeoutGet, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Object[] getRowImmediate() {
+        return poll(0L, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Object[] getRowWait(long timeout, TimeUnit tu) {
+        return poll(timeout, tu);
+    }
+
+    @Override
+    public int size() {
+        // read consumer first so that the result is never negative
+        long head = sequences.get(CONSUMER);
+        return (int) (sequences.get(PRODUCER) - head);
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getMaxCapacity() {
+        return buffer.length;
+    }
+
+    @Override
+    public void setCapacity(int capacity) {
+        // rows beyond the new capacity stay, the producer simply waits until they're consumed
+        this.capacity = Math.max(1, Math.min(capacity, buffer.length));
+    }
+
+    @Override
+    public long getPutWaitNanos() {
+        return putWaitNanos;
+    }
+
+    @Override
+    public long getGetWaitNanos() {
+        return getWaitNanos;
+    }
+
+    /**
+     * Only safe when neither the producer nor the consumer is active, for example when running single threaded.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < buffer.length; i++) {
+            buffer[i] = null;
+        }
+        sequences.set(PRODUCER, 0L);
+        sequences.set(CONSUMER, 0L);
+        cachedConsumer = 0L;
+        cachedProducer = 0L;
+
+        done.set(false);
+    }
+}
@@ -0,0 +1,221 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.database;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.util.Utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out batch IDs of log tables from blocks reserved in the logging database, instead of asking the database for
+ * each run. Enabled when KETTLE_BATCH_ID_BLOCK_SIZE is greater than 1.
+ * <p>
+ * A block is reserved either from a sequence(KETTLE_BATCH_ID_SEQUENCE, which must be created with INCREMENT BY the
+ * block size), or from a counter row per log table in table KETTLE_BATCH_ID_TABLE, which is created in the schema of
+ * the log table when missing. The counter row is updated and read in one transaction, so Carte nodes sharing the
+ * logging database never get overlapping blocks. Its first block starts after the highest batch ID in the log table.
+ * <p>
+ * IDs are unique but not in order of execution across nodes, and IDs left in a block are lost when the JVM exits.
+ * <p>
+ * All nodes writing to the same log table must enable it with the same settings. A node with it disabled takes the
+ * highest batch ID in the log table plus one, which is likely inside a block reserved by another node. This is enforced
+ * where it can be: each new block from the counter must start after the highest batch ID in the log table, otherwise
+ * IDs were handed out around the counter. That's logged as an error, the counter is moved past them and the block is
+ * reserved again.
+ *
+ * @author Zhichun Wu
+ */
+public final class BatchIdAllocator {
+    public static final int BLOCK_SIZE = Integer.parseInt(System.getProperty("KETTLE_BATCH_ID_BLOCK_SIZE", "1"));
+    static final String SEQUENCE_NAME = System.getProperty("KETTLE_BATCH_ID_SEQUENCE", "");
+    static final String COUNTER_TABLE = System.getProperty("KETTLE_BATCH_ID_TABLE", "KETTLE_BATCH_ID");
+
+    static final String FIELD_TABLE_NAME = "ID_TABLE";
+    static final String FIELD_NEXT_ID = "NEXT_ID";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final Map<String, Block> blocks = new ConcurrentHashMap<>();
+
+    static final class Block {
+        private long next = 0L;
+        private long end = 0L;
+
+        // reserving blocks of the same log table one at a time
+        synchronized Long next(DatabaseMeta databaseMeta, Database ldb, String schemaName, String tableName,
+                               String fieldName) throws KettleDatabaseException {
+            if (next >= end) {
+                next = Utils.isEmpty(SEQUENCE_NAME)
+                        ? reserveFromCounter(databaseMeta, ldb, schemaName, tableName, fieldName)
+                        : reserveFromSequence(ldb, schemaName, fieldName);
+                end = next + BLOCK_SIZE;
+            }
+            return next++;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return BLOCK_SIZE > 1;
+    }
+
+    private static String buildKey(DatabaseMeta databaseMeta, Database ldb, String schemaName, String tableName) {
+        return new StringBuilder().append(databaseMeta.getName()).append('|')
+                .append(ldb.environmentSubstitute(databaseMeta.getHostname())).append('|')
+                .append(ldb.environmentSubstitute(databaseMeta.getDatabasePortNumberString())).append('|')
+                .append(ldb.environmentSubstitute(databaseMeta.getDatabaseName())).append('|')
+                .append(Utils.isEmpty(SEQUENCE_NAME)
+                        ? databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName) : SEQUENCE_NAME)
+                .toString();
+    }
+
+    private static long reserveFromSequence(Database ldb, String schemaName, String fieldName)
+            throws KettleDatabaseException {
+        Long value = ldb.getNextSequenceValue(schemaName, ldb.environmentSubstitute(SEQUENCE_NAME), fieldName);
+        if (value == null) {
+            throw new KettleDatabaseException("No value from sequence " + SEQUENCE_NAME);
+        }
+        return value;
+    }
+
+    private static RowMetaInterface getCounterRowMeta() {
+        RowMetaInterface rowMeta = new RowMeta();
+        rowMeta.addValueMeta(new ValueMetaString(FIELD_TABLE_NAME, 255, 0));
+        rowMeta.addValueMeta(new ValueMetaInteger(FIELD_NEXT_ID, 18, 0));
+        return rowMeta;
+    }
+
+    private static long reserveFromCounter(DatabaseMeta databaseMeta, Database ldb, String schemaName,
+                                           String tableName, String fieldName) throws KettleDatabaseException {
+        String counterTable = databaseMeta.getQuotedSchemaTableCombination(schemaName,
+                ldb.environmentSubstitute(COUNTER_TABLE));
+        String logTable = databaseMeta.getQuotedSchemaTableCombination(schemaName, tableName);
+
+        if (!ldb.checkTableExists(counterTable)) {
+            try {
+                ldb.execStatement(ldb.getDDL(counterTable, getCounterRowMeta(), null, false, FIELD_TABLE_NAME));
+            } catch (KettleDatabaseException e) {
+                // might be created by another node in the meantime
+                if (!ldb.checkTableExists(counterTable)) {
+                    throw e;
+                }
+            }
+        }
+
+        String update = new StringBuilder().append("UPDATE ").append(counterTable).append(" SET ")
+                .append(databaseMeta.quoteField(FIELD_NEXT_ID)).append(" = ")
+                .append(databaseMeta.quoteField(FIELD_NEXT_ID)).append(" + ").append(BLOCK_SIZE).append(" WHERE ")
+                .append(databaseMeta.quoteField(FIELD_TABLE_NAME)).append(" = ?").toString();
+        String select = new StringBuilder().append("SELECT ").append(databaseMeta.quoteField(FIELD_NEXT_ID))
+                .append(" FROM ").append(counterTable).append(" WHERE ")
+                .append(databaseMeta.quoteField(FIELD_TABLE_NAME)).append(" = ?").toString();
+
+        String move = new StringBuilder().append("UPDATE ").append(counterTable).append(" SET ")
+                .append(databaseMeta.quoteField(FIELD_NEXT_ID)).append(" = ? WHERE ")
+                .append(databaseMeta.quoteField(FIELD_TABLE_NAME)).append(" = ? AND ")
+                .append(databaseMeta.quoteField(FIELD_NEXT_ID)).append(" < ?").toString();
+
+        RowMetaInterface keyMeta = new RowMeta();
+        keyMeta.addValueMeta(new ValueMetaString(FIELD_TABLE_NAME));
+        Object[] key = new Object[]{logTable};
+
+        RowMetaInterface moveMeta = new RowMeta();
+        moveMeta.addValueMeta(new ValueMetaInteger(FIELD_NEXT_ID));
+        moveMeta.addValueMeta(new ValueMetaString(FIELD_TABLE_NAME));
+        moveMeta.addValueMeta(new ValueMetaInteger(FIELD_NEXT_ID));
+
+        // update and read in one transaction, the row stays locked until commit
+        boolean autoCommit = ldb.isAutoCommit();
+        if (autoCommit) {
+            ldb.setAutoCommit(false);
+        }
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    Result result = ldb.execStatement(update, keyMeta, key);
+                    if (result.getNrLinesUpdated() > 0) {
+                        RowMetaAndData row = ldb.getOneRow(select, keyMeta, key);
+                        long start = row.getRowMeta().getInteger(row.getData(), 0) - BLOCK_SIZE;
+                        long next = databaseMeta.getDatabaseInterface().getNextBatchId(
+                                databaseMeta, ldb, schemaName, tableName, fieldName);
+                        if (next <= start) {
+                            ldb.commit(true);
+                            return start;
+                        }
+
+                        // IDs were handed out around the counter, most likely by a node with the allocator disabled
+                        LogChannel.GENERAL.logError(new StringBuilder().append("Batch ID ").append(next - 1)
+                                .append(" in ").append(logTable).append(" was not reserved from ").append(counterTable)
+                                .append(", all writers of the log table must set KETTLE_BATCH_ID_BLOCK_SIZE to ")
+                                .append(BLOCK_SIZE).toString());
+                        ldb.execStatement(move, moveMeta, new Object[]{next, logTable, next});
+                        ldb.commit(true);
+                        if (attempt >= MAX_ATTEMPTS) {
+                            throw new KettleDatabaseException("Batch IDs of " + logTable + " keep being taken around "
+                                    + counterTable);
+                        }
+                        continue;
+                    }
+
+                    // first block of the log table, continue from what's in there
+                    long start = databaseMeta.getDatabaseInterface().getNextBatchId(
+                            databaseMeta, ldb, schemaName, tableName, fieldName);
+                    ldb.insertRow(schemaName, ldb.environmentSubstitute(COUNTER_TABLE), getCounterRowMeta(),
+                            new Object[]{logTable, start + BLOCK_SIZE});
+                    ldb.commit(true);
+                    return start;
+                } catch (KettleDatabaseException | KettleValueException | RuntimeException e) {
+                    ldb.rollback(true);
+                    // most likely another node inserted the counter row first
+                    if (attempt >= MAX_ATTEMPTS) {
+                        throw new KettleDatabaseException("Unable to reserve batch IDs for " + logTable, e);
+                    }
+                }
+            }
+        } finally {
+            if (autoCommit) {
+                ldb.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Gets next batch ID of the log table from reserved block, a new block is reserved when the current one is used
+     * up.
+     */
+    public static Long getNextBatchId(DatabaseMeta databaseMeta, Database ldb, String schemaName, String tableName,
+                                      String fieldName) throws KettleDatabaseException {
+        String key = buildKey(databaseMeta, ldb, schemaName, tableName);
+        Block block = blocks.get(key);
+        if (block == null) {
+            Block newBlock = new Block();
+            block = blocks.putIfAbsent(key, newBlock);
+            if (block == null) {
+                block = newBlock;
+            }
+        }
+        return block.next(databaseMeta, ldb, schemaName, tableName, fieldName);
+    }
+}
@@ -2856,6 +2856,9 @@ public class DatabaseMeta extends SharedObjectBase implements Cloneable, XMLInte
     }
 
     public Long getNextBatchId(Database ldb, String schemaName, String tableName, String fieldName) throws KettleDatabaseException {
+        if (BatchIdAllocator.isEnabled()) {
+            return BatchIdAllocator.getNextBatchId(this, ldb, schemaName, tableName, fieldName);
+        }
         return databaseInterface.getNextBatchId(this, ldb, schemaName, tableName, fieldName);
     }
 
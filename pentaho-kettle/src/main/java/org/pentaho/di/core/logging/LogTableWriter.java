@@ -0,0 +1,553 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.logging;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes records of trans/job/step/performance/metrics/channel log tables in background, so that a transformation or
+ * job doesn't have to wait for the logging database when it finishes. Enabled by KETTLE_ASYNC_LOG_TABLES=Y.
+ * <p>
+ * Log records are taken on the calling thread, and queued per logging database. Each logging database has one writer
+ * thread with one connection kept open while there's something to write. Consecutive inserts into the same table are
+ * sent in a batch, updates and cleanups are applied in the order they're queued. When the queue is full, callers wait.
+ * Queued records are flushed when the JVM shuts down.
+ * <p>
+ * Records are committed when a run of inserts into a table is done and at the end of a batch, never in the middle of a
+ * run. When a batch fails, records not committed yet are retried with growing delays, up to
+ * KETTLE_ASYNC_LOG_TABLES_MAX_RETRIES times, before they're given up and counted as failed.
+ * <p>
+ * Writers are keyed by all connection properties resolved against the caller's variables, password included, and
+ * connect with a copy of the connection holding the resolved values. Table names and the cleanup timeout are resolved
+ * when records are queued. Nothing of the caller is kept. A writer idle for KETTLE_ASYNC_LOG_TABLES_IDLE_SECONDS
+ * closes its connection, removes itself and its thread exits.
+ *
+ * @author Zhichun Wu
+ */
+public final class LogTableWriter {
+    public static final boolean ASYNC_LOG_TABLES_ENABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_ASYNC_LOG_TABLES", "N"));
+    static final int QUEUE_SIZE = Integer.parseInt(System.getProperty("KETTLE_ASYNC_LOG_TABLES_QUEUE_SIZE", "10000"));
+    static final int BATCH_SIZE = Integer.parseInt(System.getProperty("KETTLE_ASYNC_LOG_TABLES_BATCH_SIZE", "500"));
+    static final int IDLE_SECONDS = Integer.parseInt(System.getProperty("KETTLE_ASYNC_LOG_TABLES_IDLE_SECONDS", "60"));
+    static final int MAX_RETRIES = Integer.parseInt(System.getProperty("KETTLE_ASYNC_LOG_TABLES_MAX_RETRIES", "10"));
+    static final long MAX_RETRY_DELAY_MS
+            = Long.parseLong(System.getProperty("KETTLE_ASYNC_LOG_TABLES_MAX_RETRY_DELAY_MS", "60000"));
+    static final long SHUTDOWN_TIMEOUT_MS
+            = Long.parseLong(System.getProperty("KETTLE_ASYNC_LOG_TABLES_SHUTDOWN_TIMEOUT_MS", "30000"));
+
+    private static final LoggingObjectInterface loggingObject
+            = new SimpleLoggingObject("Log table writer", LoggingObjectType.GENERAL, null);
+    private static final Map<String, LogTableWriter> writers = new ConcurrentHashMap<>();
+
+    // writers come and go, counters are kept here
+    private static final AtomicLong writtenCount = new AtomicLong(0L);
+    private static final AtomicLong failedCount = new AtomicLong(0L);
+
+    static {
+        if (ASYNC_LOG_TABLES_ENABLED) {
+            Runtime.getRuntime().addShutdownHook(new Thread("kettle-log-table-writer-shutdown") {
+                @Override
+                public void run() {
+                    flushAll(SHUTDOWN_TIMEOUT_MS);
+                }
+            });
+        }
+    }
+
+    enum Kind {
+        INSERT, UPDATE, CLEANUP
+    }
+
+    static final class Record {
+        final Kind kind;
+        final String schemaName;
+        final String tableName;
+        // log record, or the log date limit for cleanup
+        final RowMetaAndData row;
+
+        Record(Kind kind, String schemaName, String tableName, RowMetaAndData row) {
+            this.kind = kind;
+            this.schemaName = schemaName;
+            this.tableName = tableName;
+            this.row = row;
+        }
+
+        boolean isSameInsert(Record r) {
+            return r != null && r.kind == Kind.INSERT && kind == Kind.INSERT
+                    && r.tableName.equals(tableName) && String.valueOf(r.schemaName).equals(String.valueOf(schemaName))
+                    && r.row.getRowMeta().size() == row.getRowMeta().size();
+        }
+    }
+
+    private final String key;
+    // for logging, the key is too long and may contain secrets in extra options
+    private final String name;
+    private final DatabaseMeta databaseMeta;
+    private final VariableSpace variables;
+    private final LogChannelInterface log;
+
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_SIZE);
+    // queued but not written yet
+    private final AtomicLong pending = new AtomicLong(0L);
+    // set when the writer retired, guarded by this
+    private boolean closed = false;
+
+    private Database db;
+    // records of the current batch committed so far
+    private int committed;
+
+    /**
+     * @return a copy of the connection with all properties resolved against the given variables
+     */
+    static DatabaseMeta resolve(DatabaseMeta databaseMeta, VariableSpace space) {
+        DatabaseMeta resolved = (DatabaseMeta) databaseMeta.clone();
+        resolved.setHostname(space.environmentSubstitute(databaseMeta.getHostname()));
+        resolved.setDBPort(space.environmentSubstitute(databaseMeta.getDatabasePortNumberString()));
+        resolved.setDBName(space.environmentSubstitute(databaseMeta.getDatabaseName()));
+        resolved.setUsername(space.environmentSubstitute(databaseMeta.getUsername()));
+        resolved.setPassword(space.environmentSubstitute(databaseMeta.getPassword()));
+        resolved.setServername(space.environmentSubstitute(databaseMeta.getServername()));
+        resolved.setDataTablespace(space.environmentSubstitute(databaseMeta.getDataTablespace()));
+        resolved.setIndexTablespace(space.environmentSubstitute(databaseMeta.getIndexTablespace()));
+        // extra options, pooling parameters, connect SQL and the like
+        for (String name : resolved.getAttributes().stringPropertyNames()) {
+            resolved.getAttributes().setProperty(name,
+                    space.environmentSubstitute(resolved.getAttributes().getProperty(name)));
+        }
+        return resolved;
+    }
+
+    private static String digest(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String buildKey(DatabaseMeta resolved) {
+        StringBuilder sb = new StringBuilder().append(resolved.getName()).append('|')
+                .append(resolved.getPluginId()).append('|')
+                .append(resolved.getAccessType()).append('|')
+                .append(resolved.getHostname()).append('|')
+                .append(resolved.getDatabasePortNumberString()).append('|')
+                .append(resolved.getDatabaseName()).append('|')
+                .append(resolved.getServername()).append('|')
+                .append(resolved.getUsername()).append('|')
+                // not kept in clear text
+                .append(digest(resolved.getPassword()));
+
+        Map<String, String> attributes = new TreeMap<>();
+        for (String name : resolved.getAttributes().stringPropertyNames()) {
+            attributes.put(name, resolved.getAttributes().getProperty(name));
+        }
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            sb.append('|').append(attribute.getKey()).append('=').append(attribute.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static LogTableWriter getWriter(DatabaseMeta resolved, String key) {
+        LogTableWriter writer = writers.get(key);
+        if (writer == null) {
+            synchronized (writers) {
+                writer = writers.get(key);
+                if (writer == null) {
+                    writer = new LogTableWriter(key, resolved);
+                    writers.put(key, writer);
+                }
+            }
+        }
+        return writer;
+    }
+
+    private static void enqueue(VariableSpace space, LogTableCoreInterface logTable, Kind kind, RowMetaAndData row)
+            throws KettleException {
+        DatabaseMeta databaseMeta = logTable.getDatabaseMeta();
+        if (databaseMeta == null) {
+            return;
+        }
+
+        Record record = new Record(kind, space.environmentSubstitute(logTable.getActualSchemaName()),
+                space.environmentSubstitute(logTable.getActualTableName()), row);
+        DatabaseMeta resolved = resolve(databaseMeta, space);
+        String key = buildKey(resolved);
+        // the writer might retire in between, take a new one then
+        while (!getWriter(resolved, key).add(record)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Takes a log record of the subject now and writes it later. Same as
+     * {@link Database#writeLogRecord(LogTableCoreInterface, LogStatus, Object, Object)}, the record is inserted when
+     * the status is START or there's no key field, otherwise it's updated.
+     */
+    public static void writeLogRecord(VariableSpace space, LogTableCoreInterface logTable, LogStatus status,
+                                      Object subject, Object parent) throws KettleException {
+        RowMetaAndData row = logTable.getLogRecord(status, subject, parent);
+        if (row == null) {
+            return;
+        }
+
+        boolean update = logTable.getKeyField() != null && !status.equals(LogStatus.START);
+        enqueue(space, logTable, update ? Kind.UPDATE : Kind.INSERT, row);
+    }
+
+    /**
+     * Inserts the given log record later.
+     */
+    public static void insertLogRecord(VariableSpace space, LogTableCoreInterface logTable, RowMetaAndData row)
+            throws KettleException {
+        if (row != null) {
+            enqueue(space, logTable, Kind.INSERT, row);
+        }
+    }
+
+    /**
+     * Removes timed out records from the log table, after records queued so far are written.
+     */
+    public static void cleanupLogRecords(VariableSpace space, LogTableCoreInterface logTable) throws KettleException {
+        // same as Database.cleanupLogRecords(), but the timeout is resolved against the caller's variables
+        double timeout = Const.toDouble(Const.trim(space.environmentSubstitute(logTable.getTimeoutInDays())), 0.0);
+        LogTableField logDateField = logTable.getLogDateField();
+        if (timeout < 0.000001 || logDateField == null) {
+            return;
+        }
+
+        RowMetaAndData limit = new RowMetaAndData();
+        limit.addValue(logDateField.getFieldName(), ValueMetaInterface.TYPE_DATE,
+                new Date(System.currentTimeMillis() - Math.round(timeout * 24 * 60 * 60 * 1000)));
+        enqueue(space, logTable, Kind.CLEANUP, limit);
+    }
+
+    /**
+     * Wait until all queued records are written.
+     *
+     * @param timeoutMs maximum time to wait in milliseconds
+     * @return true if everything is written
+     */
+    public static boolean flushAll(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean flushed = true;
+        for (LogTableWriter writer : writers.values()) {
+            flushed = writer.flush(deadline - System.currentTimeMillis()) && flushed;
+        }
+        return flushed;
+    }
+
+    private LogTableWriter(String key, DatabaseMeta databaseMeta) {
+        this.key = key;
+        this.name = new StringBuilder().append(databaseMeta.getName()).append('(')
+                .append(databaseMeta.getHostname()).append('/').append(databaseMeta.getDatabaseName()).append(')')
+                .toString();
+        this.databaseMeta = databaseMeta;
+        // everything is resolved already, system properties only
+        this.variables = new Variables();
+        this.variables.initializeVariablesFrom(null);
+        this.log = new LogChannel(loggingObject);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "kettle-log-table-writer-" + databaseMeta.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return false if the writer retired and the record was not taken
+     */
+    private boolean add(Record record) throws KettleException {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            // counted before the writer may check it for retiring
+            pending.incrementAndGet();
+        }
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new KettleException("Interrupted while queuing log record for table " + record.tableName, e);
+        }
+        return true;
+    }
+
+    /**
+     * Remove this writer once there's nothing left to write.
+     *
+     * @return true if retired
+     */
+    private boolean retire() {
+        synchronized (this) {
+            if (pending.get() > 0L) {
+                return false;
+            }
+            closed = true;
+        }
+        writers.remove(key, this);
+        disconnect();
+        return true;
+    }
+
+    private boolean flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (pending) {
+            while (pending.get() > 0L) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0L) {
+                    log.logError(new StringBuilder().append(pending.get())
+                            .append(" log records not written into ").append(name).toString());
+                    return false;
+                }
+                try {
+                    pending.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void done(int count) {
+        synchronized (pending) {
+            if (pending.addAndGet(-count) <= 0L) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    private void runLoop() {
+        List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+        while (true) {
+            try {
+                Record first = queue.poll(IDLE_SECONDS, TimeUnit.SECONDS);
+                if (first == null) {
+                    if (retire()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // daemon thread, only stops when idle
+            } catch (Throwable t) {
+                log.logError("Unexpected error writing log records into " + name, t);
+            } finally {
+                int count = batch.size();
+                batch.clear();
+                if (count > 0) {
+                    done(count);
+                }
+            }
+        }
+    }
+
+    private void disconnect() {
+        if (db != null) {
+            db.disconnect();
+            db = null;
+        }
+    }
+
+    private void write(List<Record> batch) throws InterruptedException {
+        committed = 0;
+        long delay = 1000L;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (db == null) {
+                    db = new Database(loggingObject, databaseMeta);
+                    db.shareVariablesWith(variables);
+                    db.connect();
+                    // larger than any batch, so that nothing is committed before the batch or a table in it is done
+                    db.setCommit(Integer.MAX_VALUE);
+                }
+
+                writeBatch(batch);
+
+                if (!db.isAutoCommit()) {
+                    db.commit(true);
+                }
+                writtenCount.addAndGet(batch.size());
+                return;
+            } catch (Exception e) {
+                // the connection might be broken, try again later with a new one
+                if (db != null) {
+                    try {
+                        db.rollback(true);
+                    } catch (Exception re) {
+                        // ignore
+                    }
+                }
+                disconnect();
+
+                int left = batch.size() - committed;
+                if (attempt >= MAX_RETRIES) {
+                    writtenCount.addAndGet(committed);
+                    failedCount.addAndGet(left);
+                    log.logError(new StringBuilder().append("Failed to write ").append(left)
+                            .append(" log records into ").append(name).append(" after ").append(attempt + 1)
+                            .append(" attempts").toString(), e);
+                    return;
+                }
+
+                if (log.isDetailed()) {
+                    log.logDetailed(new StringBuilder().append("Failed to write ").append(left)
+                            .append(" log records into ").append(name).append(", retry in ").append(delay)
+                            .append("ms: ").append(e.getMessage()).toString());
+                }
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, Math.max(MAX_RETRY_DELAY_MS, 1L));
+            }
+        }
+    }
+
+    /**
+     * Write records of the batch not committed yet. Inserts are committed whenever a table is done, so
+     * {@link #committed} moves forward then and records before it are skipped on retry.
+     */
+    private void writeBatch(List<Record> batch) throws KettleException {
+        int size = batch.size();
+        for (int i = committed; i < size; i++) {
+            Record record = batch.get(i);
+            switch (record.kind) {
+                case INSERT:
+                    RowMetaInterface rowMeta = record.row.getRowMeta();
+                    db.prepareInsert(rowMeta, record.schemaName, record.tableName);
+                    db.setValuesInsert(rowMeta, record.row.getData());
+                    db.insertRow(true);
+                    // same table follows
+                    while (i + 1 < size && record.isSameInsert(batch.get(i + 1))) {
+                        RowMetaAndData row = batch.get(++i).row;
+                        db.setValuesInsert(row.getRowMeta(), row.getData());
+                        db.insertRow(true);
+                    }
+                    // executes the batch and commits, along with preceding updates and cleanups
+                    db.insertFinished(true);
+                    if (!db.isAutoCommit()) {
+                        committed = i + 1;
+                    }
+                    break;
+                case UPDATE:
+                    update(record);
+                    break;
+                case CLEANUP:
+                    cleanup(record);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Update the record identified by its first field, same as what Database.writeLogRecord() does.
+     */
+    private void update(Record record) throws KettleException {
+        RowMetaInterface rowMeta = record.row.getRowMeta();
+        Object[] rowData = record.row.getData();
+
+        RowMetaInterface updateRowMeta = new RowMeta();
+        Object[] updateRowData = new Object[rowMeta.size()];
+        StringBuilder sql = new StringBuilder().append("UPDATE ")
+                .append(databaseMeta.getQuotedSchemaTableCombination(record.schemaName, record.tableName))
+                .append(" SET ");
+        for (int i = 1; i < rowMeta.size(); i++) {
+            if (i > 1) {
+                sql.append(", ");
+            }
+            sql.append(databaseMeta.quoteField(rowMeta.getValueMeta(i).getName())).append("=? ");
+            updateRowMeta.addValueMeta(rowMeta.getValueMeta(i));
+            updateRowData[i - 1] = rowData[i];
+        }
+        sql.append("WHERE ").append(databaseMeta.quoteField(rowMeta.getValueMeta(0).getName())).append("=? ");
+        updateRowMeta.addValueMeta(rowMeta.getValueMeta(0));
+        updateRowData[rowMeta.size() - 1] = rowData[0];
+
+        db.execStatement(sql.toString(), updateRowMeta, updateRowData);
+    }
+
+    /**
+     * Remove records older than the log date limit, same as what Database.cleanupLogRecords() does.
+     */
+    private void cleanup(Record record) throws KettleException {
+        RowMetaInterface rowMeta = record.row.getRowMeta();
+        String sql = new StringBuilder().append("DELETE FROM ")
+                .append(databaseMeta.getQuotedSchemaTableCombination(record.schemaName, record.tableName))
+                .append(" WHERE ").append(databaseMeta.quoteField(rowMeta.getValueMeta(0).getName())).append(" < ?")
+                .toString();
+
+        db.execStatement(sql, rowMeta, record.row.getData());
+    }
+
+    public static long getPendingCount() {
+        long count = 0L;
+        for (LogTableWriter writer : writers.values()) {
+            count += writer.pending.get();
+        }
+        return count;
+    }
+
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public static long getFailedCount() {
+        return failedCount.get();
+    }
+}
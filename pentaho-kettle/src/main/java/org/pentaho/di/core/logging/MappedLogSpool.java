@@ -0,0 +1,525 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Optional log store for Carte objects. Log lines of a transformation or job(including all its children) are spooled
+ * into memory-mapped segment files, so that they're neither truncated by the central log buffer nor kept in heap.
+ * Only line offsets are held in memory.
+ * <p>
+ * Once installed, Carte serves logs of its objects from here, and their lines are dropped from the central log buffer
+ * when older than KETTLE_CARTE_LOG_SPOOL_BUFFER_SECONDS. The delay leaves in-process readers of the central buffer, like
+ * the log text of executor steps, time to pick them up.
+ * <p>
+ * Each process spools into its own directory, locked while the process is alive. Directories left by processes gone
+ * are deleted on install.
+ *
+ * @author Zhichun Wu
+ */
+public final class MappedLogSpool implements KettleLoggingEventListener {
+    public static final boolean LOG_SPOOL_ENABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_CARTE_LOG_SPOOL", "N"));
+    static final String LOG_SPOOL_DIR = System.getProperty("KETTLE_CARTE_LOG_SPOOL_DIR",
+            new File(System.getProperty("java.io.tmpdir"), "kettle-log-spool").getPath());
+    static final int LOG_SPOOL_SEGMENT_SIZE
+            = Integer.parseInt(System.getProperty("KETTLE_CARTE_LOG_SPOOL_SEGMENT_MB", "16")) * 1024 * 1024;
+    static final int LOG_SPOOL_MAX_FETCH_LINES
+            = Integer.parseInt(System.getProperty("KETTLE_CARTE_LOG_SPOOL_MAX_FETCH_LINES", "50000"));
+    static final int LOG_SPOOL_BUFFER_SECONDS
+            = Integer.parseInt(System.getProperty("KETTLE_CARTE_LOG_SPOOL_BUFFER_SECONDS", "60"));
+    static final long LOG_SPOOL_MISS_TTL_MS
+            = Long.parseLong(System.getProperty("KETTLE_CARTE_LOG_SPOOL_MISS_TTL_MS", "5000"));
+
+    private static final String NO_ROOT = "";
+    private static final String LOCK_FILE = ".lock";
+    private static final int MAX_PARENT_DEPTH = 64;
+    private static final int MAX_ROOT_CACHE_SIZE = 100000;
+
+    private static final MappedBufferCleaner cleaner = new MappedBufferCleaner();
+
+    private static final MappedLogSpool instance = new MappedLogSpool();
+
+    static final class Spool {
+        private final File dir;
+        private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+        private final KettleLogLayout layout = new KettleLogLayout(true);
+
+        // segment index in higher 32 bits and position in lower 32 bits
+        private long[] offsets = new long[1024];
+        private int[] lengths = new int[1024];
+        private int lineCount = 0;
+
+        private ByteBuffer current = null;
+        private boolean closed = false;
+
+        Spool(File dir) {
+            this.dir = dir;
+        }
+
+        private ByteBuffer nextSegment() throws IOException {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Failed to create directory " + dir);
+            }
+
+            File file = new File(dir, "segment-" + segments.size() + ".log");
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, LOG_SPOOL_SEGMENT_SIZE);
+                segments.add(segment);
+                return segment.duplicate();
+            }
+        }
+
+        synchronized void append(KettleLoggingEvent event) throws IOException {
+            if (closed) {
+                return;
+            }
+
+            byte[] bytes = layout.format(event).concat("\n").getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, LOG_SPOOL_SEGMENT_SIZE);
+
+            if (current == null || current.remaining() < length) {
+                current = nextSegment();
+            }
+
+            if (lineCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, lineCount << 1);
+                lengths = Arrays.copyOf(lengths, lineCount << 1);
+            }
+
+            offsets[lineCount] = ((long) (segments.size() - 1) << 32) | current.position();
+            lengths[lineCount] = length;
+            lineCount++;
+
+            current.put(bytes, 0, length);
+        }
+
+        synchronized int getLineCount() {
+            return lineCount;
+        }
+
+        synchronized String read(int from, int to) {
+            to = Math.min(to, lineCount);
+            if (closed || from < 0 || from >= to) {
+                return "";
+            }
+
+            int size = 0;
+            for (int i = from; i < to; i++) {
+                size += lengths[i];
+            }
+
+            byte[] bytes = new byte[size];
+            int pos = 0;
+            for (int i = from; i < to; i++) {
+                ByteBuffer segment = segments.get((int) (offsets[i] >>> 32)).duplicate();
+                segment.position((int) offsets[i]);
+                segment.get(bytes, pos, lengths[i]);
+                pos += lengths[i];
+            }
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        synchronized void close() {
+            closed = true;
+            current = null;
+            // nothing reads or writes segments once closed, as both happen under the same lock
+            for (MappedByteBuffer segment : segments) {
+                cleaner.unmap(segment);
+            }
+            segments.clear();
+            offsets = new long[0];
+            lengths = new int[0];
+            lineCount = 0;
+
+            delete(dir);
+        }
+    }
+
+    /**
+     * Releases mapped regions right away instead of on GC, when the JVM allows to.
+     */
+    static final class MappedBufferCleaner {
+        // Java 9 and later
+        private Object unsafe;
+        private Method invokeCleaner;
+        // Java 8
+        private Method cleanerMethod;
+        private Method cleanMethod;
+
+        MappedBufferCleaner() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (Exception e) {
+                invokeCleaner = null;
+                try {
+                    cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                    cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                } catch (Exception ex) {
+                    // left to GC
+                    cleanerMethod = null;
+                }
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } else if (cleanerMethod != null) {
+                    Object bufferCleaner = cleanerMethod.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        cleanMethod.invoke(bufferCleaner);
+                    }
+                }
+            } catch (Exception e) {
+                // left to GC
+            }
+        }
+    }
+
+    /**
+     * Lines of the central log buffer to remove. The buffer removes lines contained in the given list, so look them up
+     * by identity in a set instead of scanning the list for each line.
+     */
+    static final class BufferLines extends ArrayList<BufferLine> {
+        private final Set<BufferLine> lines = Collections.newSetFromMap(new IdentityHashMap<BufferLine, Boolean>());
+
+        @Override
+        public boolean add(BufferLine line) {
+            return lines.add(line) && super.add(line);
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return lines.contains(o);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    // log channel id -> log channel id of the Carte object
+    private final Map<String, String> rootCache = new ConcurrentHashMap<String, String>();
+    // log channel id -> when to look it up again, for channels not under a Carte object(yet)
+    private final Map<String, Long> missCache = new ConcurrentHashMap<String, Long>();
+    // log channel ids of Carte objects in the root cache
+    private final Set<String> liveRoots = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // log channel id of the Carte object -> spool
+    private final Map<String, Spool> spools = new ConcurrentHashMap<String, Spool>();
+    // guards changes of the root cache, live roots and spools, so that a spool being discarded is not re-created by a
+    // stale lookup
+    private final Object lock = new Object();
+
+    private volatile boolean installed = false;
+    // spool directory of this process, kept locked while the process is alive
+    private File baseDir;
+    private FileChannel lockChannel;
+    private Timer purgeTimer;
+
+    public static MappedLogSpool getInstance() {
+        return instance;
+    }
+
+    private String findRootLogChannelId(String logChannelId) {
+        String rootId = rootCache.get(logChannelId);
+
+        if (rootId == null) {
+            // the channel might not be registered yet, so a miss is only cached for a while
+            Long expiry = missCache.get(logChannelId);
+            if (expiry != null) {
+                if (expiry > System.currentTimeMillis()) {
+                    return NO_ROOT;
+                }
+                missCache.remove(logChannelId);
+            }
+
+            rootId = NO_ROOT;
+
+            LoggingObjectInterface current = LoggingRegistry.getInstance().getLoggingObject(logChannelId);
+            for (int depth = 0; current != null && depth < MAX_PARENT_DEPTH; depth++) {
+                LoggingObjectInterface parent = current.getParent();
+                if (parent == null) {
+                    break;
+                } else if (parent.getObjectType() == LoggingObjectType.CARTE) {
+                    rootId = current.getLogChannelId() == null ? NO_ROOT : current.getLogChannelId();
+                    break;
+                }
+                current = parent;
+            }
+
+            if (rootId.isEmpty()) {
+                if (missCache.size() >= MAX_ROOT_CACHE_SIZE) {
+                    missCache.clear();
+                }
+                missCache.put(logChannelId, System.currentTimeMillis() + LOG_SPOOL_MISS_TTL_MS);
+            } else {
+                synchronized (lock) {
+                    // the Carte object was discarded while looking up its root, it's removed from the registry before
+                    if (LoggingRegistry.getInstance().getLoggingObject(rootId) == null) {
+                        return NO_ROOT;
+                    }
+                    if (rootCache.size() >= MAX_ROOT_CACHE_SIZE) {
+                        rootCache.clear();
+                    }
+                    rootCache.put(logChannelId, rootId);
+                    liveRoots.add(rootId);
+                }
+            }
+        }
+
+        return rootId;
+    }
+
+    private Spool getOrCreateSpool(String rootId) {
+        synchronized (lock) {
+            // the Carte object was discarded while looking up its root
+            if (!liveRoots.contains(rootId)) {
+                return null;
+            }
+
+            Spool spool = spools.get(rootId);
+            if (spool == null) {
+                spool = new Spool(new File(baseDir, rootId));
+                spools.put(rootId, spool);
+            }
+            return spool;
+        }
+    }
+
+    /**
+     * Start spooling log lines of Carte objects. Nothing happens if the log spool is disabled.
+     */
+    public synchronized void install() {
+        if (!LOG_SPOOL_ENABLED || installed) {
+            return;
+        }
+
+        File spoolDir = new File(LOG_SPOOL_DIR);
+        deleteStaleDirs(spoolDir);
+
+        File dir = new File(spoolDir, UUID.randomUUID().toString());
+        try {
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Failed to create directory " + dir);
+            }
+            lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lockChannel.lock();
+        } catch (IOException e) {
+            LogChannel.GENERAL.logError("Log spool is not installed as " + dir + " is not usable", e);
+            return;
+        }
+        baseDir = dir;
+
+        KettleLogStore.getAppender().addLoggingEventListener(this);
+
+        long period = Math.max(1, LOG_SPOOL_BUFFER_SECONDS) * 1000L;
+        purgeTimer = new Timer("kettle-log-spool-purge", true);
+        purgeTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    purgeCentralBuffer();
+                } catch (Exception e) {
+                    // try again next time, logging it would add to the buffer being purged
+                }
+            }
+        }, period, period);
+
+        installed = true;
+    }
+
+    /**
+     * Delete spool directories of processes gone, which are the ones not locked.
+     */
+    private static void deleteStaleDirs(File spoolDir) {
+        File[] dirs = spoolDir.listFiles();
+        if (dirs == null) {
+            return;
+        }
+
+        for (File dir : dirs) {
+            File lockFile = new File(dir, LOCK_FILE);
+            if (!lockFile.exists()) {
+                // left before spool directories were locked
+                delete(dir);
+                continue;
+            }
+
+            boolean stale = false;
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+                FileLock fileLock = channel.tryLock();
+                if (fileLock != null) {
+                    stale = true;
+                    fileLock.release();
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // in use
+            }
+
+            if (stale) {
+                delete(dir);
+            }
+        }
+    }
+
+    /**
+     * Remove lines of spooled Carte objects from the central log buffer, once they're older than
+     * {@link #LOG_SPOOL_BUFFER_SECONDS}.
+     */
+    void purgeCentralBuffer() {
+        if (spools.isEmpty()) {
+            return;
+        }
+
+        LoggingBuffer buffer = KettleLogStore.getAppender();
+        BufferLines spooled = new BufferLines();
+        for (BufferLine line : buffer.getBufferLinesBefore(
+                System.currentTimeMillis() - LOG_SPOOL_BUFFER_SECONDS * 1000L)) {
+            Object message = line.getEvent().getMessage();
+            if (message instanceof LogMessage) {
+                String logChannelId = ((LogMessage) message).getLogChannelId();
+                String rootId = logChannelId == null ? null : rootCache.get(logChannelId);
+                if (rootId != null && spools.containsKey(rootId)) {
+                    spooled.add(line);
+                }
+            }
+        }
+
+        if (!spooled.isEmpty()) {
+            buffer.removeBufferLines(spooled);
+        }
+    }
+
+    public boolean isInstalled() {
+        return installed;
+    }
+
+    @Override
+    public void eventAdded(KettleLoggingEvent event) {
+        Object message = event == null ? null : event.getMessage();
+        if (!(message instanceof LogMessage)) {
+            return;
+        }
+
+        String logChannelId = ((LogMessage) message).getLogChannelId();
+        String rootId = logChannelId == null ? NO_ROOT : findRootLogChannelId(logChannelId);
+        if (rootId.isEmpty()) {
+            return;
+        }
+
+        Spool spool = spools.get(rootId);
+        if (spool == null && (spool = getOrCreateSpool(rootId)) == null) {
+            return;
+        }
+
+        try {
+            spool.append(event);
+        } catch (IOException e) {
+            // nothing we can do here as logging it will end up with recursion
+        }
+    }
+
+    /**
+     * Get the line number right after the last line that can be fetched in one go.
+     *
+     * @param logChannelId log channel id of the transformation or job
+     * @param startLineNr  start line number
+     * @return last line number(exclusive)
+     */
+    public int getLastLineNr(String logChannelId, int startLineNr) {
+        Spool spool = logChannelId == null ? null : spools.get(logChannelId);
+        int lineCount = spool == null ? 0 : spool.getLineCount();
+
+        return LOG_SPOOL_MAX_FETCH_LINES > 0 && lineCount - startLineNr > LOG_SPOOL_MAX_FETCH_LINES
+                ? startLineNr + LOG_SPOOL_MAX_FETCH_LINES : lineCount;
+    }
+
+    public String getLines(String logChannelId, int startLineNr, int lastLineNr) {
+        Spool spool = logChannelId == null ? null : spools.get(logChannelId);
+        return spool == null ? "" : spool.read(startLineNr, lastLineNr);
+    }
+
+    /**
+     * Delete spooled log of the given Carte object.
+     *
+     * @param logChannelId log channel id of the transformation or job
+     */
+    public void discard(String logChannelId) {
+        if (logChannelId == null) {
+            return;
+        }
+
+        Spool spool;
+        synchronized (lock) {
+            spool = spools.remove(logChannelId);
+            liveRoots.remove(logChannelId);
+
+            Iterator<Map.Entry<String, String>> iterator = rootCache.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (logChannelId.equals(iterator.next().getValue())) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    private MappedLogSpool() {
+    }
+}
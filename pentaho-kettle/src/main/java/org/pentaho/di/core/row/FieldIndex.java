@@ -0,0 +1,142 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.row;
+
+import java.util.List;
+
+/**
+ * Immutable case-insensitive index of field names, built once per version of row metadata. It uses open addressing
+ * with precomputed hashes of case-folded names, so lookups need neither locking nor allocation.
+ *
+ * @author Zhichun Wu
+ */
+final class FieldIndex {
+    private final ValueMetaInterface[] valueMetas;
+    private final String[] names;
+    private final int[] hashes;
+    // field index + 1, 0 means empty slot
+    private final int[] slots;
+    private final int mask;
+    // whether a miss means the field does not exist, without checking for fields renamed after the index was built
+    private final boolean authoritative;
+
+    /**
+     * Same folding as {@link String#equalsIgnoreCase(String)}, so that equal names always end up with the same hash.
+     *
+     * @param name field name
+     * @return hash code of the case-folded name
+     */
+    static int hash(String name) {
+        int h = 0;
+        for (int i = 0, len = name.length(); i < len; i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        // spread higher bits as the table is usually small
+        return h ^ (h >>> 16);
+    }
+
+    FieldIndex(List<ValueMetaInterface> valueMetaList) {
+        this(valueMetaList, false);
+    }
+
+    /**
+     * @param valueMetaList value metadata to index
+     * @param authoritative true if value metadata is not supposed to be renamed in place, e.g. frozen row metadata,
+     *                      so that missing fields are reported right away instead of falling back to a linear scan
+     */
+    FieldIndex(List<ValueMetaInterface> valueMetaList, boolean authoritative) {
+        this.authoritative = authoritative;
+
+        int len = valueMetaList.size();
+
+        this.valueMetas = valueMetaList.toArray(new ValueMetaInterface[len]);
+        this.names = new String[len];
+        this.hashes = new int[len];
+
+        int capacity = 4;
+        while (capacity < len * 2) {
+            capacity <<= 1;
+        }
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < len; i++) {
+            String name = valueMetas[i] == null ? null : valueMetas[i].getName();
+            if (name == null) {
+                continue;
+            }
+
+            int h = hash(name);
+            names[i] = name;
+            hashes[i] = h;
+
+            int slot = h & mask;
+            boolean duplicated = false;
+            while (slots[slot] != 0) {
+                int index = slots[slot] - 1;
+                if (hashes[index] == h && name.equalsIgnoreCase(names[index])) {
+                    // keep the first one, just like a linear search
+                    duplicated = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (!duplicated) {
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Find the index of the given field.
+     *
+     * @param valueName field name
+     * @return index of the field, or -1 if not found
+     */
+    int indexOf(String valueName) {
+        int h = hash(valueName);
+        int slot = h & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            if (hashes[index] == h && valueName.equalsIgnoreCase(names[index])) {
+                // make sure the value metadata was not renamed after the index was built
+                if (names[index].equals(valueMetas[index].getName())) {
+                    return index;
+                }
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (authoritative) {
+            return -1;
+        }
+
+        // fallback for fields renamed after the index was built
+        for (int i = 0; i < valueMetas.length; i++) {
+            if (valueMetas[i] != null && valueName.equalsIgnoreCase(valueMetas[i].getName())) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    ValueMetaInterface[] getValueMetas() {
+        return valueMetas;
+    }
+}
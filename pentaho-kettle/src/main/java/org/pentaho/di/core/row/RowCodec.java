@@ -0,0 +1,385 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.core.row;
+
+import org.pentaho.di.core.exception.KettleEOFException;
+import org.pentaho.di.core.exception.KettleFileException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Binary row codec specialized for given row metadata. Instead of going through {@link ValueMetaInterface#writeData}
+ * for each value, a writer and a reader are resolved per field once, and the row is encoded into a reusable
+ * {@link ByteBuffer} as: null bitmap, zigzag varint for integers and dates, raw bits for numbers, and length-prefixed
+ * UTF-8 for strings. Fields using non-normal storage type or types without a specialized form fall back to the value
+ * metadata.
+ * <p>
+ * The compact format is not compatible with the legacy format of {@link RowMeta#writeData(DataOutputStream, Object[])},
+ * so {@link RowMeta#writeMeta(DataOutputStream)} flags the format in front of the metadata and row metadata read from
+ * a stream uses the format it's flagged with. Streams without the flag are in legacy format. Row metadata created in
+ * this JVM uses KETTLE_ROW_CODEC_FORMAT, legacy by default.
+ * <p>
+ * A codec reuses its buffers and therefore is not thread-safe.
+ *
+ * @author Zhichun Wu
+ */
+public final class RowCodec {
+    public static final int FORMAT_LEGACY = 1;
+    public static final int FORMAT_COMPACT = 2;
+
+    public static final int DEFAULT_FORMAT = toFormat(
+            Integer.parseInt(System.getProperty("KETTLE_ROW_CODEC_FORMAT", String.valueOf(FORMAT_LEGACY))));
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    interface FieldWriter {
+        void write(RowCodec codec, Object value) throws IOException;
+    }
+
+    interface FieldReader {
+        Object read(RowCodec codec, ByteBuffer buffer) throws IOException;
+    }
+
+    private static final FieldWriter INTEGER_WRITER = (codec, value) -> codec.putVarLong((Long) value);
+    private static final FieldReader INTEGER_READER = (codec, buffer) -> getVarLong(buffer);
+
+    private static final FieldWriter NUMBER_WRITER = (codec, value) -> {
+        codec.ensureCapacity(8);
+        codec.buffer.putDouble((Double) value);
+    };
+    private static final FieldReader NUMBER_READER = (codec, buffer) -> buffer.getDouble();
+
+    private static final FieldWriter BOOLEAN_WRITER = (codec, value) -> {
+        codec.ensureCapacity(1);
+        codec.buffer.put(((Boolean) value) ? (byte) 1 : (byte) 0);
+    };
+    private static final FieldReader BOOLEAN_READER = (codec, buffer) -> buffer.get() != 0;
+
+    private static final FieldWriter DATE_WRITER = (codec, value) -> codec.putVarLong(((Date) value).getTime());
+    private static final FieldReader DATE_READER = (codec, buffer) -> new Date(getVarLong(buffer));
+
+    private static final FieldWriter STRING_WRITER
+            = (codec, value) -> codec.putBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+    private static final FieldReader STRING_READER
+            = (codec, buffer) -> new String(getBytes(buffer), StandardCharsets.UTF_8);
+
+    private static final FieldWriter BIGNUMBER_WRITER
+            = (codec, value) -> codec.putBytes(((BigDecimal) value).toString().getBytes(StandardCharsets.UTF_8));
+    private static final FieldReader BIGNUMBER_READER
+            = (codec, buffer) -> new BigDecimal(new String(getBytes(buffer), StandardCharsets.UTF_8));
+
+    private static final FieldWriter BINARY_WRITER = (codec, value) -> codec.putBytes((byte[]) value);
+    private static final FieldReader BINARY_READER = (codec, buffer) -> getBytes(buffer);
+
+    private final RowMetaInterface rowMeta;
+    private final int fieldCount;
+    // types and storage types the writers and readers are resolved for
+    private final int[] types;
+    private final int[] storageTypes;
+    private final int bitmapSize;
+    private final FieldWriter[] writers;
+    private final FieldReader[] readers;
+
+    private ByteBuffer buffer;
+    // for fields falling back to value metadata
+    private ByteArrayOutputStream fallbackBytes;
+    private DataOutputStream fallbackStream;
+
+    /**
+     * @return the given format if known, otherwise legacy
+     */
+    public static int toFormat(int format) {
+        return format == FORMAT_COMPACT ? FORMAT_COMPACT : FORMAT_LEGACY;
+    }
+
+    RowCodec(RowMetaInterface rowMeta, ValueMetaInterface[] valueMetas) {
+        this.rowMeta = rowMeta;
+
+        this.fieldCount = valueMetas.length;
+        this.bitmapSize = (fieldCount + 7) >>> 3;
+        this.writers = new FieldWriter[fieldCount];
+        this.readers = new FieldReader[fieldCount];
+        this.types = new int[fieldCount];
+        this.storageTypes = new int[fieldCount];
+
+        for (int i = 0; i < fieldCount; i++) {
+            final ValueMetaInterface valueMeta = valueMetas[i];
+            types[i] = valueMeta.getType();
+            storageTypes[i] = valueMeta.getStorageType();
+            int type = valueMeta.getStorageType() == ValueMetaInterface.STORAGE_TYPE_NORMAL
+                    ? valueMeta.getType() : ValueMetaInterface.TYPE_NONE;
+
+            switch (type) {
+                case ValueMetaInterface.TYPE_INTEGER:
+                    writers[i] = INTEGER_WRITER;
+                    readers[i] = INTEGER_READER;
+                    break;
+                case ValueMetaInterface.TYPE_NUMBER:
+                    writers[i] = NUMBER_WRITER;
+                    readers[i] = NUMBER_READER;
+                    break;
+                case ValueMetaInterface.TYPE_BOOLEAN:
+                    writers[i] = BOOLEAN_WRITER;
+                    readers[i] = BOOLEAN_READER;
+                    break;
+                case ValueMetaInterface.TYPE_DATE:
+                    writers[i] = DATE_WRITER;
+                    readers[i] = DATE_READER;
+                    break;
+                case ValueMetaInterface.TYPE_STRING:
+                    writers[i] = STRING_WRITER;
+                    readers[i] = STRING_READER;
+                    break;
+                case ValueMetaInterface.TYPE_BIGNUMBER:
+                    writers[i] = BIGNUMBER_WRITER;
+                    readers[i] = BIGNUMBER_READER;
+                    break;
+                case ValueMetaInterface.TYPE_BINARY:
+                    writers[i] = BINARY_WRITER;
+                    readers[i] = BINARY_READER;
+                    break;
+                default:
+                    writers[i] = (codec, value) -> codec.putFallback(valueMeta, value);
+                    readers[i] = (codec, buffer) -> getFallback(valueMeta, buffer);
+                    break;
+            }
+        }
+
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Value metadata might change type or storage type in place(e.g. lazy conversion), which the codec must follow.
+     *
+     * @param valueMetas current value metadata
+     * @return true if the codec still fits
+     */
+    boolean matches(ValueMetaInterface[] valueMetas) {
+        if (valueMetas.length != fieldCount) {
+            return false;
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            if (valueMetas[i].getType() != types[i] || valueMetas[i].getStorageType() != storageTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            int capacity = buffer.capacity();
+            while (capacity - buffer.position() < length) {
+                capacity <<= 1;
+            }
+
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    private void putVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(10);
+        // zigzag so that small negative numbers stay small
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    private void putBytes(byte[] bytes) {
+        putVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putFallback(ValueMetaInterface valueMeta, Object value) throws IOException {
+        if (fallbackStream == null) {
+            fallbackBytes = new ByteArrayOutputStream();
+            fallbackStream = new DataOutputStream(fallbackBytes);
+        }
+
+        fallbackBytes.reset();
+        try {
+            valueMeta.writeData(fallbackStream, value);
+            fallbackStream.flush();
+        } catch (KettleFileException e) {
+            throw new IOException(e);
+        }
+        putBytes(fallbackBytes.toByteArray());
+    }
+
+    private static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long v = 0L;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarInt(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static Object getFallback(ValueMetaInterface valueMeta, ByteBuffer buffer) throws IOException {
+        try {
+            return valueMeta.readData(new DataInputStream(new ByteArrayInputStream(getBytes(buffer))));
+        } catch (KettleFileException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Encode a row using compact format.
+     *
+     * @param row row of data
+     * @return the reused buffer, ready for reading
+     * @throws KettleFileException when failed to encode the row
+     */
+    public ByteBuffer encode(Object[] row) throws KettleFileException {
+        buffer.clear();
+        ensureCapacity(bitmapSize);
+
+        int bitmapPos = buffer.position();
+        for (int i = 0; i < bitmapSize; i++) {
+            buffer.put((byte) 0);
+        }
+
+        try {
+            for (int i = 0; i < fieldCount; i++) {
+                Object value = row[i];
+                if (value == null) {
+                    buffer.put(bitmapPos + (i >>> 3), (byte) (buffer.get(bitmapPos + (i >>> 3)) | (1 << (i & 7))));
+                } else {
+                    writers[i].write(this, value);
+                }
+            }
+        } catch (IOException | ClassCastException e) {
+            throw new KettleFileException(rowMeta.toString() + " : Unable to encode row", e);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a row encoded in compact format.
+     *
+     * @param source buffer positioned at the beginning of the row
+     * @return row of data
+     * @throws KettleFileException when failed to decode the row
+     */
+    public Object[] decode(ByteBuffer source) throws KettleFileException {
+        Object[] row = RowDataUtil.allocateRowData(fieldCount);
+
+        try {
+            int bitmapPos = source.position();
+            source.position(bitmapPos + bitmapSize);
+            for (int i = 0; i < fieldCount; i++) {
+                if ((source.get(bitmapPos + (i >>> 3)) & (1 << (i & 7))) == 0) {
+                    row[i] = readers[i].read(this, source);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new KettleFileException(rowMeta.toString() + " : Unable to decode row", e);
+        }
+
+        return row;
+    }
+
+    /**
+     * Write a row in compact format to the stream, prefixed with its length.
+     *
+     * @param outputStream output stream
+     * @param row          row of data
+     * @throws KettleFileException in case things go awry
+     */
+    public void writeData(DataOutputStream outputStream, Object[] row) throws KettleFileException {
+        ByteBuffer encoded = encode(row);
+        try {
+            outputStream.writeInt(encoded.remaining());
+            outputStream.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+        } catch (IOException e) {
+            throw new KettleFileException("Unable to write row", e);
+        }
+    }
+
+    /**
+     * Read a row in compact format from the stream.
+     *
+     * @param inputStream input stream
+     * @return row of data
+     * @throws KettleFileException    in case things go awry
+     * @throws SocketTimeoutException in case of socket timeout
+     */
+    public Object[] readData(DataInputStream inputStream) throws KettleFileException, SocketTimeoutException {
+        try {
+            int length = inputStream.readInt();
+            buffer.clear();
+            ensureCapacity(length);
+            inputStream.readFully(buffer.array(), buffer.arrayOffset(), length);
+            buffer.limit(length);
+        } catch (SocketTimeoutException e) {
+            throw e;
+        } catch (EOFException e) {
+            throw new KettleEOFException(e);
+        } catch (IOException e) {
+            throw new KettleFileException(rowMeta.toString() + " : Unable to read row from input stream", e);
+        }
+
+        return decode(buffer);
+    }
+}
@@ -43,10 +43,21 @@ public class RowMeta implements RowMetaInterface {
     public static final String XML_META_TAG = "row-meta";
     public static final String XML_DATA_TAG = "row-data";
 
+    static final boolean FREEZE_DISABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_ROW_META_FREEZE_DISABLED", "N"));
+
     private final ReentrantReadWriteLock lock;
     private final RowMetaCache cache;
     private List<ValueMetaInterface> valueMetaList;
 
+    // only available when frozen, so that readers on the row hot path don't need to acquire the lock
+    private volatile Snapshot snapshot;
+    // built on demand once per version of the metadata
+    private volatile FieldIndex fieldIndex;
+    // format of rows written and read by writeData and readData, see RowCodec
+    private volatile int rowFormat = RowCodec.DEFAULT_FORMAT;
+    private volatile RowCodec codec;
+
     public RowMeta() {
         this(new ArrayList<ValueMetaInterface>(), new RowMetaCache());
     }
@@ -63,6 +74,7 @@ public class RowMeta implements RowMetaInterface {
             valueMetaList.add(ValueMetaFactory
                     .cloneValueMeta(valueMetaInterface, targetType == null ? valueMetaInterface.getType() : targetType));
         }
+        this.rowFormat = rowMeta.rowFormat;
     }
 
     private RowMeta(List<ValueMetaInterface> valueMetaList, RowMetaCache rowMetaCache) {
@@ -71,6 +83,97 @@ public class RowMeta implements RowMetaInterface {
         this.valueMetaList = valueMetaList;
     }
 
+    /**
+     * Freeze the row metadata if it's an instance of {@link RowMeta}.
+     *
+     * @param rowMeta row metadata
+     * @return the same row metadata
+     * @see #freeze()
+     */
+    public static RowMetaInterface freeze(RowMetaInterface rowMeta) {
+        if (rowMeta instanceof RowMeta) {
+            ((RowMeta) rowMeta).freeze();
+        }
+
+        return rowMeta;
+    }
+
+    /**
+     * Take an immutable snapshot of current metadata, which will be used by accessors without locking until the next
+     * modification. This is mainly for steps to call once processing starts, as row metadata rarely changes afterwards.
+     * Value metadata should not be renamed in place after freezing, as lookups by name trust the snapshot.
+     *
+     * @return this row metadata
+     */
+    public RowMeta freeze() {
+        if (!FREEZE_DISABLED) {
+            lock.readLock().lock();
+            try {
+                snapshot = new Snapshot(valueMetaList);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return snapshot != null;
+    }
+
+    /**
+     * Drop snapshot and field index as metadata was changed. This should be called before releasing the write lock.
+     */
+    private void invalidateSnapshot() {
+        snapshot = null;
+        fieldIndex = null;
+        codec = null;
+    }
+
+    /**
+     * @return format of rows written and read by {@link #writeData(DataOutputStream, Object[])} and
+     * {@link #readData(DataInputStream)}, either {@link RowCodec#FORMAT_LEGACY} or {@link RowCodec#FORMAT_COMPACT}
+     */
+    public int getRowFormat() {
+        return rowFormat;
+    }
+
+    /**
+     * Set format of rows. Row metadata read from a stream takes the format the writer flagged in the metadata.
+     *
+     * @param rowFormat {@link RowCodec#FORMAT_LEGACY} or {@link RowCodec#FORMAT_COMPACT}
+     */
+    public void setRowFormat(int rowFormat) {
+        this.rowFormat = RowCodec.toFormat(rowFormat);
+        this.codec = null;
+    }
+
+    /**
+     * Get the codec for compact rows, which is rebuilt when value metadata changed type or storage type in place.
+     */
+    private RowCodec getCodec() {
+        ValueMetaInterface[] valueMetas;
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            valueMetas = frozen.valueMetas;
+        } else {
+            lock.readLock().lock();
+            try {
+                valueMetas = valueMetaList.toArray(new ValueMetaInterface[valueMetaList.size()]);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        RowCodec current = codec;
+        if (current == null || !current.matches(valueMetas)) {
+            current = new RowCodec(this, valueMetas);
+            codec = current;
+        }
+        return current;
+    }
+
     @Override
     public RowMeta clone() {
         lock.readLock().lock();
@@ -127,6 +230,11 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public List<ValueMetaInterface> getValueMetaList() {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            return Collections.unmodifiableList(Arrays.asList(frozen.valueMetas));
+        }
+
         List<ValueMetaInterface> copy;
 
         lock.readLock().lock();
@@ -153,6 +261,7 @@ public class RowMeta implements RowMetaInterface {
                 cache.storeMapping(valueMeta.getName(), i);
             }
         } finally {
+            invalidateSnapshot();
             lock.writeLock().unlock();
         }
     }
@@ -162,6 +271,11 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public int size() {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            return frozen.valueMetas.length;
+        }
+
         lock.readLock().lock();
         try {
             return valueMetaList.size();
@@ -175,6 +289,11 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public boolean isEmpty() {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            return frozen.valueMetas.length == 0;
+        }
+
         lock.readLock().lock();
         try {
             return valueMetaList.isEmpty();
@@ -208,6 +327,7 @@ public class RowMeta implements RowMetaInterface {
                 valueMetaList.add(newMeta);
                 cache.storeMapping(newMeta.getName(), index);
             } finally {
+                invalidateSnapshot();
                 lock.writeLock().unlock();
             }
         }
@@ -234,6 +354,7 @@ public class RowMeta implements RowMetaInterface {
                 valueMetaList.add(index, newMeta);
                 cache.invalidate();
             } finally {
+                invalidateSnapshot();
                 lock.writeLock().unlock();
             }
         }
@@ -247,6 +368,11 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public ValueMetaInterface getValueMeta(int index) {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            return (index >= 0) && (index < frozen.valueMetas.length) ? frozen.valueMetas[index] : null;
+        }
+
         lock.readLock().lock();
         try {
             if ((index >= 0) && (index < valueMetaList.size())) {
@@ -283,6 +409,7 @@ public class RowMeta implements RowMetaInterface {
                 valueMetaList.set(index, newMeta);
                 cache.replaceMapping(old.getName(), newMeta.getName(), index);
             } finally {
+                invalidateSnapshot();
                 lock.writeLock().unlock();
             }
         }
@@ -439,6 +566,14 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public Object[] cloneRow(Object[] objects, Object[] newObjects) throws KettleValueException {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            for (int i : frozen.needRealClone) {
+                newObjects[i] = frozen.valueMetas[i].cloneValueData(objects[i]);
+            }
+            return newObjects;
+        }
+
         lock.readLock().lock();
         try {
             List<Integer> list = cache.getOrCreateValuesThatNeedRealClone(valueMetaList);
@@ -491,25 +626,26 @@ public class RowMeta implements RowMetaInterface {
             return -1;
         }
 
-        lock.readLock().lock();
-        try {
-            Integer index = cache.findAndCompare(valueName, valueMetaList);
-            for (int i = 0; (index == null) && (i < valueMetaList.size()); i++) {
-                if (valueName.equalsIgnoreCase(valueMetaList.get(i).getName())) {
-                    index = i;
-                    // it is possible, that several threads can call storing simultaneously
-                    // but it makes no harm as they will put the same value,
-                    // because valueMetaList is defended from modifications by read lock
-                    cache.storeMapping(valueName, index);
-                }
-            }
-            if (index == null) {
-                return -1;
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            return frozen.indexOf(valueName);
+        }
+
+        FieldIndex index = fieldIndex;
+        if (index == null) {
+            lock.readLock().lock();
+            try {
+                // it is possible, that several threads can build the index simultaneously
+                // but it makes no harm as they will end up with the same index,
+                // because valueMetaList is defended from modifications by read lock
+                index = new FieldIndex(valueMetaList);
+                fieldIndex = index;
+            } finally {
+                lock.readLock().unlock();
             }
-            return index;
-        } finally {
-            lock.readLock().unlock();
         }
+
+        return index.indexOf(valueName);
     }
 
     /**
@@ -520,6 +656,12 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public ValueMetaInterface searchValueMeta(String valueName) {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            int index = frozen.indexOf(valueName);
+            return index < 0 ? null : frozen.valueMetas[index];
+        }
+
         lock.readLock().lock();
         try {
             Integer index = indexOfValue(valueName);
@@ -573,6 +715,7 @@ public class RowMeta implements RowMetaInterface {
                 }
             }
         } finally {
+            invalidateSnapshot();
             lock.writeLock().unlock();
         }
     }
@@ -629,6 +772,31 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public void writeData(DataOutputStream outputStream, Object[] data) throws KettleFileException {
+        if (rowFormat == RowCodec.FORMAT_COMPACT) {
+            RowCodec rowCodec = getCodec();
+            synchronized (rowCodec) {
+                rowCodec.writeData(outputStream, data);
+            }
+            return;
+        }
+
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            ValueMetaInterface[] valueMetas = frozen.valueMetas;
+            for (int i = 0; i < valueMetas.length; i++) {
+                valueMetas[i].writeData(outputStream, data[i]);
+            }
+
+            if (valueMetas.length == 0) {
+                try {
+                    outputStream.writeBoolean(true);
+                } catch (IOException e) {
+                    throw new KettleFileException("Error writing marker flag", e);
+                }
+            }
+            return;
+        }
+
         lock.readLock().lock();
         try {
             // Write all values in the row
@@ -660,8 +828,12 @@ public class RowMeta implements RowMetaInterface {
     public void writeMeta(DataOutputStream outputStream) throws KettleFileException {
         lock.readLock().lock();
         try {
-            // First handle the number of fields in a row
+            // First handle the number of fields in a row, flagged with the row format unless it's legacy, so that
+            // readers not knowing the flag fail fast instead of misreading rows
             try {
+                if (rowFormat != RowCodec.FORMAT_LEGACY) {
+                    outputStream.writeInt(-rowFormat);
+                }
                 outputStream.writeInt(size());
             } catch (IOException e) {
                 throw new KettleFileException("Unable to write nr of metadata values", e);
@@ -683,6 +855,13 @@ public class RowMeta implements RowMetaInterface {
         int nr;
         try {
             nr = inputStream.readInt();
+            if (nr < 0) {
+                // row format flag, see writeMeta
+                rowFormat = RowCodec.toFormat(-nr);
+                nr = inputStream.readInt();
+            } else {
+                rowFormat = RowCodec.FORMAT_LEGACY;
+            }
         } catch (SocketTimeoutException e) {
             throw e;
         } catch (EOFException e) {
@@ -709,6 +888,23 @@ public class RowMeta implements RowMetaInterface {
 
     @Override
     public Object[] readData(DataInputStream inputStream) throws KettleFileException, SocketTimeoutException {
+        if (rowFormat == RowCodec.FORMAT_COMPACT) {
+            RowCodec rowCodec = getCodec();
+            synchronized (rowCodec) {
+                return rowCodec.readData(inputStream);
+            }
+        }
+
+        Snapshot frozen = snapshot;
+        if (frozen != null && frozen.valueMetas.length > 0) {
+            ValueMetaInterface[] valueMetas = frozen.valueMetas;
+            Object[] data = new Object[valueMetas.length];
+            for (int i = 0; i < valueMetas.length; i++) {
+                data[i] = valueMetas[i].readData(inputStream);
+            }
+            return data;
+        }
+
         lock.readLock().lock();
         try {
             Object[] data = new Object[size()];
@@ -740,6 +936,7 @@ public class RowMeta implements RowMetaInterface {
             valueMetaList.clear();
             cache.invalidate();
         } finally {
+            invalidateSnapshot();
             lock.writeLock().unlock();
         }
     }
@@ -755,6 +952,7 @@ public class RowMeta implements RowMetaInterface {
             }
             removeValueMeta(index);
         } finally {
+            invalidateSnapshot();
             lock.writeLock().unlock();
         }
     }
@@ -766,6 +964,7 @@ public class RowMeta implements RowMetaInterface {
             valueMetaList.remove(index);
             cache.invalidate();
         } finally {
+            invalidateSnapshot();
             lock.writeLock().unlock();
         }
     }
@@ -856,6 +1055,17 @@ public class RowMeta implements RowMetaInterface {
      */
     @Override
     public int compare(Object[] rowData1, Object[] rowData2, int[] fieldnrs) throws KettleValueException {
+        Snapshot frozen = snapshot;
+        if (frozen != null) {
+            for (int fieldnr : fieldnrs) {
+                int cmp = frozen.valueMetas[fieldnr].compare(rowData1[fieldnr], rowData2[fieldnr]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
         lock.readLock().lock();
         try {
             for (int fieldnr : fieldnrs) {
@@ -1206,6 +1416,33 @@ public class RowMeta implements RowMetaInterface {
         }
     }
 
+    /**
+     * Immutable, array-backed copy of the row metadata.
+     */
+    static final class Snapshot {
+        final ValueMetaInterface[] valueMetas;
+        final FieldIndex index;
+        final int[] needRealClone;
+
+        Snapshot(List<ValueMetaInterface> valueMetaList) {
+            index = new FieldIndex(valueMetaList, true);
+            valueMetas = index.getValueMetas();
+
+            int count = 0;
+            int[] indexes = new int[valueMetas.length];
+            for (int i = 0; i < valueMetas.length; i++) {
+                if (valueMetas[i].requiresRealClone()) {
+                    indexes[count++] = i;
+                }
+            }
+            needRealClone = Arrays.copyOf(indexes, count);
+        }
+
+        int indexOf(String valueName) {
+            return valueName == null ? -1 : index.indexOf(valueName);
+        }
+    }
+
     @VisibleForTesting
     static class RowMetaCache {
         @VisibleForTesting
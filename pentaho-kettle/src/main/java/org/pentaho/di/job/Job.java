@@ -72,6 +72,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class executes a job as defined by a JobMeta object.
@@ -132,7 +133,17 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     /**
      * A flat list of results in THIS job, in the order of execution of job entries
      */
-    private final LinkedList<JobEntryResult> jobEntryResults = new LinkedList<JobEntryResult>();
+    private final JobEntryResultHistory jobEntryResults = new JobEntryResultHistory();
+
+    /**
+     * Runs job entries launched in parallel, limiting how many of them are running at the same time
+     */
+    private final AtomicReference<JobEntryLauncher> entryLauncher = new AtomicReference<JobEntryLauncher>();
+
+    /**
+     * Job entries done in previous run of the same request, null if checkpoint is not enabled
+     */
+    private volatile JobCheckpoint checkpoint;
 
     private Date startDate, endDate, currentDate, logDate, depDate;
 
@@ -169,6 +180,9 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
 
     private List<DelegationListener> delegationListeners;
 
+    // notified when this job is asked to stop, so that waiting threads can react immediately
+    private final List<Runnable> stopCallbacks = new CopyOnWriteArrayList<Runnable>();
+
     private Map<JobEntryCopy, JobEntryTrans> activeJobEntryTransformations;
 
     private Map<JobEntryCopy, JobEntryJob> activeJobEntryJobs;
@@ -238,15 +252,13 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         active = new AtomicBoolean(false);
         stopped = new AtomicBoolean(false);
         jobTracker = new JobTracker(jobMeta);
-        synchronized (jobEntryResults) {
-            jobEntryResults.clear();
-        }
         initialized = new AtomicBoolean(false);
         finished = new AtomicBoolean(false);
         errors = new AtomicInteger(0);
         batchId = -1;
         passedBatchId = -1;
         maxJobEntriesLogged = Const.toInt(EnvUtil.getSystemProperty(Const.KETTLE_MAX_JOB_ENTRIES_LOGGED), 1000);
+        jobEntryResults.reset(maxJobEntriesLogged);
 
         result = null;
         startJobEntryCopy = null;
@@ -448,6 +460,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      * @throws KettleException
      */
     private Result execute() throws KettleException {
+        boolean succeeded = false;
         try {
             log.snap(Metrics.METRIC_JOB_START);
 
@@ -493,6 +506,12 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
                 throw new KettleJobException(BaseMessages.getString(PKG, "Job.Log.CounldNotFindStartingPoint"));
             }
 
+            // Skip job entries done in previous run, unless the job is repeating itself
+            //
+            if (!startpoint.isStart() || !((JobEntrySpecial) startpoint.getEntry()).isRepeat()) {
+                checkpoint = JobCheckpoint.open(this);
+            }
+
             JobEntryResult jerEnd = null;
 
             if (startpoint.isStart()) {
@@ -530,12 +549,28 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
             active.set(false);
             finished.set(true);
 
+            succeeded = res != null && res.getResult() && res.getNrErrors() == 0 && !isStopped();
             return res;
         } finally {
+            JobCheckpoint jobCheckpoint = checkpoint;
+            if (jobCheckpoint != null) {
+                jobCheckpoint.close(succeeded);
+                checkpoint = null;
+            }
+
             log.snap(Metrics.METRIC_JOB_STOP);
         }
     }
 
+    private Map<String, String> getVariablesSnapshot() {
+        String[] names = listVariables();
+        Map<String, String> vars = new HashMap<String, String>(names.length * 2);
+        for (String name : names) {
+            vars.put(name, getVariable(name));
+        }
+        return vars;
+    }
+
     /**
      * Execute a job with previous results passed in.<br>
      * <br>
@@ -578,6 +613,9 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      * @see JobListener#jobFinished(Job)
      */
     public void fireJobFinishListeners() throws KettleException {
+        // no more results, spilled ones are read on demand from now on
+        jobEntryResults.finish();
+
         synchronized (jobListeners) {
             for (JobListener jobListener : jobListeners) {
                 jobListener.jobFinished(this);
@@ -637,8 +675,22 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
             prevResult = extension.result;
         }
 
+        final JobCheckpoint jobCheckpoint = extension.executeEntry ? checkpoint : null;
+        final String checkpointKey = jobCheckpoint == null ? null : jobCheckpoint.nextKey(jobEntryCopy);
+        final Result checkpointResult = jobCheckpoint == null ? null
+                : jobCheckpoint.restore(this, checkpointKey, prevResult);
+
         if (!extension.executeEntry) {
             newResult = prevResult;
+        } else if (checkpointResult != null) {
+            newResult = checkpointResult;
+
+            JobEntryResult jerSkipped =
+                    new JobEntryResult(newResult, null, BaseMessages.getString(PKG, "Job.Comment.JobFinished"),
+                            "Done in run " + jobCheckpoint.getRunId(), jobEntryCopy.getName(), jobEntryCopy.getNr(),
+                            environmentSubstitute(jobEntryCopy.getEntry().getFilename()));
+            jobTracker.addJobTracker(new JobTracker(jobMeta, jerSkipped));
+            jobEntryResults.add(jerSkipped);
         } else {
             if (log.isDetailed()) {
                 log.logDetailed("exec(" + nr + ", " + (prev_result != null ? prev_result.getNrErrors() : 0) + ", "
@@ -679,6 +731,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
                     getActiveJobEntryJobs().put(jobEntryCopy, (JobEntryJob) cloneJei);
                 }
             }
+            Map<String, String> varsBefore = checkpointKey == null ? null : getVariablesSnapshot();
             log.snap(Metrics.METRIC_JOBENTRY_START, cloneJei.toString());
             newResult = cloneJei.execute(prevResult, nr);
             log.snap(Metrics.METRIC_JOBENTRY_STOP, cloneJei.toString());
@@ -719,17 +772,12 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
                             "Job.Comment.JobFinished"), null, jobEntryCopy.getName(), jobEntryCopy.getNr(), environmentSubstitute(
                             jobEntryCopy.getEntry().getFilename()));
             jobTracker.addJobTracker(new JobTracker(jobMeta, jerAfter));
-            synchronized (jobEntryResults) {
-                jobEntryResults.add(jerAfter);
+            // Only the last X job entry results are kept in memory
+            //
+            jobEntryResults.add(jerAfter);
 
-                // Only keep the last X job entry results in memory
-                //
-                if (maxJobEntriesLogged > 0) {
-                    while (jobEntryResults.size() > maxJobEntriesLogged) {
-                        // Remove the oldest.
-                        jobEntryResults.removeFirst();
-                    }
-                }
+            if (checkpointKey != null) {
+                jobCheckpoint.save(checkpointKey, newResult, varsBefore, getVariablesSnapshot());
             }
         }
 
@@ -741,7 +789,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         // Keep track of all the threads we fired in case of parallel execution...
         // Keep track of the results of these executions too.
         //
-        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Future<?>> threads = new ArrayList<Future<?>>();
         // next 2 lists is being modified concurrently so must be synchronized for this case.
         final Queue<Result> threadResults = new ConcurrentLinkedQueue<Result>();
         final Queue<KettleException> threadExceptions = new ConcurrentLinkedQueue<KettleException>();
@@ -811,9 +859,8 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
                             }
                         }
                     };
-                    Thread thread = new Thread(runnable);
-                    threads.add(thread);
-                    thread.start();
+                    threads.add(getEntryLauncher().launch(JobEntryLauncher.getPriority(nextEntry),
+                            getJobname() + " - " + nextEntry.getName(), runnable));
                     if (log.isBasic()) {
                         log.logBasic(BaseMessages.getString(PKG, "Job.Log.LaunchedJobEntryInParallel", nextEntry.getName()));
                     }
@@ -839,19 +886,38 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         // finish...
         //
         if (jobEntryCopy.isLaunchingInParallel()) {
+            // entries launched here may be waiting for the slot held by current thread
+            JobEntryLauncher launcher = getEntryLauncher();
+            boolean released = launcher.beforeWait();
             for (int i = 0; i < threads.size(); i++) {
-                Thread thread = threads.get(i);
+                Future<?> thread = threads.get(i);
                 JobEntryCopy nextEntry = threadEntries.get(i);
 
                 try {
-                    thread.join();
-                } catch (InterruptedException e) {
+                    thread.get();
+                } catch (InterruptedException | ExecutionException | CancellationException e) {
                     log.logError(jobMeta.toString(), BaseMessages.getString(PKG,
                             "Job.Log.UnexpectedErrorWhileWaitingForJobEntry", nextEntry.getName()));
                     threadExceptions.add(new KettleException(BaseMessages.getString(PKG,
                             "Job.Log.UnexpectedErrorWhileWaitingForJobEntry", nextEntry.getName()), e));
                 }
             }
+            try {
+                launcher.afterWait(released, JobEntryLauncher.getPriority(jobEntryCopy));
+            } catch (InterruptedException e) {
+                threadExceptions.add(new KettleException(BaseMessages.getString(PKG,
+                        "Job.Log.UnexpectedErrorWhileWaitingForJobEntry", jobEntryCopy.getName()), e));
+            }
+
+            if (log.isDetailed()) {
+                log.logDetailed(new StringBuilder().append("Parallel job entries launched: ")
+                        .append(launcher.getLaunchedCount()).append(", queued: ").append(launcher.getQueuedCount())
+                        .append(" (").append(launcher.getQueuedMillis()).append("ms in total, peak ")
+                        .append(launcher.getPeakQueued()).append("), peak running: ")
+                        .append(launcher.getPeakRunning()).append(" of ")
+                        .append(launcher.getMaxParallelism() > 0 ? String.valueOf(launcher.getMaxParallelism())
+                                : "unlimited").toString());
+            }
             // if(log.isBasic()) log.logBasic(BaseMessages.getString(PKG,
             // "Job.Log.FinishedJobEntry",startpoint.getName(),res.getResult()+""));
         }
@@ -894,6 +960,21 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         return res;
     }
 
+    /**
+     * Gets the launcher of job entries running in parallel, created on first use.
+     *
+     * @return launcher of parallel job entries
+     */
+    public JobEntryLauncher getEntryLauncher() {
+        JobEntryLauncher launcher = entryLauncher.get();
+        if (launcher == null) {
+            // parent job or transformation is known by the time entries are launched
+            entryLauncher.compareAndSet(null, new JobEntryLauncher(parentJob == null && parentTrans == null));
+            launcher = entryLauncher.get();
+        }
+        return launcher;
+    }
+
     /**
      * Wait until this job has finished.
      */
@@ -907,16 +988,13 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      * @param maxMiliseconds the maximum number of ms to wait
      */
     public void waitUntilFinished(long maxMiliseconds) {
-        long time = 0L;
         maxMiliseconds =
                 maxMiliseconds <= 0 || maxMiliseconds > MAX_JOB_DURATION_MS ? MAX_JOB_DURATION_MS : maxMiliseconds;
-        while (isAlive() && (time < maxMiliseconds)) {
-            try {
-                Thread.sleep(1);
-                time += 1;
-            } catch (InterruptedException e) {
-                // Ignore sleep errors
-            }
+        try {
+            // notified by the JVM as soon as the job thread terminates
+            join(maxMiliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -1155,6 +1233,20 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         String tableName = jobLogTable.getActualTableName();
         DatabaseMeta logcon = jobLogTable.getDatabaseMeta();
 
+        if (LogTableWriter.ASYNC_LOG_TABLES_ENABLED) {
+            // take the log record now, and leave the rest to the writer
+            try {
+                LogTableWriter.writeLogRecord(this, jobLogTable, status, this, null);
+                if (cleanLogRecords) {
+                    LogTableWriter.cleanupLogRecords(this, jobLogTable);
+                }
+            } catch (KettleException e) {
+                addErrors(1);
+                throw new KettleJobException("Unable to end processing by writing log record to table " + tableName, e);
+            }
+            return;
+        }
+
         Database ldb = createDataBase(logcon);
         ldb.shareVariablesWith(this);
         try {
@@ -1196,6 +1288,14 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
         }
         // end PDI-7070
 
+        if (LogTableWriter.ASYNC_LOG_TABLES_ENABLED) {
+            for (LoggingHierarchy loggingHierarchy : getLoggingHierarchy()) {
+                LogTableWriter.writeLogRecord(this, channelLogTable, LogStatus.START, loggingHierarchy, null);
+            }
+            LogTableWriter.cleanupLogRecords(this, channelLogTable);
+            return;
+        }
+
         try {
             db = new Database(this, channelLogTable.getDatabaseMeta());
             db.shareVariablesWith(this);
@@ -1230,6 +1330,14 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
     protected void writeJobEntryLogInformation() throws KettleException {
         Database db = null;
         JobEntryLogTable jobEntryLogTable = getJobMeta().getJobEntryLogTable();
+        if (LogTableWriter.ASYNC_LOG_TABLES_ENABLED) {
+            for (JobEntryCopy copy : getJobMeta().getJobCopies()) {
+                LogTableWriter.writeLogRecord(this, jobEntryLogTable, LogStatus.START, copy, this);
+            }
+            LogTableWriter.cleanupLogRecords(this, jobEntryLogTable);
+            return;
+        }
+
         try {
             db = createDataBase(jobEntryLogTable.getDatabaseMeta());
             db.shareVariablesWith(this);
@@ -1270,6 +1378,7 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      */
     public void stopAll() {
         stopped.set(true);
+        fireStopCallbacks();
     }
 
     /**
@@ -1279,6 +1388,32 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      */
     public void setStopped(boolean stopped) {
         this.stopped.set(stopped);
+        if (stopped) {
+            fireStopCallbacks();
+        }
+    }
+
+    private void fireStopCallbacks() {
+        for (Runnable callback : stopCallbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                log.logError("Failed to notify stop of the job", e);
+            }
+        }
+    }
+
+    /**
+     * Add a callback to be invoked whenever this job is asked to stop.
+     *
+     * @param callback the callback
+     */
+    public void addStopCallback(Runnable callback) {
+        stopCallbacks.add(callback);
+    }
+
+    public void removeStopCallback(Runnable callback) {
+        stopCallbacks.remove(callback);
     }
 
     /**
@@ -2199,9 +2334,28 @@ public class Job extends Thread implements VariableSpace, NamedParams, HasLogCha
      * @return A flat list of results in THIS job, in the order of execution of job entries
      */
     public List<JobEntryResult> getJobEntryResults() {
-        synchronized (jobEntryResults) {
-            return new ArrayList<JobEntryResult>(jobEntryResults);
-        }
+        return jobEntryResults.getRecent();
+    }
+
+    /**
+     * Gets a page of results in THIS job, in the order of execution of job entries. Older results are only available
+     * when they're spilled to disk, see {@link JobEntryResultHistory}.
+     *
+     * @param from    0-based sequence number of the first result
+     * @param maxRows maximum number of results to return
+     * @return A page of results in THIS job
+     */
+    public List<JobEntryResult> getJobEntryResults(long from, int maxRows) {
+        return jobEntryResults.getPage(from, maxRows);
+    }
+
+    /**
+     * Gets results of job entries executed in THIS job, along with counters of all executions.
+     *
+     * @return history of job entry results
+     */
+    public JobEntryResultHistory getJobEntryResultHistory() {
+        return jobEntryResults;
     }
 
     /**
@@ -0,0 +1,334 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.job;
+
+import org.pentaho.di.cluster.ServerCache;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.job.entry.JobEntryCopy;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checkpoints of a top level job run. Every job entry finished successfully is appended to a local file, along with
+ * its result counters and the variables it changed. When the same job is started again with the same run id(the
+ * REQUEST_ID parameter or variable by default), entries already done are skipped and their results and variables are
+ * restored, so the job picks up where it failed. The file is removed once the job succeeds.
+ * <p>
+ * Enabled by KETTLE_JOB_CHECKPOINT=Y, as a system property or as a job variable. An entry executed more than once
+ * (e.g. in a loop) is tracked per execution, in the order of execution. Result rows and files are not kept, so an
+ * entry passing on any of them gets no checkpoint and runs again.
+ *
+ * @author Zhichun Wu
+ */
+public final class JobCheckpoint {
+    public static final String VAR_CHECKPOINT = "KETTLE_JOB_CHECKPOINT";
+    static final String CHECKPOINT_DIR = System.getProperty("KETTLE_JOB_CHECKPOINT_DIR",
+            new File(System.getProperty("java.io.tmpdir"), "kettle-job-checkpoints").getPath());
+
+    private static final String HASH_ALGORITHM = "MD5";
+    private static final char FIELD_SEPARATOR = '\t';
+    // key, exit status and counters
+    private static final int FIXED_FIELDS = 10;
+
+    static final class Checkpoint {
+        final String key;
+        final int exitStatus;
+        final long[] counters;
+        final Map<String, String> variables;
+
+        Checkpoint(String key, int exitStatus, long[] counters, Map<String, String> variables) {
+            this.key = key;
+            this.exitStatus = exitStatus;
+            this.counters = counters;
+            this.variables = variables;
+        }
+    }
+
+    private final File file;
+    private final String runId;
+    private final LogChannelInterface log;
+
+    private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+    // how many times an entry has been executed in this run
+    private final Map<String, AtomicInteger> occurrences = new ConcurrentHashMap<>();
+
+    private Writer writer;
+
+    private static String hash(String value) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(value.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String getJobIdentity(JobMeta jobMeta) {
+        String fileName = jobMeta.getFilename();
+        if (!Utils.isEmpty(fileName)) {
+            return fileName;
+        }
+
+        RepositoryDirectoryInterface dir = jobMeta.getRepositoryDirectory();
+        return new StringBuilder().append(dir == null ? "" : dir.getPath()).append('/').append(jobMeta.getName())
+                .toString();
+    }
+
+    private static long[] getCounters(Result result) {
+        return new long[]{
+                result.getNrLinesRead(), result.getNrLinesWritten(), result.getNrLinesInput(),
+                result.getNrLinesOutput(), result.getNrLinesUpdated(), result.getNrLinesRejected(),
+                result.getNrLinesDeleted(), result.getNrFilesRetrieved()
+        };
+    }
+
+    private static void setCounters(Result result, long[] counters) {
+        result.setNrLinesRead(counters[0]);
+        result.setNrLinesWritten(counters[1]);
+        result.setNrLinesInput(counters[2]);
+        result.setNrLinesOutput(counters[3]);
+        result.setNrLinesUpdated(counters[4]);
+        result.setNrLinesRejected(counters[5]);
+        result.setNrLinesDeleted(counters[6]);
+        result.setNrFilesRetrieved((int) counters[7]);
+    }
+
+    /**
+     * Opens checkpoints of the given job when it's enabled and a run id is available.
+     *
+     * @param job top level job about to start
+     * @return checkpoints of the job, or null if not applicable
+     */
+    public static JobCheckpoint open(Job job) {
+        if (!"Y".equalsIgnoreCase(job.getVariable(VAR_CHECKPOINT, "N"))
+                || job.getParentJob() != null || job.getParentTrans() != null) {
+            return null;
+        }
+
+        String runId = job.getVariable(ServerCache.KEY_ETL_REQUEST_ID);
+        if (Utils.isEmpty(runId)) {
+            return null;
+        }
+
+        LogChannelInterface log = job.getLogChannel();
+        try {
+            String identity = getJobIdentity(job.getJobMeta());
+            File file = new File(CHECKPOINT_DIR, hash(identity + '@' + runId) + ".ckpt");
+            JobCheckpoint checkpoint = new JobCheckpoint(file, runId, log);
+            checkpoint.load();
+
+            if (!checkpoint.checkpoints.isEmpty()) {
+                log.logMinimal(new StringBuilder().append("Resuming run ").append(runId).append(" of ")
+                        .append(identity).append(", ").append(checkpoint.checkpoints.size())
+                        .append(" job entries have been done").toString());
+            }
+            return checkpoint;
+        } catch (IOException | NoSuchAlgorithmException | RuntimeException e) {
+            log.logError("Failed to open job checkpoints, continue without them", e);
+            return null;
+        }
+    }
+
+    private JobCheckpoint(File file, String runId, LogChannelInterface log) {
+        this.file = file;
+        this.runId = runId;
+        this.log = log;
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+                // the last line could be incomplete
+                if (fields.length < FIXED_FIELDS) {
+                    continue;
+                }
+
+                try {
+                    long[] counters = new long[FIXED_FIELDS - 2];
+                    for (int i = 0; i < counters.length; i++) {
+                        counters[i] = Long.parseLong(fields[i + 2]);
+                    }
+
+                    Map<String, String> variables = new LinkedHashMap<>();
+                    for (int i = FIXED_FIELDS; i + 1 < fields.length; i += 2) {
+                        variables.put(JobEntryResultHistory.unescape(fields[i]),
+                                JobEntryResultHistory.unescape(fields[i + 1]));
+                    }
+
+                    String key = JobEntryResultHistory.unescape(fields[0]);
+                    checkpoints.put(key, new Checkpoint(key, Integer.parseInt(fields[1]), counters, variables));
+                } catch (NumberFormatException e) {
+                    // skip broken line
+                }
+            }
+        }
+    }
+
+    /**
+     * Count one more execution of the job entry.
+     *
+     * @param jobEntryCopy the job entry to be executed
+     * @return key of this execution
+     */
+    public String nextKey(JobEntryCopy jobEntryCopy) {
+        String entry = new StringBuilder().append(jobEntryCopy.getName()).append('#').append(jobEntryCopy.getNr())
+                .toString();
+        AtomicInteger counter = occurrences.get(entry);
+        if (counter == null) {
+            AtomicInteger newCounter = new AtomicInteger(0);
+            counter = occurrences.putIfAbsent(entry, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return new StringBuilder().append(entry).append('#').append(counter.incrementAndGet()).toString();
+    }
+
+    /**
+     * Check if the job entry execution is done in previous run, and restore variables changed by it.
+     *
+     * @param job        the job
+     * @param key        key from {@link #nextKey(JobEntryCopy)}
+     * @param prevResult result of previous entry
+     * @return restored result if the entry should be skipped, otherwise null
+     */
+    public synchronized Result restore(Job job, String key, Result prevResult) {
+        Checkpoint checkpoint = checkpoints.get(key);
+        if (checkpoint == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, String> var : checkpoint.variables.entrySet()) {
+            job.setVariable(var.getKey(), var.getValue());
+        }
+
+        Result result = prevResult.clone();
+        result.setResult(true);
+        result.setNrErrors(0L);
+        result.setExitStatus(checkpoint.exitStatus);
+        setCounters(result, checkpoint.counters);
+
+        if (log.isBasic()) {
+            log.logBasic(new StringBuilder().append("Skipped job entry [").append(key)
+                    .append("] as it's done in run ").append(runId).toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Append a successful job entry to the checkpoint file, unless its result carries rows or files which can't be
+     * restored.
+     *
+     * @param key        key from {@link #nextKey(JobEntryCopy)}
+     * @param result     result of the job entry
+     * @param varsBefore variables of the job before execution
+     * @param varsAfter  variables of the job after execution
+     */
+    public synchronized void save(String key, Result result, Map<String, String> varsBefore,
+                                  Map<String, String> varsAfter) {
+        if (result == null || !result.getResult() || result.getNrErrors() > 0) {
+            return;
+        }
+        if ((result.getRows() != null && !result.getRows().isEmpty())
+                || (result.getResultFiles() != null && !result.getResultFiles().isEmpty())) {
+            if (log.isDetailed()) {
+                log.logDetailed(new StringBuilder().append("No checkpoint for job entry [").append(key)
+                        .append("] as its result has rows or files").toString());
+            }
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder().append(JobEntryResultHistory.escape(key)).append(FIELD_SEPARATOR)
+                .append(result.getExitStatus());
+        for (long counter : getCounters(result)) {
+            sb.append(FIELD_SEPARATOR).append(counter);
+        }
+        for (Map.Entry<String, String> var : varsAfter.entrySet()) {
+            String value = var.getValue();
+            if (value != null && !value.equals(varsBefore.get(var.getKey()))) {
+                sb.append(FIELD_SEPARATOR).append(JobEntryResultHistory.escape(var.getKey()))
+                        .append(FIELD_SEPARATOR).append(JobEntryResultHistory.escape(value));
+            }
+        }
+        sb.append('\n');
+
+        try {
+            if (writer == null) {
+                File dir = file.getParentFile();
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create directory " + dir);
+                }
+                writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+            }
+
+            writer.write(sb.toString());
+            // a checkpoint is only useful when it survives a crash
+            writer.flush();
+        } catch (IOException e) {
+            log.logError("Failed to save checkpoint of job entry " + key + " into " + file, e);
+        }
+    }
+
+    /**
+     * Close the checkpoint file, and remove it when the job succeeded.
+     *
+     * @param succeeded whether the job succeeded
+     */
+    public synchronized void close(boolean succeeded) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            writer = null;
+        }
+
+        if (succeeded && file.exists() && !file.delete()) {
+            log.logError("Failed to remove checkpoints in " + file);
+        }
+    }
+
+    public String getRunId() {
+        return runId;
+    }
+}
@@ -0,0 +1,395 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.job;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.job.entry.JobEntryCopy;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Launches job entries in parallel, running no more than a given number of them at the same time. Pending entries are
+ * started in FIFO order, or by priority when KETTLE_PARALLEL_ENTRIES_ORDER=PRIORITY. Priority of an entry comes from
+ * its attribute "priority" in group "parallel", higher first.
+ * <p>
+ * Each job has its own launcher, limited by KETTLE_JOB_MAX_PARALLEL_ENTRIES. Top level jobs also share a global limit,
+ * KETTLE_GLOBAL_MAX_PARALLEL_ENTRIES. Sub-jobs are not counted against the global limit, because they're started by
+ * entries already holding a slot. Zero or negative means unlimited.
+ * <p>
+ * A thread waiting for the entries it launched gives up its slot in the meantime, or nested parallel launches would
+ * deadlock.
+ *
+ * @author Zhichun Wu
+ */
+public final class JobEntryLauncher {
+    static final int MAX_PARALLEL_ENTRIES
+            = Integer.parseInt(System.getProperty("KETTLE_JOB_MAX_PARALLEL_ENTRIES", "0"));
+    static final int GLOBAL_MAX_PARALLEL_ENTRIES
+            = Integer.parseInt(System.getProperty("KETTLE_GLOBAL_MAX_PARALLEL_ENTRIES", "0"));
+    static final boolean PRIORITY_ORDER = "PRIORITY".equalsIgnoreCase(
+            System.getProperty("KETTLE_PARALLEL_ENTRIES_ORDER", "FIFO"));
+    static final int KEEP_ALIVE_SECONDS
+            = Integer.parseInt(System.getProperty("KETTLE_PARALLEL_ENTRIES_KEEP_ALIVE_SECONDS", "60"));
+
+    public static final String ATTRIBUTE_GROUP = "parallel";
+    public static final String ATTRIBUTE_PRIORITY = "priority";
+
+    // threads are only started for entries holding a slot, so the pool itself doesn't have to be bounded
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "kettle-job-entry-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Gate global = new Gate(GLOBAL_MAX_PARALLEL_ENTRIES);
+
+    /**
+     * Counting semaphore with a queue of pending entries and threads.
+     */
+    static final class Gate {
+        private final int capacity;
+        private final PriorityQueue<Waiter> queue = new PriorityQueue<Waiter>();
+
+        private long seq = 0L;
+        private int running = 0;
+
+        private int peakRunning = 0;
+        private int peakQueued = 0;
+        private final AtomicLong launchedCount = new AtomicLong(0L);
+        private final AtomicLong queuedCount = new AtomicLong(0L);
+        private final AtomicLong queuedMillis = new AtomicLong(0L);
+
+        Gate(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private void onGranted(Waiter waiter) {
+            running++;
+            if (running > peakRunning) {
+                peakRunning = running;
+            }
+            if (waiter != null) {
+                queuedMillis.addAndGet(System.currentTimeMillis() - waiter.since);
+            }
+        }
+
+        private Waiter enqueue(int priority, Runnable task) {
+            Waiter waiter = new Waiter(PRIORITY_ORDER ? priority : 0, seq++, task);
+            queue.add(waiter);
+            queuedCount.incrementAndGet();
+            if (queue.size() > peakQueued) {
+                peakQueued = queue.size();
+            }
+            return waiter;
+        }
+
+        /**
+         * Run the task right away if there's a free slot, or queue it.
+         */
+        void submit(int priority, Runnable task) {
+            launchedCount.incrementAndGet();
+            synchronized (this) {
+                if (capacity > 0 && (running >= capacity || !queue.isEmpty())) {
+                    enqueue(priority, task);
+                    return;
+                }
+                onGranted(null);
+            }
+            start(task);
+        }
+
+        /**
+         * Block until a slot is available.
+         */
+        void acquire(int priority) throws InterruptedException {
+            Waiter waiter;
+            synchronized (this) {
+                if (capacity <= 0 || (running < capacity && queue.isEmpty())) {
+                    onGranted(null);
+                    return;
+                }
+
+                waiter = enqueue(priority, null);
+                try {
+                    while (!waiter.granted) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        // too late, pass it on
+                        release();
+                    } else {
+                        queue.remove(waiter);
+                    }
+                    throw e;
+                }
+            }
+        }
+
+        void release() {
+            Waiter next = null;
+            synchronized (this) {
+                running--;
+                if (capacity <= 0 || running >= capacity) {
+                    return;
+                }
+
+                next = queue.poll();
+                if (next == null) {
+                    return;
+                }
+
+                onGranted(next);
+                if (next.task == null) {
+                    next.granted = true;
+                    notifyAll();
+                    return;
+                }
+            }
+            start(next.task);
+        }
+
+        private void start(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+
+        synchronized int getRunning() {
+            return running;
+        }
+
+        synchronized int getQueued() {
+            return queue.size();
+        }
+
+        synchronized int getPeakRunning() {
+            return peakRunning;
+        }
+
+        synchronized int getPeakQueued() {
+            return peakQueued;
+        }
+    }
+
+    static final class Waiter implements Comparable<Waiter> {
+        final int priority;
+        final long seq;
+        final long since = System.currentTimeMillis();
+        final Runnable task;
+
+        // set with lock of the gate held
+        boolean granted = false;
+
+        Waiter(int priority, long seq, Runnable task) {
+            this.priority = priority;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            if (priority != o.priority) {
+                return priority > o.priority ? -1 : 1;
+            }
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+
+    private final Gate gate;
+    private final boolean useGlobal;
+
+    // slots held by current thread, one of this launcher and one of the global gate
+    private final ThreadLocal<boolean[]> holding = new ThreadLocal<boolean[]>() {
+        @Override
+        protected boolean[] initialValue() {
+            return new boolean[2];
+        }
+    };
+
+    public static int getPriority(JobEntryCopy jobEntryCopy) {
+        return jobEntryCopy == null ? 0
+                : Const.toInt(jobEntryCopy.getAttribute(ATTRIBUTE_GROUP, ATTRIBUTE_PRIORITY), 0);
+    }
+
+    public static int getGlobalRunning() {
+        return global.getRunning();
+    }
+
+    public static int getGlobalQueued() {
+        return global.getQueued();
+    }
+
+    public static int getGlobalPeakRunning() {
+        return global.getPeakRunning();
+    }
+
+    public static int getGlobalPeakQueued() {
+        return global.getPeakQueued();
+    }
+
+    public static long getGlobalQueuedCount() {
+        return global.queuedCount.get();
+    }
+
+    public static long getGlobalQueuedMillis() {
+        return global.queuedMillis.get();
+    }
+
+    /**
+     * @param maxParallelism maximum number of entries running at the same time in the job, zero or negative means
+     *                       unlimited
+     * @param topLevel       whether it's a top level job, counted against the global limit
+     */
+    public JobEntryLauncher(int maxParallelism, boolean topLevel) {
+        this.gate = new Gate(maxParallelism);
+        this.useGlobal = topLevel && GLOBAL_MAX_PARALLEL_ENTRIES > 0;
+    }
+
+    public JobEntryLauncher(boolean topLevel) {
+        this(MAX_PARALLEL_ENTRIES, topLevel);
+    }
+
+    /**
+     * Launch the task when a slot is available.
+     *
+     * @param priority priority of the task, only used when ordering by priority
+     * @param name     thread name while running the task
+     * @param task     the task
+     * @return future of the task
+     */
+    public Future<?> launch(final int priority, final String name, final Runnable task) {
+        final FutureTask<Object> future = new FutureTask<Object>(task, null);
+        gate.submit(priority, new Runnable() {
+            @Override
+            public void run() {
+                Thread current = Thread.currentThread();
+                String poolName = current.getName();
+                current.setName(name);
+
+                boolean[] held = holding.get();
+                try {
+                    held[0] = true;
+                    if (useGlobal) {
+                        global.acquire(priority);
+                        held[1] = true;
+                    }
+                    future.run();
+                } catch (InterruptedException e) {
+                    future.cancel(false);
+                } finally {
+                    // might have been released in beforeWait() and not taken back
+                    if (held[1]) {
+                        global.release();
+                    }
+                    if (held[0]) {
+                        gate.release();
+                    }
+                    held[0] = false;
+                    held[1] = false;
+                    current.setPriority(Thread.NORM_PRIORITY);
+                    current.setName(poolName);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Give up the slot held by current thread, if any, before waiting for launched entries.
+     *
+     * @return true if a slot was released, to be passed to {@link #afterWait(boolean, int)}
+     */
+    public boolean beforeWait() {
+        boolean[] held = holding.get();
+        if (!held[0]) {
+            return false;
+        }
+
+        if (held[1]) {
+            held[1] = false;
+            global.release();
+        }
+        held[0] = false;
+        gate.release();
+        return true;
+    }
+
+    /**
+     * Take back the slot released by {@link #beforeWait()}.
+     */
+    public void afterWait(boolean released, int priority) throws InterruptedException {
+        if (released) {
+            boolean[] held = holding.get();
+            gate.acquire(priority);
+            held[0] = true;
+            if (useGlobal) {
+                global.acquire(priority);
+                held[1] = true;
+            }
+        }
+    }
+
+    public int getMaxParallelism() {
+        return gate.capacity;
+    }
+
+    public int getRunning() {
+        return gate.getRunning();
+    }
+
+    public int getQueued() {
+        return gate.getQueued();
+    }
+
+    public int getPeakRunning() {
+        return gate.getPeakRunning();
+    }
+
+    public int getPeakQueued() {
+        return gate.getPeakQueued();
+    }
+
+    public long getLaunchedCount() {
+        return gate.launchedCount.get();
+    }
+
+    public long getQueuedCount() {
+        return gate.queuedCount.get();
+    }
+
+    public long getQueuedMillis() {
+        return gate.queuedMillis.get();
+    }
+}
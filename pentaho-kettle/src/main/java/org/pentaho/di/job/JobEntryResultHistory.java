@@ -0,0 +1,445 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.job;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.logging.LogChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of job entries executed in a job, in the order of execution. Only the most recent results are kept in a ring
+ * buffer, together with counters of all results. Results dropped from the buffer can be spilled into a compact log
+ * file(one line per result, without log text, rows and files), so that they're still available page by page.
+ * <p>
+ * The spill file is only kept open while the job is running, pages read afterwards open it read-only. It's deleted by
+ * {@link #discard()}, or when the JVM exits.
+ *
+ * @author Zhichun Wu
+ */
+public final class JobEntryResultHistory {
+    static final boolean SPILL_ENABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_JOB_ENTRY_RESULTS_SPILL", "N"));
+    static final String SPILL_DIR = System.getProperty("KETTLE_JOB_ENTRY_RESULTS_SPILL_DIR",
+            new File(System.getProperty("java.io.tmpdir"), "kettle-job-results").getPath());
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final String NULL_VALUE = "\\N";
+
+    // spill files not discarded yet, instead of File.deleteOnExit which remembers every file until the JVM exits
+    private static final class SpillFiles {
+        // the shutdown hook is registered along with the first spill file
+        static final Set<File> FILES = ConcurrentHashMap.newKeySet();
+
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread("job entry results cleanup") {
+                @Override
+                public void run() {
+                    for (File file : FILES) {
+                        file.delete();
+                    }
+                }
+            });
+        }
+    }
+
+    // no more than this number of results in the buffer, unlimited if it's zero or negative
+    private int maxSize = 0;
+
+    private JobEntryResult[] buffer = new JobEntryResult[INITIAL_CAPACITY];
+    // position of the oldest result in the buffer
+    private int head = 0;
+    private int size = 0;
+
+    private long totalCount = 0L;
+    private long successCount = 0L;
+    private long failureCount = 0L;
+    private long errorCount = 0L;
+    private long evictedCount = 0L;
+
+    private boolean spill = false;
+    private File spillFile;
+    private RandomAccessFile spillWriter;
+    private long[] spillOffsets = new long[0];
+    private int spilledCount = 0;
+    // end of the last complete line
+    private long spillLength = 0L;
+
+    static String escape(String value) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if (NULL_VALUE.equals(value)) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                sb.append(c == 't' ? '\t' : (c == 'n' ? '\n' : (c == 'r' ? '\r' : c)));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String toLine(JobEntryResult jer) {
+        Result result = jer.getResult();
+        Date logDate = jer.getLogDate();
+
+        return new StringBuilder()
+                .append(logDate == null ? NULL_VALUE : String.valueOf(logDate.getTime())).append(FIELD_SEPARATOR)
+                .append(jer.getJobEntryNr()).append(FIELD_SEPARATOR)
+                .append(result == null ? NULL_VALUE : (result.getResult() ? "Y" : "N")).append(FIELD_SEPARATOR)
+                .append(result == null ? 0L : result.getNrErrors()).append(FIELD_SEPARATOR)
+                .append(result == null ? 0 : result.getExitStatus()).append(FIELD_SEPARATOR)
+                .append(escape(jer.getJobEntryName())).append(FIELD_SEPARATOR)
+                .append(escape(jer.getJobEntryFilename())).append(FIELD_SEPARATOR)
+                .append(escape(jer.getLogChannelId())).append(FIELD_SEPARATOR)
+                .append(escape(jer.getComment())).append(FIELD_SEPARATOR)
+                .append(escape(jer.getReason())).append('\n').toString();
+    }
+
+    static JobEntryResult fromLine(String line) {
+        String[] fields = line.split(String.valueOf(FIELD_SEPARATOR), -1);
+        if (fields.length < 10) {
+            return null;
+        }
+
+        Result result = null;
+        if (!NULL_VALUE.equals(fields[2])) {
+            result = new Result();
+            result.setResult("Y".equals(fields[2]));
+            result.setNrErrors(Long.parseLong(fields[3]));
+            result.setExitStatus(Integer.parseInt(fields[4]));
+        }
+
+        JobEntryResult jer = new JobEntryResult(result, unescape(fields[7]), unescape(fields[8]), unescape(fields[9]),
+                unescape(fields[5]), Integer.parseInt(fields[1]), unescape(fields[6]));
+        if (!NULL_VALUE.equals(fields[0])) {
+            jer.setLogDate(new Date(Long.parseLong(fields[0])));
+        }
+
+        return jer;
+    }
+
+    private void closeSpill(boolean delete) {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            spillWriter = null;
+        }
+
+        if (delete && spillFile != null) {
+            if (spillFile.delete() || !spillFile.exists()) {
+                SpillFiles.FILES.remove(spillFile);
+            }
+            spillFile = null;
+        }
+
+        spill = false;
+    }
+
+    private void spill(JobEntryResult jer) {
+        try {
+            if (spillFile == null) {
+                File dir = new File(SPILL_DIR);
+                if (!dir.exists() && !dir.mkdirs()) {
+                    throw new IOException("Failed to create directory " + dir);
+                }
+
+                spillFile = File.createTempFile("job-entry-results-", ".log", dir);
+                SpillFiles.FILES.add(spillFile);
+            }
+            if (spillWriter == null) {
+                spillWriter = new RandomAccessFile(spillFile, "rw");
+            }
+
+            if (spilledCount == spillOffsets.length) {
+                spillOffsets = Arrays.copyOf(spillOffsets, Math.max(INITIAL_CAPACITY, spilledCount << 1));
+            }
+
+            byte[] bytes = toLine(jer).getBytes(StandardCharsets.UTF_8);
+            spillWriter.seek(spillLength);
+            spillWriter.write(bytes);
+            spillOffsets[spilledCount++] = spillLength;
+            spillLength += bytes.length;
+        } catch (IOException e) {
+            // keep what we have got and stop spilling
+            LogChannel.GENERAL.logError(new StringBuilder().append("Failed to spill job entry results into ")
+                    .append(spillFile == null ? SPILL_DIR : spillFile.getPath()).toString(), e);
+            spill = false;
+        }
+    }
+
+    private RandomAccessFile openSpilled() {
+        if (spillWriter != null || spillFile == null || spilledCount == 0) {
+            return spillWriter;
+        }
+
+        try {
+            return new RandomAccessFile(spillFile, "r");
+        } catch (IOException e) {
+            LogChannel.GENERAL.logError(new StringBuilder().append("Failed to open ").append(spillFile).toString(), e);
+            return null;
+        }
+    }
+
+    private JobEntryResult readSpilled(RandomAccessFile reader, int index) {
+        if (reader == null || index < 0 || index >= spilledCount) {
+            return null;
+        }
+
+        try {
+            long from = spillOffsets[index];
+            long to = index + 1 < spilledCount ? spillOffsets[index + 1] : spillLength;
+            byte[] bytes = new byte[(int) (to - from)];
+            reader.seek(from);
+            reader.readFully(bytes);
+
+            // skip the line feed at the end
+            return fromLine(new String(bytes, 0, Math.max(0, bytes.length - 1), StandardCharsets.UTF_8));
+        } catch (IOException | RuntimeException e) {
+            LogChannel.GENERAL.logError(new StringBuilder().append("Failed to read job entry result #")
+                    .append(index).append(" from ").append(spillFile).toString(), e);
+            return null;
+        }
+    }
+
+    private JobEntryResult getBuffered(int index) {
+        return buffer[(head + index) % buffer.length];
+    }
+
+    /**
+     * Remove all results and start over.
+     *
+     * @param maxSize maximum number of results kept in memory, zero or negative means unlimited
+     */
+    public synchronized void reset(int maxSize) {
+        closeSpill(true);
+
+        this.maxSize = maxSize;
+        this.buffer = new JobEntryResult[maxSize > 0 ? Math.min(maxSize, INITIAL_CAPACITY) : INITIAL_CAPACITY];
+        this.head = 0;
+        this.size = 0;
+
+        this.totalCount = 0L;
+        this.successCount = 0L;
+        this.failureCount = 0L;
+        this.errorCount = 0L;
+        this.evictedCount = 0L;
+
+        this.spill = SPILL_ENABLED && maxSize > 0;
+        this.spillOffsets = new long[0];
+        this.spilledCount = 0;
+        this.spillLength = 0L;
+    }
+
+    /**
+     * Remove all results and the spill file, if any.
+     */
+    public synchronized void discard() {
+        reset(maxSize);
+    }
+
+    /**
+     * Close the spill file when the job is finished, results spilled so far are still available.
+     */
+    public synchronized void finish() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            spillWriter = null;
+        }
+    }
+
+    public synchronized void add(JobEntryResult jer) {
+        if (jer == null) {
+            return;
+        }
+
+        Result result = jer.getResult();
+        if (result != null) {
+            if (result.getResult()) {
+                successCount++;
+            } else {
+                failureCount++;
+            }
+            errorCount += result.getNrErrors();
+        }
+        totalCount++;
+
+        if (maxSize > 0 && size == maxSize) {
+            // full, replace the oldest one
+            JobEntryResult oldest = buffer[head];
+            buffer[head] = jer;
+            head = (head + 1) % buffer.length;
+            evictedCount++;
+
+            if (spill) {
+                spill(oldest);
+            }
+            return;
+        }
+
+        if (size == buffer.length) {
+            int capacity = buffer.length << 1;
+            if (maxSize > 0) {
+                capacity = Math.min(capacity, maxSize);
+            }
+
+            JobEntryResult[] newBuffer = new JobEntryResult[capacity];
+            for (int i = 0; i < size; i++) {
+                newBuffer[i] = getBuffered(i);
+            }
+            buffer = newBuffer;
+            head = 0;
+        }
+
+        buffer[(head + size) % buffer.length] = jer;
+        size++;
+    }
+
+    /**
+     * @return results in memory, from oldest to latest
+     */
+    public synchronized List<JobEntryResult> getRecent() {
+        List<JobEntryResult> list = new ArrayList<JobEntryResult>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(getBuffered(i));
+        }
+        return list;
+    }
+
+    /**
+     * Gets a page of results, including spilled ones. Results neither in memory nor spilled are skipped.
+     *
+     * @param from    0-based sequence number of the first result, in the order of execution
+     * @param maxRows maximum number of results to return
+     * @return results from oldest to latest
+     */
+    public synchronized List<JobEntryResult> getPage(long from, int maxRows) {
+        if (from < 0L) {
+            from = 0L;
+        }
+        long to = Math.min(totalCount, from + Math.max(0, maxRows));
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+
+        List<JobEntryResult> list = new ArrayList<JobEntryResult>((int) (to - from));
+        RandomAccessFile reader = from < evictedCount ? openSpilled() : null;
+        try {
+            for (long i = from; i < to; i++) {
+                JobEntryResult jer = i >= evictedCount
+                        ? getBuffered((int) (i - evictedCount)) : readSpilled(reader, (int) i);
+                if (jer != null) {
+                    list.add(jer);
+                }
+            }
+        } finally {
+            if (reader != null && reader != spillWriter) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return 0-based sequence number of the oldest result available through {@link #getPage(long, int)}
+     */
+    public synchronized long getFirstAvailable() {
+        return spilledCount > 0 ? 0L : evictedCount;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public synchronized long getSuccessCount() {
+        return successCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    public synchronized long getErrorCount() {
+        return errorCount;
+    }
+
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public synchronized long getSpilledCount() {
+        return spilledCount;
+    }
+}
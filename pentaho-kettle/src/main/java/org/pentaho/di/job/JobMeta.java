@@ -421,10 +421,14 @@ public class JobMeta extends AbstractMeta
                 jobMeta.databases = new ArrayList<DatabaseMeta>();
                 jobMeta.slaveServers = new ArrayList<SlaveServer>();
                 jobMeta.namedParams = new NamedParamsDefault();
+                // cache must not be shared with the source, which might be used by other threads
+                jobMeta.loopCache = new HashMap<String, Boolean>();
             }
 
             for (JobEntryCopy entry : jobcopies) {
-                jobMeta.jobcopies.add((JobEntryCopy) entry.clone_deep());
+                JobEntryCopy copy = (JobEntryCopy) entry.clone_deep();
+                copy.setParentJobMeta(jobMeta);
+                jobMeta.jobcopies.add(copy);
             }
             for (JobHopMeta entry : jobhops) {
                 jobMeta.jobhops.add((JobHopMeta) entry.clone());
@@ -983,10 +987,11 @@ public class JobMeta extends AbstractMeta
 
             // Read the named parameters.
             Node paramsNode = XMLHandler.getSubNode(jobnode, XML_TAG_PARAMETERS);
-            int nrParams = XMLHandler.countNodes(paramsNode, "parameter");
+            List<Node> paramNodes = XMLHandler.getNodes(paramsNode, "parameter");
+            int nrParams = paramNodes.size();
 
             for (int i = 0; i < nrParams; i++) {
-                Node paramNode = XMLHandler.getSubNodeByNr(paramsNode, "parameter", i);
+                Node paramNode = paramNodes.get(i);
 
                 String paramName = XMLHandler.getTagValue(paramNode, "name");
                 String defValue = XMLHandler.getTagValue(paramNode, "default_value");
@@ -1000,10 +1005,11 @@ public class JobMeta extends AbstractMeta
             //
             boolean isPur = ResourceDefinitionHelper.isPentahoRepository(rep);
 
-            int nr = XMLHandler.countNodes(jobnode, DatabaseMeta.XML_TAG);
+            List<Node> dbnodes = XMLHandler.getNodes(jobnode, DatabaseMeta.XML_TAG);
+            int nr = dbnodes.size();
             Set<String> privateDatabases = new HashSet<String>(nr);
             for (int i = 0; i < nr; i++) {
-                Node dbnode = XMLHandler.getSubNodeByNr(jobnode, DatabaseMeta.XML_TAG, i);
+                Node dbnode = dbnodes.get(i);
                 DatabaseMeta dbcon = new DatabaseMeta(dbnode);
                 if (isPur && !(dbcon.getAccessType() == DatabaseMeta.TYPE_ACCESS_JNDI
                         && ResourceDefinitionHelper.containsVariable(dbcon.getDatabaseName()))) {
@@ -1035,9 +1041,10 @@ public class JobMeta extends AbstractMeta
             // Read the slave servers...
             //
             Node slaveServersNode = XMLHandler.getSubNode(jobnode, XML_TAG_SLAVESERVERS);
-            int nrSlaveServers = XMLHandler.countNodes(slaveServersNode, SlaveServer.XML_TAG);
+            List<Node> slaveServerNodes = XMLHandler.getNodes(slaveServersNode, SlaveServer.XML_TAG);
+            int nrSlaveServers = slaveServerNodes.size();
             for (int i = 0; i < nrSlaveServers; i++) {
-                Node slaveServerNode = XMLHandler.getSubNodeByNr(slaveServersNode, SlaveServer.XML_TAG, i);
+                Node slaveServerNode = slaveServerNodes.get(i);
                 SlaveServer slaveServer = new SlaveServer(slaveServerNode);
                 slaveServer.shareVariablesWith(this);
 
@@ -1094,9 +1101,10 @@ public class JobMeta extends AbstractMeta
        * read the job entries...
        */
             Node entriesnode = XMLHandler.getSubNode(jobnode, "entries");
-            int tr = XMLHandler.countNodes(entriesnode, "entry");
+            List<Node> entrynodes = XMLHandler.getNodes(entriesnode, "entry");
+            int tr = entrynodes.size();
             for (int i = 0; i < tr; i++) {
-                Node entrynode = XMLHandler.getSubNodeByNr(entriesnode, "entry", i);
+                Node entrynode = entrynodes.get(i);
                 // System.out.println("Reading entry:\n"+entrynode);
 
                 JobEntryCopy je = new JobEntryCopy(entrynode, databases, slaveServers, rep, metaStore);
@@ -1136,18 +1144,20 @@ public class JobMeta extends AbstractMeta
             }
 
             Node hopsnode = XMLHandler.getSubNode(jobnode, "hops");
-            int ho = XMLHandler.countNodes(hopsnode, "hop");
+            List<Node> hopnodes = XMLHandler.getNodes(hopsnode, "hop");
+            int ho = hopnodes.size();
             for (int i = 0; i < ho; i++) {
-                Node hopnode = XMLHandler.getSubNodeByNr(hopsnode, "hop", i);
+                Node hopnode = hopnodes.get(i);
                 JobHopMeta hi = new JobHopMeta(hopnode, this);
                 jobhops.add(hi);
             }
 
             // Read the notes...
             Node notepadsnode = XMLHandler.getSubNode(jobnode, "notepads");
-            int nrnotes = XMLHandler.countNodes(notepadsnode, "notepad");
+            List<Node> notepadnodes = XMLHandler.getNodes(notepadsnode, "notepad");
+            int nrnotes = notepadnodes.size();
             for (int i = 0; i < nrnotes; i++) {
-                Node notepadnode = XMLHandler.getSubNodeByNr(notepadsnode, "notepad", i);
+                Node notepadnode = notepadnodes.get(i);
                 NotePadMeta ni = new NotePadMeta(notepadnode);
                 notes.add(ni);
             }
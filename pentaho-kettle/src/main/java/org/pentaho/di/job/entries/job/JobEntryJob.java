@@ -59,6 +59,8 @@ import org.w3c.dom.Node;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.pentaho.di.cluster.ServerCache.PARAM_ETL_JOB_ID;
 
@@ -74,6 +76,8 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
 
     private static final long JOB_QUERY_INTERVAL_MS // by default, query job status every 3 seconds
             = Long.parseLong(System.getProperty("KETTLE_JOB_QUERY_INTERVAL_MS", "3000"));
+    private static final long STOP_CHECK_INTERVAL_MS // fallback in case stop of parent job was not signaled
+            = Long.parseLong(System.getProperty("KETTLE_JOB_STOP_CHECK_INTERVAL_MS", "1000"));
 
     private String filename;
     private String jobname;
@@ -868,30 +872,57 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
                         delegationListener.jobDelegationStarted(job, new JobExecutionConfiguration());
                     }
 
-                    JobEntryJobRunner runner = new JobEntryJobRunner(job, result, nr, log);
-                    Thread jobRunnerThread = new Thread(runner);
+                    final JobEntryJobRunner runner = new JobEntryJobRunner(job, result, nr, log);
+                    // released when the runner is done, or when the parent job is asked to stop
+                    final CountDownLatch latch = new CountDownLatch(1);
+                    Runnable stopCallback = new Runnable() {
+                        @Override
+                        public void run() {
+                            latch.countDown();
+                        }
+                    };
+                    Thread jobRunnerThread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                runner.run();
+                            } finally {
+                                latch.countDown();
+                            }
+                        }
+                    });
                     // PDI-6518
                     // added UUID to thread name, otherwise threads do share names if jobs entries are executed in parallel in a
                     // parent job
                     // if that happens, contained transformations start closing each other's connections
                     jobRunnerThread.setName(Const.NVL(job.getJobMeta().getName(), job.getJobMeta().getFilename())
                             + " UUID: " + UUID.randomUUID().toString());
-                    jobRunnerThread.start();
+                    parentJob.addStopCallback(stopCallback);
+                    try {
+                        jobRunnerThread.start();
+
+                        // Keep running until we're done, re-checking now and then in case we missed a signal
+                        //
+                        while (latch.getCount() > 0 && !parentJob.isStopped()) {
+                            try {
+                                latch.await(STOP_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                            } catch (InterruptedException e) {
+                                // Ignore
+                            }
+                        }
+
+                        // if the parent-job was stopped, stop the sub-job too...
+                        if (parentJob.isStopped()) {
+                            job.stopAll();
+                        }
 
-                    // Keep running until we're done.
-                    //
-                    while (!runner.isFinished() && !parentJob.isStopped()) {
                         try {
-                            Thread.sleep(0, 1);
+                            jobRunnerThread.join(); // Wait until finished!
                         } catch (InterruptedException e) {
-                            // Ignore
+                            Thread.currentThread().interrupt();
                         }
-                    }
-
-                    // if the parent-job was stopped, stop the sub-job too...
-                    if (parentJob.isStopped()) {
-                        job.stopAll();
-                        runner.waitUntilFinished(); // Wait until finished!
+                    } finally {
+                        parentJob.removeStopCallback(stopCallback);
                     }
 
                     oneResult = runner.getResult();
@@ -954,6 +985,16 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
                     RemoteJobEntryLogHelper logHelper = new RemoteJobEntryLogHelper(
                             remoteSlaveServer, carteObjectId, this.log);
 
+                    // wake up as soon as the parent job is asked to stop
+                    final CountDownLatch stopLatch = new CountDownLatch(1);
+                    Runnable stopCallback = new Runnable() {
+                        @Override
+                        public void run() {
+                            stopLatch.countDown();
+                        }
+                    };
+                    parentJob.addStopCallback(stopCallback);
+
                     while (!parentJob.isStopped() && waitingToFinish) {
                         try {
                             jobStatus = remoteSlaveServer.getJobStatus(jobMeta.getName(), carteObjectId,
@@ -976,13 +1017,14 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
                             // come back on-line
                         }
 
-                        // sleep for 1 second
+                        // wait for a while before querying again
                         try {
-                            Thread.sleep(JOB_QUERY_INTERVAL_MS);
+                            stopLatch.await(JOB_QUERY_INTERVAL_MS, TimeUnit.MILLISECONDS);
                         } catch (InterruptedException e) {
                             // Ignore
                         }
                     }
+                    parentJob.removeStopCallback(stopCallback);
 
                     if (!waitingToFinish) {
                         // Since the job was posted successfully, the result is true...
@@ -1215,88 +1257,24 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
         }
     }
 
-    public JobMeta getJobMeta(Repository rep, IMetaStore metaStore, VariableSpace space) throws KettleException {
-        JobMeta jobMeta = null;
+    public JobMeta getJobMeta(final Repository rep, final IMetaStore metaStore, VariableSpace space)
+            throws KettleException {
         try {
-            CurrentDirectoryResolver r = new CurrentDirectoryResolver();
-            VariableSpace tmpSpace = r.resolveCurrentDirectory(
+            final CurrentDirectoryResolver r = new CurrentDirectoryResolver();
+            final VariableSpace tmpSpace = r.resolveCurrentDirectory(
                     specificationMethod, space, rep, parentJob, getFilename());
-            switch (specificationMethod) {
-                case FILENAME:
-                    String realFilename = tmpSpace.environmentSubstitute(getFilename());
-                    if (rep != null) {
-                        // need to try to load from the repository
-                        realFilename = ResourceDefinitionHelper.normalizeFileName(r.normalizeSlashes(realFilename));
 
-                        String dirStr = ResourceDefinitionHelper.extractDirectory(realFilename);
-                        String tmpFilename = ResourceDefinitionHelper.extractFileName(realFilename, false);
-
-                        try {
-                            RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
-                            // jobMeta = rep.loadJob(tmpFilename, dir, null, null);
-                            jobMeta = ResourceDefinitionHelper.loadJob(rep, dir, tmpFilename);
-                        } catch (KettleException ke) {
-                            // try without extension
-                            if (realFilename.endsWith(Const.STRING_JOB_DEFAULT_EXT)) {
-                                try {
-                                    tmpFilename = tmpFilename.substring(0,
-                                            tmpFilename.indexOf("." + Const.STRING_JOB_DEFAULT_EXT));
-                                    RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
-                                    jobMeta = rep.loadJob(tmpFilename, dir, null, null);
-                                } catch (KettleException ke2) {
-                                    // fall back to try loading from file system (mappingJobMeta is going to be null)
-                                }
-                            }
-                        }
-                    }
-                    if (jobMeta == null) {
-                        jobMeta = new JobMeta(tmpSpace, realFilename, rep, metaStore, null);
-                    }
-                    break;
-                case REPOSITORY_BY_NAME:
-                    String realDirectory = tmpSpace.environmentSubstitute(getDirectory());
-                    String realJobName = tmpSpace.environmentSubstitute(getJobName());
-
-                    if (rep != null) {
-                        realDirectory = r.normalizeSlashes(realDirectory);
-                        RepositoryDirectoryInterface repositoryDirectory =
-                                rep.loadRepositoryDirectoryTree().findDirectory(realDirectory);
-                        if (repositoryDirectory == null) {
-                            throw new KettleException("Unable to find repository directory ["
-                                    + Const.NVL(realDirectory, "") + "]");
-                        }
-                        jobMeta = rep.loadJob(realJobName, repositoryDirectory, null, null); // reads
-                    } else {
-                        // rep is null, let's try loading by filename
-                        try {
-                            jobMeta = new JobMeta(tmpSpace, realDirectory + "/" + realJobName, rep, metaStore, null);
-                        } catch (KettleException ke) {
-                            try {
-                                // add .kjb extension and try again
-                                jobMeta = new JobMeta(tmpSpace,
-                                        realDirectory + "/" + realJobName + "." + Const.STRING_JOB_DEFAULT_EXT, rep, metaStore, null);
-                            } catch (KettleException ke2) {
-                                ke2.printStackTrace();
-                                throw new KettleException(
-                                        "Could not execute job specified in a repository since we're not connected to one");
-                            }
+            String cacheKey = MetaCache.buildCacheKey(RepositoryObjectType.JOB, specificationMethod, rep,
+                    tmpSpace, tmpSpace.environmentSubstitute(getFilename()),
+                    tmpSpace.environmentSubstitute(getDirectory()), tmpSpace.environmentSubstitute(getJobName()),
+                    jobObjectId);
+            JobMeta jobMeta = MetaCache.get(cacheKey, rep, tmpSpace, tmpSpace,
+                    new MetaCache.Loader<JobMeta>() {
+                        @Override
+                        public JobMeta load(VariableSpace parentSpace) throws Exception {
+                            return loadJobMeta(rep, metaStore, tmpSpace, parentSpace, r);
                         }
-                    }
-                    break;
-                case REPOSITORY_BY_REFERENCE:
-                    if (rep != null) {
-                        // Load the last version...
-                        //
-                        jobMeta = rep.loadJob(jobObjectId, null);
-                        break;
-                    } else {
-                        throw new KettleException(
-                                "Could not execute job specified in a repository since we're not connected to one");
-                    }
-                default:
-                    throw new KettleException("The specified object location specification method '"
-                            + specificationMethod + "' is not yet supported in this job entry.");
-            }
+                    });
 
             if (jobMeta != null) {
                 jobMeta.setRepository(rep);
@@ -1310,6 +1288,92 @@ public class JobEntryJob extends JobEntryBase implements Cloneable, JobEntryInte
 
     }
 
+    /**
+     * Names are resolved by tmpSpace, while the loaded job gets parentSpace as parent variable space.
+     */
+    private JobMeta loadJobMeta(Repository rep, IMetaStore metaStore, VariableSpace tmpSpace,
+                                VariableSpace parentSpace, CurrentDirectoryResolver r) throws KettleException {
+        JobMeta jobMeta = null;
+        switch (specificationMethod) {
+            case FILENAME:
+                String realFilename = tmpSpace.environmentSubstitute(getFilename());
+                if (rep != null) {
+                    // need to try to load from the repository
+                    realFilename = ResourceDefinitionHelper.normalizeFileName(r.normalizeSlashes(realFilename));
+
+                    String dirStr = ResourceDefinitionHelper.extractDirectory(realFilename);
+                    String tmpFilename = ResourceDefinitionHelper.extractFileName(realFilename, false);
+
+                    try {
+                        RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
+                        // jobMeta = rep.loadJob(tmpFilename, dir, null, null);
+                        jobMeta = ResourceDefinitionHelper.loadJob(rep, dir, tmpFilename);
+                    } catch (KettleException ke) {
+                        // try without extension
+                        if (realFilename.endsWith(Const.STRING_JOB_DEFAULT_EXT)) {
+                            try {
+                                tmpFilename = tmpFilename.substring(0,
+                                        tmpFilename.indexOf("." + Const.STRING_JOB_DEFAULT_EXT));
+                                RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
+                                jobMeta = rep.loadJob(tmpFilename, dir, null, null);
+                            } catch (KettleException ke2) {
+                                // fall back to try loading from file system (mappingJobMeta is going to be null)
+                            }
+                        }
+                    }
+                }
+                if (jobMeta == null) {
+                    jobMeta = new JobMeta(parentSpace, realFilename, rep, metaStore, null);
+                }
+                break;
+            case REPOSITORY_BY_NAME:
+                String realDirectory = tmpSpace.environmentSubstitute(getDirectory());
+                String realJobName = tmpSpace.environmentSubstitute(getJobName());
+
+                if (rep != null) {
+                    realDirectory = r.normalizeSlashes(realDirectory);
+                    RepositoryDirectoryInterface repositoryDirectory =
+                            rep.loadRepositoryDirectoryTree().findDirectory(realDirectory);
+                    if (repositoryDirectory == null) {
+                        throw new KettleException("Unable to find repository directory ["
+                                + Const.NVL(realDirectory, "") + "]");
+                    }
+                    jobMeta = rep.loadJob(realJobName, repositoryDirectory, null, null); // reads
+                } else {
+                    // rep is null, let's try loading by filename
+                    try {
+                        jobMeta = new JobMeta(parentSpace, realDirectory + "/" + realJobName, rep, metaStore, null);
+                    } catch (KettleException ke) {
+                        try {
+                            // add .kjb extension and try again
+                            jobMeta = new JobMeta(parentSpace,
+                                    realDirectory + "/" + realJobName + "." + Const.STRING_JOB_DEFAULT_EXT, rep, metaStore, null);
+                        } catch (KettleException ke2) {
+                            ke2.printStackTrace();
+                            throw new KettleException(
+                                    "Could not execute job specified in a repository since we're not connected to one");
+                        }
+                    }
+                }
+                break;
+            case REPOSITORY_BY_REFERENCE:
+                if (rep != null) {
+                    // Load the last version...
+                    //
+                    jobMeta = rep.loadJob(jobObjectId, null);
+                    break;
+                } else {
+                    throw new KettleException(
+                            "Could not execute job specified in a repository since we're not connected to one");
+                }
+            default:
+                throw new KettleException("The specified object location specification method '"
+                        + specificationMethod + "' is not yet supported in this job entry.");
+        }
+
+        return jobMeta;
+    }
+
     /**
      * @return Returns the runEveryResultRow.
      */
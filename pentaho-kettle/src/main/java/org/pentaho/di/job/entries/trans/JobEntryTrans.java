@@ -1240,93 +1240,24 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
         return getTransMeta(rep, null, space);
     }
 
-    public TransMeta getTransMeta(Repository rep, IMetaStore metaStore, VariableSpace space) throws KettleException {
+    public TransMeta getTransMeta(final Repository rep, final IMetaStore metaStore, VariableSpace space)
+            throws KettleException {
         try {
-            TransMeta transMeta = null;
-            CurrentDirectoryResolver r = new CurrentDirectoryResolver();
-            VariableSpace tmpSpace = r.resolveCurrentDirectory(
+            final CurrentDirectoryResolver r = new CurrentDirectoryResolver();
+            final VariableSpace tmpSpace = r.resolveCurrentDirectory(
                     specificationMethod, space, rep, parentJob, getFilename());
-            switch (specificationMethod) {
-                case FILENAME:
-                    String realFilename = tmpSpace.environmentSubstitute(getFilename());
-                    if (rep != null) {
-                        realFilename = ResourceDefinitionHelper.normalizeFileName(r.normalizeSlashes(realFilename));
 
-                        String dirStr = ResourceDefinitionHelper.extractDirectory(realFilename);
-                        String tmpFilename = ResourceDefinitionHelper.extractFileName(realFilename, false);
-
-                        // need to try to load from the repository
-                        try {
-                            RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
-                            // transMeta = rep.loadTransformation(tmpFilename, dir, null, true, null);
-                            transMeta = ResourceDefinitionHelper.loadTransformation(rep, dir, tmpFilename);
-                        } catch (KettleException ke) {
-                            // try without extension
-                            if (realFilename.endsWith(Const.STRING_TRANS_DEFAULT_EXT)) {
-                                try {
-                                    tmpFilename = tmpFilename.substring(0,
-                                            tmpFilename.indexOf("." + Const.STRING_TRANS_DEFAULT_EXT));
-                                    RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
-                                    transMeta = rep.loadTransformation(tmpFilename, dir, null, true, null);
-                                } catch (KettleException ke2) {
-                                    // fall back to try loading from file system (transMeta is going to be null)
-                                }
-                            }
+            String cacheKey = MetaCache.buildCacheKey(RepositoryObjectType.TRANSFORMATION, specificationMethod, rep,
+                    tmpSpace, tmpSpace.environmentSubstitute(getFilename()),
+                    tmpSpace.environmentSubstitute(getDirectory()), tmpSpace.environmentSubstitute(getTransname()),
+                    transObjectId);
+            TransMeta transMeta = MetaCache.get(cacheKey, rep, this, this,
+                    new MetaCache.Loader<TransMeta>() {
+                        @Override
+                        public TransMeta load(VariableSpace parentSpace) throws Exception {
+                            return loadTransMeta(rep, metaStore, tmpSpace, parentSpace, r);
                         }
-                    }
-                    if (transMeta == null) {
-                        logBasic("Loading transformation from XML file [" + realFilename + "]");
-                        transMeta = new TransMeta(realFilename, metaStore, null, true, this, null);
-                    }
-                    break;
-                case REPOSITORY_BY_NAME:
-                    String transname = tmpSpace.environmentSubstitute(getTransname());
-                    String realDirectory = tmpSpace.environmentSubstitute(getDirectory());
-
-                    logBasic(BaseMessages.getString(PKG, "JobTrans.Log.LoadingTransRepDirec", transname, realDirectory));
-
-                    if (rep != null) {
-                        //
-                        // It only makes sense to try to load from the repository when the
-                        // repository is also filled in.
-                        //
-                        // It reads last the last revision from the repository.
-                        //
-                        realDirectory = r.normalizeSlashes(realDirectory);
-
-                        RepositoryDirectoryInterface repositoryDirectory = rep.findDirectory(realDirectory);
-                        transMeta = rep.loadTransformation(transname, repositoryDirectory, null, true, null);
-                    } else {
-                        // rep is null, let's try loading by filename
-                        try {
-                            transMeta = new TransMeta(realDirectory + "/" + transname, metaStore, null, true, this, null);
-                        } catch (KettleException ke) {
-                            try {
-                                // add .ktr extension and try again
-                                transMeta = new TransMeta(realDirectory + "/" + transname + "." + Const.STRING_TRANS_DEFAULT_EXT,
-                                        metaStore, null, true, this, null);
-                            } catch (KettleException ke2) {
-                                throw new KettleException(BaseMessages.getString(PKG, "JobTrans.Exception.NoRepDefined"), ke2);
-                            }
-                        }
-                    }
-                    break;
-                case REPOSITORY_BY_REFERENCE:
-                    if (transObjectId == null) {
-                        throw new KettleException(BaseMessages.getString(PKG,
-                                "JobTrans.Exception.ReferencedTransformationIdIsNull"));
-                    }
-
-                    if (rep != null) {
-                        // Load the last revision
-                        //
-                        transMeta = rep.loadTransformation(transObjectId, null);
-                    }
-                    break;
-                default:
-                    throw new KettleException("The specified object location specification method '"
-                            + specificationMethod + "' is not yet supported in this job entry.");
-            }
+                    });
 
             if (transMeta != null) {
                 // copy parent variables to this loaded variable space.
@@ -1348,6 +1279,97 @@ public class JobEntryTrans extends JobEntryBase implements Cloneable, JobEntryIn
         }
     }
 
+    /**
+     * Names are resolved by tmpSpace, while the loaded transformation gets parentSpace as parent variable space.
+     */
+    private TransMeta loadTransMeta(Repository rep, IMetaStore metaStore, VariableSpace tmpSpace,
+                                    VariableSpace parentSpace, CurrentDirectoryResolver r) throws KettleException {
+        TransMeta transMeta = null;
+        switch (specificationMethod) {
+            case FILENAME:
+                String realFilename = tmpSpace.environmentSubstitute(getFilename());
+                if (rep != null) {
+                    realFilename = ResourceDefinitionHelper.normalizeFileName(r.normalizeSlashes(realFilename));
+
+                    String dirStr = ResourceDefinitionHelper.extractDirectory(realFilename);
+                    String tmpFilename = ResourceDefinitionHelper.extractFileName(realFilename, false);
+
+                    // need to try to load from the repository
+                    try {
+                        RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
+                        // transMeta = rep.loadTransformation(tmpFilename, dir, null, true, null);
+                        transMeta = ResourceDefinitionHelper.loadTransformation(rep, dir, tmpFilename);
+                    } catch (KettleException ke) {
+                        // try without extension
+                        if (realFilename.endsWith(Const.STRING_TRANS_DEFAULT_EXT)) {
+                            try {
+                                tmpFilename = tmpFilename.substring(0,
+                                        tmpFilename.indexOf("." + Const.STRING_TRANS_DEFAULT_EXT));
+                                RepositoryDirectoryInterface dir = rep.findDirectory(dirStr);
+                                transMeta = rep.loadTransformation(tmpFilename, dir, null, true, null);
+                            } catch (KettleException ke2) {
+                                // fall back to try loading from file system (transMeta is going to be null)
+                            }
+                        }
+                    }
+                }
+                if (transMeta == null) {
+                    logBasic("Loading transformation from XML file [" + realFilename + "]");
+                    transMeta = new TransMeta(realFilename, metaStore, null, true, parentSpace, null);
+                }
+                break;
+            case REPOSITORY_BY_NAME:
+                String transname = tmpSpace.environmentSubstitute(getTransname());
+                String realDirectory = tmpSpace.environmentSubstitute(getDirectory());
+
+                logBasic(BaseMessages.getString(PKG, "JobTrans.Log.LoadingTransRepDirec", transname, realDirectory));
+
+                if (rep != null) {
+                    //
+                    // It only makes sense to try to load from the repository when the
+                    // repository is also filled in.
+                    //
+                    // It reads last the last revision from the repository.
+                    //
+                    realDirectory = r.normalizeSlashes(realDirectory);
+
+                    RepositoryDirectoryInterface repositoryDirectory = rep.findDirectory(realDirectory);
+                    transMeta = rep.loadTransformation(transname, repositoryDirectory, null, true, null);
+                } else {
+                    // rep is null, let's try loading by filename
+                    try {
+                        transMeta = new TransMeta(realDirectory + "/" + transname, metaStore, null, true, parentSpace, null);
+                    } catch (KettleException ke) {
+                        try {
+                            // add .ktr extension and try again
+                            transMeta = new TransMeta(realDirectory + "/" + transname + "." + Const.STRING_TRANS_DEFAULT_EXT,
+                                    metaStore, null, true, parentSpace, null);
+                        } catch (KettleException ke2) {
+                            throw new KettleException(BaseMessages.getString(PKG, "JobTrans.Exception.NoRepDefined"), ke2);
+                        }
+                    }
+                }
+                break;
+            case REPOSITORY_BY_REFERENCE:
+                if (transObjectId == null) {
+                    throw new KettleException(BaseMessages.getString(PKG,
+                            "JobTrans.Exception.ReferencedTransformationIdIsNull"));
+                }
+
+                if (rep != null) {
+                    // Load the last revision
+                    //
+                    transMeta = rep.loadTransformation(transObjectId, null);
+                }
+                break;
+            default:
+                throw new KettleException("The specified object location specification method '"
+                        + specificationMethod + "' is not yet supported in this job entry.");
+        }
+
+        return transMeta;
+    }
+
     @Override
     public boolean evaluates() {
         return true;
@@ -0,0 +1,431 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.resource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.vfs2.FileObject;
+import org.pentaho.di.base.AbstractMeta;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.ObjectLocationSpecificationMethod;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.util.CurrentDirectoryResolver;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.variables.Variables;
+import org.pentaho.di.core.vfs.KettleVFS;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.repository.RepositoryDirectoryInterface;
+import org.pentaho.di.repository.RepositoryObject;
+import org.pentaho.di.repository.RepositoryObjectType;
+import org.pentaho.di.trans.TransMeta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of parsed transformations and jobs. Entries are keyed by source identity, which is file name plus
+ * content hash, or repository object plus modification time, and loaded per key so that different files can be loaded
+ * in parallel. Cached metadata is never handed out, callers always get a clone.
+ * <p>
+ * Cached entries are loaded against a detached variable space holding nothing but system properties, so they neither
+ * keep the first caller alive nor carry its variables to later callers. Metadata reading shared objects from a path
+ * with variables depends on the caller, and is loaded without cache.
+ * <p>
+ * Repositories like KettleDatabaseRepository are not thread-safe, so everything done with a repository, building keys
+ * and loading, is serialized on the repository instance.
+ *
+ * @author Zhichun Wu
+ */
+public final class MetaCache {
+    public static final boolean META_CACHE_DISABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_META_CACHE_DISABLED", "N"));
+    public static final int META_CACHE_SIZE
+            = Integer.parseInt(System.getProperty("KETTLE_META_CACHE_SIZE", "200"));
+    public static final int META_EXPIRATION_MINUTE
+            = Integer.parseInt(System.getProperty("KETTLE_META_EXPIRATION_MINUTE", "1800"));
+    // let GC reclaim cached metadata when running out of memory
+    public static final boolean META_CACHE_SOFT_VALUES = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_META_CACHE_SOFT_VALUES", "Y"));
+
+    private static final String HASH_ALGORITHM = "MD5";
+    private static final int HASH_BUFFER_SIZE = 8192;
+
+    private static final Cache<String, AbstractMeta> metaCache = buildCache();
+
+    // keys of metadata which must be loaded by each caller, like collections and caller-dependent shared objects
+    private static final Cache<String, Boolean> uncacheableKeys = CacheBuilder.newBuilder()
+            .maximumSize(META_CACHE_SIZE)
+            .expireAfterAccess(META_EXPIRATION_MINUTE, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Loads a transformation or job against the given parent variable space.
+     */
+    public interface Loader<T extends AbstractMeta> {
+        T load(VariableSpace space) throws Exception;
+    }
+
+    // file URI + modified time + size -> content hash, so that unchanged files are not read again
+    private static final Cache<String, String> hashCache = CacheBuilder.newBuilder()
+            .maximumSize(META_CACHE_SIZE * 2L)
+            .expireAfterAccess(META_EXPIRATION_MINUTE, TimeUnit.MINUTES)
+            .build();
+
+    private static Cache<String, AbstractMeta> buildCache() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(META_CACHE_SIZE)
+                .expireAfterAccess(META_EXPIRATION_MINUTE, TimeUnit.MINUTES)
+                .recordStats();
+        if (META_CACHE_SOFT_VALUES) {
+            builder.softValues();
+        }
+        return builder.build();
+    }
+
+    private static String hash(FileObject file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+
+        try (InputStream in = file.getContent().getInputStream()) {
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String buildFileKey(RepositoryObjectType type, String fileName, VariableSpace space) {
+        if (Utils.isEmpty(fileName) || ResourceDefinitionHelper.containsVariable(fileName)) {
+            return null;
+        }
+
+        try {
+            final FileObject file = KettleVFS.getFileObject(fileName, space);
+            if (!file.exists()) {
+                return null;
+            }
+
+            String uri = file.getName().getURI();
+            String contentHash = hashCache.get(new StringBuilder().append(uri)
+                    .append('@').append(file.getContent().getLastModifiedTime())
+                    .append('@').append(file.getContent().getSize()).toString(), new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return hash(file);
+                }
+            });
+
+            return new StringBuilder().append(type.name()).append(":file:").append(uri)
+                    .append('#').append(contentHash).toString();
+        } catch (Exception e) {
+            // not something we can track, let the loader deal with it
+            return null;
+        }
+    }
+
+    private static String buildRepositoryKey(RepositoryObjectType type, Repository rep, ObjectId objectId)
+            throws KettleException {
+        if (objectId == null) {
+            return null;
+        }
+
+        RepositoryObject info = rep.getObjectInformation(objectId, type);
+        Date modifiedDate = info == null ? null : info.getModifiedDate();
+        // without a date there's no way to tell if the object was changed
+        if (modifiedDate == null) {
+            return null;
+        }
+
+        return new StringBuilder().append(type.name()).append(":repo:").append(rep.getName()).append(':')
+                .append(objectId.getId()).append('@').append(modifiedDate.getTime()).toString();
+    }
+
+    private static String buildRepositoryKey(RepositoryObjectType type, Repository rep, String directory, String name)
+            throws KettleException {
+        if (Utils.isEmpty(directory) || Utils.isEmpty(name)
+                || ResourceDefinitionHelper.containsVariable(directory)
+                || ResourceDefinitionHelper.containsVariable(name)) {
+            return null;
+        }
+
+        RepositoryDirectoryInterface dir = rep.findDirectory(directory);
+        if (dir == null) {
+            return null;
+        }
+
+        ObjectId objectId = type == RepositoryObjectType.TRANSFORMATION
+                ? rep.getTransformationID(name, dir) : rep.getJobId(name, dir);
+        return buildRepositoryKey(type, rep, objectId);
+    }
+
+    /**
+     * Build cache key for a transformation or job file.
+     *
+     * @param type     {@link RepositoryObjectType#TRANSFORMATION} or {@link RepositoryObjectType#JOB}
+     * @param fileName substituted file name
+     * @param space    variable space used to resolve the file
+     * @return cache key, or null if the file can't be cached
+     */
+    public static String buildFileCacheKey(RepositoryObjectType type, String fileName, VariableSpace space) {
+        return META_CACHE_DISABLED ? null : buildFileKey(type, fileName, space);
+    }
+
+    /**
+     * Build cache key for a sub-transformation or sub-job.
+     *
+     * @param type      {@link RepositoryObjectType#TRANSFORMATION} or {@link RepositoryObjectType#JOB}
+     * @param method    how the object is specified
+     * @param rep       repository, can be null
+     * @param space     variable space used to resolve the file
+     * @param fileName  substituted file name
+     * @param directory substituted repository directory
+     * @param name      substituted object name
+     * @param objectId  repository object id
+     * @return cache key, or null if the object can't be cached
+     */
+    public static String buildCacheKey(RepositoryObjectType type, ObjectLocationSpecificationMethod method,
+                                       Repository rep, VariableSpace space, String fileName,
+                                       String directory, String name, ObjectId objectId) {
+        if (META_CACHE_DISABLED || method == null) {
+            return null;
+        }
+
+        String extension = "." + (type == RepositoryObjectType.TRANSFORMATION
+                ? Const.STRING_TRANS_DEFAULT_EXT : Const.STRING_JOB_DEFAULT_EXT);
+        if (rep == null) {
+            return buildCacheKey(type, method, null, space, fileName, directory, name, objectId, extension);
+        }
+
+        synchronized (rep) {
+            return buildCacheKey(type, method, rep, space, fileName, directory, name, objectId, extension);
+        }
+    }
+
+    private static String buildCacheKey(RepositoryObjectType type, ObjectLocationSpecificationMethod method,
+                                        Repository rep, VariableSpace space, String fileName, String directory,
+                                        String name, ObjectId objectId, String extension) {
+        CurrentDirectoryResolver r = new CurrentDirectoryResolver();
+        String key = null;
+
+        try {
+            switch (method) {
+                case FILENAME:
+                    if (rep == null) {
+                        key = buildFileKey(type, fileName, space);
+                    } else if (!Utils.isEmpty(fileName)) {
+                        String realFilename = ResourceDefinitionHelper.normalizeFileName(r.normalizeSlashes(fileName));
+                        String objectName = ResourceDefinitionHelper.extractFileName(realFilename, false);
+                        if (objectName != null && objectName.endsWith(extension)) {
+                            objectName = objectName.substring(0, objectName.length() - extension.length());
+                        }
+                        key = buildRepositoryKey(type, rep,
+                                ResourceDefinitionHelper.extractDirectory(realFilename), objectName);
+                    }
+                    break;
+                case REPOSITORY_BY_NAME:
+                    if (rep == null) {
+                        String path = directory + "/" + name;
+                        key = buildFileKey(type, path, space);
+                        if (key == null) {
+                            key = buildFileKey(type, path + extension, space);
+                        }
+                    } else if (directory != null) {
+                        key = buildRepositoryKey(type, rep, r.normalizeSlashes(directory), name);
+                    }
+                    break;
+                case REPOSITORY_BY_REFERENCE:
+                    if (rep != null) {
+                        key = buildRepositoryKey(type, rep, objectId);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            // fall back to load without cache
+            key = null;
+        }
+
+        return key;
+    }
+
+    private static AbstractMeta cloneMeta(AbstractMeta meta, VariableSpace parent) {
+        AbstractMeta clonedMeta;
+        if (meta instanceof TransMeta) {
+            clonedMeta = (AbstractMeta) ((TransMeta) meta).realClone(false);
+        } else {
+            clonedMeta = (AbstractMeta) ((JobMeta) meta).realClone(false);
+        }
+
+        // the variables are shared by shallow clone, which is not what we want
+        VariableSpace vars = new Variables();
+        vars.initializeVariablesFrom(parent);
+        clonedMeta.shareVariablesWith(vars);
+        clonedMeta.setInternalKettleVariables();
+
+        return clonedMeta;
+    }
+
+    private static VariableSpace newDetachedSpace() {
+        VariableSpace space = new Variables();
+        // system properties only
+        space.initializeVariablesFrom(null);
+        return space;
+    }
+
+    private static <T extends AbstractMeta> T load(Loader<T> loader, Repository rep, VariableSpace space)
+            throws Exception {
+        if (rep == null) {
+            return loader.load(space);
+        }
+
+        synchronized (rep) {
+            return loader.load(space);
+        }
+    }
+
+    private static <T extends AbstractMeta> T loadWithoutCache(Loader<T> loader, Repository rep, VariableSpace space)
+            throws KettleException {
+        try {
+            return load(loader, rep, space);
+        } catch (KettleException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new KettleException(e);
+        }
+    }
+
+    private static boolean isCacheable(AbstractMeta meta) {
+        // collections are loaded by name pattern, no way to keep track of them
+        return meta != null && !(meta instanceof ResourceDefinitionHelper.TransMetaCollection)
+                && !(meta instanceof ResourceDefinitionHelper.JobMetaCollection)
+                && !ResourceDefinitionHelper.containsVariable(meta.getSharedObjectsFile());
+    }
+
+    /**
+     * Get a clone of the cached metadata, load and cache it when it's not there. Only one thread loads a given key, while
+     * different keys are loaded in parallel.
+     *
+     * @param key    cache key from {@link #buildCacheKey} or {@link #buildFileCacheKey}, null means no caching at all
+     * @param rep    repository the loader reads from, null if none
+     * @param space  variable space of the caller, used when loading without cache
+     * @param parent parent variable space used to initialize variables of the clone
+     * @param loader loader to create the metadata
+     * @param <T>    {@link TransMeta} or {@link JobMeta}
+     * @return a clone which can be changed freely
+     * @throws KettleException when failed to load the metadata
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AbstractMeta> T get(String key, final Repository rep, VariableSpace space,
+                                                 VariableSpace parent, final Loader<T> loader) throws KettleException {
+        if (key == null || uncacheableKeys.getIfPresent(key) != null) {
+            return loadWithoutCache(loader, rep, space);
+        }
+
+        AbstractMeta meta;
+        try {
+            meta = metaCache.get(key, new Callable<AbstractMeta>() {
+                @Override
+                public AbstractMeta call() throws Exception {
+                    T loadedMeta = load(loader, rep, newDetachedSpace());
+                    if (!isCacheable(loadedMeta)) {
+                        throw new UncacheableMetaException();
+                    }
+                    return loadedMeta;
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncacheableMetaException) {
+                uncacheableKeys.put(key, Boolean.TRUE);
+                return loadWithoutCache(loader, rep, space);
+            } else if (cause instanceof KettleException) {
+                throw (KettleException) cause;
+            }
+            throw new KettleException(cause == null ? e : cause);
+        }
+
+        return (T) cloneMeta(meta, parent);
+    }
+
+    public static void invalidate(String key) {
+        metaCache.invalidate(key);
+        uncacheableKeys.invalidate(key);
+    }
+
+    public static void invalidateAll() {
+        metaCache.invalidateAll();
+        uncacheableKeys.invalidateAll();
+    }
+
+    public static long getHitCount() {
+        return metaCache.stats().hitCount();
+    }
+
+    public static long getMissCount() {
+        return metaCache.stats().missCount();
+    }
+
+    public static long getEvictionCount() {
+        return metaCache.stats().evictionCount();
+    }
+
+    public static long size() {
+        return metaCache.size();
+    }
+
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder(metaCache.stats().toString());
+
+        try {
+            Map<String, AbstractMeta> map = metaCache.asMap();
+            for (String key : map.keySet()) {
+                sb.append(Const.CR).append(key);
+            }
+        } catch (Exception e) {
+            // ignore
+        }
+
+        return sb.toString();
+    }
+
+    private static final class UncacheableMetaException extends Exception {
+        UncacheableMetaException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private MetaCache() {
+    }
+}
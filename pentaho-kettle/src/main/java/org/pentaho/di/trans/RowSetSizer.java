@@ -0,0 +1,217 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import org.pentaho.di.core.ResizableRowSet;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.Metrics;
+import org.pentaho.di.core.metrics.MetricsSnapshotType;
+
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapts capacity of individual row sets according to back-pressure observed at runtime. A hop where both producer
+ * and consumer keep waiting on each other gets a bigger buffer, while a hop that is always full(slow consumer) or
+ * almost empty(slow producer) is shrunk. Total capacity of all adaptive row sets in the JVM stays within a budget.
+ *
+ * @author Zhichun Wu
+ */
+public class RowSetSizer {
+    public static final boolean ADAPTIVE_ROWSET_ENABLED = "Y".equalsIgnoreCase(
+            System.getProperty("KETTLE_ADAPTIVE_ROWSET", "N"));
+    static final int MAX_GROWTH_FACTOR
+            = Integer.parseInt(System.getProperty("KETTLE_ADAPTIVE_ROWSET_MAX_FACTOR", "4"));
+    static final int MIN_CAPACITY
+            = Integer.parseInt(System.getProperty("KETTLE_ADAPTIVE_ROWSET_MIN_SIZE", "100"));
+    static final long CAPACITY_BUDGET
+            = Long.parseLong(System.getProperty("KETTLE_ADAPTIVE_ROWSET_BUDGET", "5000000"));
+    static final long INTERVAL_MS
+            = Long.parseLong(System.getProperty("KETTLE_ADAPTIVE_ROWSET_INTERVAL_MS", "1000"));
+
+    // ratio of waiting time in an interval considered as blocked
+    static final double BLOCKED_RATIO = 0.1D;
+    static final double FULL_RATIO = 0.9D;
+    static final double EMPTY_RATIO = 0.25D;
+
+    public static final Metrics METRIC_ROWSET_CAPACITY = new Metrics(MetricsSnapshotType.MAX,
+            "ROWSET_CAPACITY", "Adapted capacity of a rowset");
+    public static final Metrics METRIC_ROWSET_GROW = new Metrics(MetricsSnapshotType.COUNT,
+            "ROWSET_GROW", "Number of times a rowset was grown");
+    public static final Metrics METRIC_ROWSET_SHRINK = new Metrics(MetricsSnapshotType.COUNT,
+            "ROWSET_SHRINK", "Number of times a rowset was shrunk");
+
+    // capacity of all adaptive row sets in this JVM
+    private static final AtomicLong allocated = new AtomicLong(0L);
+
+    static final class State {
+        final ResizableRowSet rowSet;
+        long lastPutWaitNanos;
+        long lastGetWaitNanos;
+
+        State(ResizableRowSet rowSet) {
+            this.rowSet = rowSet;
+        }
+    }
+
+    private final LogChannelInterface log;
+    private final List<State> states = new CopyOnWriteArrayList<State>();
+    private final AtomicLong grown = new AtomicLong(0L);
+    private final AtomicLong shrunk = new AtomicLong(0L);
+
+    private Timer timer;
+    private long lastCheck;
+
+    public static long getAllocatedCapacity() {
+        return allocated.get();
+    }
+
+    private static boolean reserve(long delta) {
+        long current;
+        do {
+            current = allocated.get();
+            if (delta > 0 && current + delta > CAPACITY_BUDGET) {
+                return false;
+            }
+        } while (!allocated.compareAndSet(current, current + delta));
+
+        return true;
+    }
+
+    public RowSetSizer(LogChannelInterface log) {
+        this.log = log;
+    }
+
+    /**
+     * @param size initial size of a row set
+     * @return upper limit of the capacity of an adaptive row set
+     */
+    public int getMaxCapacity(int size) {
+        return (int) Math.min(1 << 30, (long) size * Math.max(1, MAX_GROWTH_FACTOR));
+    }
+
+    public void register(ResizableRowSet rowSet) {
+        allocated.addAndGet(rowSet.getCapacity());
+        states.add(new State(rowSet));
+    }
+
+    public synchronized void start(String name) {
+        if (timer != null || states.isEmpty()) {
+            return;
+        }
+
+        lastCheck = System.nanoTime();
+        timer = new Timer("rowset sizing timer: " + name, true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    adjust();
+                } catch (Exception e) {
+                    log.logError("Failed to adjust rowset capacity", e);
+                }
+            }
+        }, INTERVAL_MS, INTERVAL_MS);
+    }
+
+    /**
+     * Stop adapting and give capacity of all row sets back to the budget.
+     */
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+
+        for (State state : states) {
+            allocated.addAndGet(-state.rowSet.getCapacity());
+        }
+        states.clear();
+    }
+
+    synchronized void adjust() {
+        long now = System.nanoTime();
+        long interval = now - lastCheck;
+        lastCheck = now;
+        if (interval <= 0L) {
+            return;
+        }
+
+        for (State state : states) {
+            ResizableRowSet rowSet = state.rowSet;
+
+            long putWait = rowSet.getPutWaitNanos();
+            long getWait = rowSet.getGetWaitNanos();
+            double putRatio = (double) (putWait - state.lastPutWaitNanos) / interval;
+            double getRatio = (double) (getWait - state.lastGetWaitNanos) / interval;
+            state.lastPutWaitNanos = putWait;
+            state.lastGetWaitNanos = getWait;
+
+            if (rowSet.isDone()) {
+                continue;
+            }
+
+            int capacity = rowSet.getCapacity();
+            double fillRatio = (double) rowSet.size() / capacity;
+            int target = capacity;
+
+            if (putRatio > BLOCKED_RATIO && getRatio > BLOCKED_RATIO) {
+                // producer and consumer take turns to wait, a bigger buffer smooths out the bursts
+                target = Math.min(rowSet.getMaxCapacity(), capacity << 1);
+            } else if ((putRatio > BLOCKED_RATIO && fillRatio >= FULL_RATIO)
+                    || (putRatio <= 0D && fillRatio < EMPTY_RATIO)) {
+                // slow consumer holding lots of rows, or a buffer that is barely used
+                target = Math.min(capacity, Math.max(MIN_CAPACITY, capacity >> 1));
+            }
+
+            if (target == capacity || (target > capacity && !reserve(target - capacity))) {
+                continue;
+            }
+
+            rowSet.setCapacity(target);
+            if (target < capacity) {
+                allocated.addAndGet(target - capacity);
+                shrunk.incrementAndGet();
+                log.snap(METRIC_ROWSET_SHRINK, rowSet.getName(), 1L);
+            } else {
+                grown.incrementAndGet();
+                log.snap(METRIC_ROWSET_GROW, rowSet.getName(), 1L);
+            }
+            log.snap(METRIC_ROWSET_CAPACITY, rowSet.getName(), target);
+
+            if (log.isDetailed()) {
+                log.logDetailed(new StringBuilder().append("Changed capacity of rowset [").append(rowSet.getName())
+                        .append("] from ").append(capacity).append(" to ").append(target)
+                        .append("(fill: ").append((int) (fillRatio * 100)).append("%, producer waited ")
+                        .append((int) (putRatio * 100)).append("%, consumer waited ")
+                        .append((int) (getRatio * 100)).append("% of last ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(interval)).append("ms)").toString());
+            }
+        }
+    }
+
+    public long getGrowCount() {
+        return grown.get();
+    }
+
+    public long getShrinkCount() {
+        return shrunk.get();
+    }
+}
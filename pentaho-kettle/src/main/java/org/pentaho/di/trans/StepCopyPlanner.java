@@ -0,0 +1,182 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves number of copies for steps declared with "auto" copies, based on available processors of current node.
+ * Steps not safe to run in parallel keep one copy.
+ * <p>
+ * The resolved number only lives in the execution: steps read it from the step metadata, so the transformation runs on a
+ * copy of the metadata holding the resolved numbers. The declared steps keep "auto", as the same metadata may be saved
+ * or run by other transformations at the same time.
+ *
+ * @author Zhichun Wu
+ */
+public final class StepCopyPlanner {
+    public static final String AUTO_COPIES = "auto";
+
+    // number of copies on this node, defaults to available processors
+    static final String KEY_AUTO_COPIES = "KETTLE_AUTO_COPIES";
+    static final String KEY_AUTO_COPIES_MAX = "KETTLE_AUTO_COPIES_MAX";
+
+    // steps depending on seeing all rows, or the order of rows
+    static final Set<String> EXCLUDED_STEP_IDS = new HashSet<String>(Arrays.asList(System.getProperty(
+            "KETTLE_AUTO_COPIES_EXCLUDED_STEPS",
+            "SortRows,GroupBy,MemoryGroupBy,Unique,UniqueRowsByHashSet,MergeJoin,MergeRows,SortedMerge,Append,"
+                    + "BlockingStep,BlockUntilStepsFinish,AnalyticQuery,Sequence,Denormaliser,Flattener,RowsToResult")
+            .split(",")));
+
+    // steps depending on the order of incoming rows, which gets lost when rows are spread among copies
+    static final Set<String> ORDER_SENSITIVE_STEP_IDS = new HashSet<String>(Arrays.asList(System.getProperty(
+            "KETTLE_AUTO_COPIES_ORDER_SENSITIVE_STEPS",
+            "GroupBy,Unique,MergeJoin,MergeRows,SortedMerge,AnalyticQuery,Denormaliser,Flattener,Sequence,"
+                    + "FieldsChangeSequence,DetectLastRow")
+            .split(",")));
+    // steps putting rows in order again, so the order doesn't matter before them
+    static final Set<String> ORDERING_STEP_IDS = new HashSet<String>(Arrays.asList(System.getProperty(
+            "KETTLE_AUTO_COPIES_ORDERING_STEPS", "SortRows").split(",")));
+
+    static boolean isAutoCopies(StepMeta stepMeta) {
+        return AUTO_COPIES.equalsIgnoreCase(stepMeta.getCopiesString());
+    }
+
+    static int getAutoCopies(VariableSpace space) {
+        int copies = Const.toInt(space.getVariable(KEY_AUTO_COPIES), 0);
+        if (copies <= 0) {
+            copies = Runtime.getRuntime().availableProcessors();
+        }
+
+        int max = Const.toInt(space.getVariable(KEY_AUTO_COPIES_MAX), 0);
+        return Math.max(1, max > 0 ? Math.min(copies, max) : copies);
+    }
+
+    /**
+     * Checks if the step can safely run in multiple copies.
+     *
+     * @return null if it's safe, otherwise the reason why it's not
+     */
+    static String checkParallelSafety(TransMeta transMeta, StepMeta stepMeta) {
+        if (EXCLUDED_STEP_IDS.contains(stepMeta.getStepID())) {
+            return "step type " + stepMeta.getStepID() + " is not parallel-safe";
+        } else if (stepMeta.isPartitioned()) {
+            return "partitioned";
+        } else if (stepMeta.isMapping()) {
+            return "mapping";
+        }
+
+        List<StepMeta> previousSteps = transMeta.findPreviousSteps(stepMeta, false);
+        if (previousSteps.isEmpty()) {
+            // each copy would generate the same rows
+            return "no input";
+        } else if (transMeta.findPreviousSteps(stepMeta, true).size() != previousSteps.size()) {
+            // info rows would be spread among copies
+            return "reads info steps";
+        }
+
+        for (StepMeta previous : previousSteps) {
+            if (!previous.isDistributes()) {
+                return "previous step " + previous.getName() + " copies rows";
+            }
+        }
+
+        return checkDownstreamOrder(transMeta, stepMeta);
+    }
+
+    /**
+     * Copies of a step pass on rows in no particular order. Look for steps after it relying on the order of rows,
+     * unless the rows are sorted again in between.
+     *
+     * @return null if no step depends on the order, otherwise the reason
+     */
+    static String checkDownstreamOrder(TransMeta transMeta, StepMeta stepMeta) {
+        Set<StepMeta> visited = Collections.newSetFromMap(new IdentityHashMap<StepMeta, Boolean>());
+        Deque<StepMeta> queue = new ArrayDeque<StepMeta>(transMeta.findNextSteps(stepMeta));
+        while (!queue.isEmpty()) {
+            StepMeta next = queue.poll();
+            if (!visited.add(next) || ORDERING_STEP_IDS.contains(next.getStepID())) {
+                continue;
+            } else if (ORDER_SENSITIVE_STEP_IDS.contains(next.getStepID())) {
+                return "next step " + next.getName() + " depends on the order of rows";
+            }
+
+            queue.addAll(transMeta.findNextSteps(next));
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve number of copies of all "auto" steps in the transformation, and log the plan.
+     *
+     * @param transMeta the transformation, left untouched
+     * @param space     variables of the running transformation
+     * @param log       log channel
+     * @return a copy of the transformation with resolved number of copies, or the transformation itself when it has no
+     * "auto" steps
+     */
+    public static TransMeta resolve(TransMeta transMeta, VariableSpace space, LogChannelInterface log) {
+        int autoCopies = -1;
+        StringBuilder plan = null;
+        TransMeta resolved = transMeta;
+
+        List<StepMeta> steps = transMeta.getSteps();
+        for (int i = 0; i < steps.size(); i++) {
+            StepMeta stepMeta = steps.get(i);
+            if (!isAutoCopies(stepMeta)) {
+                continue;
+            }
+
+            if (autoCopies < 0) {
+                autoCopies = getAutoCopies(space);
+                plan = new StringBuilder().append("Resolved step copies(auto=").append(autoCopies).append("):");
+                // steps of the copy are in the same order
+                resolved = (TransMeta) transMeta.realClone(false);
+            }
+
+            String reason = checkParallelSafety(transMeta, stepMeta);
+            int copies = reason == null ? autoCopies : 1;
+            resolved.getStep(i).setCopiesString(String.valueOf(copies));
+
+            plan.append(Const.CR).append("  [").append(stepMeta.getName()).append("] x ").append(copies);
+            if (reason != null) {
+                plan.append(" (").append(reason).append(')');
+            }
+        }
+
+        if (plan != null) {
+            log.logBasic(plan.toString());
+        }
+
+        return resolved;
+    }
+
+    private StepCopyPlanner() {
+    }
+}
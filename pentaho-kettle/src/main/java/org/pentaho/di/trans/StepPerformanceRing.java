@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import org.pentaho.di.trans.performance.StepPerformanceSnapShot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Performance snapshots of one step copy kept in primitive ring buffers. Snapshot objects are only created when
+ * someone asks for them.
+ *
+ * @author Zhichun Wu
+ */
+final class StepPerformanceRing {
+    // lines read, written, input, output, updated, rejected and errors
+    static final int COUNTERS = 7;
+
+    private final String transName;
+    private final String stepName;
+    private final int stepCopy;
+    // maximum number of visible snapshots, 0 means unlimited
+    private final int limit;
+
+    private int[] seqNrs;
+    private long[] batchIds;
+    private long[] times;
+    private long[] counters;
+    private long[] bufferSizes;
+
+    // physical index of the oldest entry
+    private int start = 0;
+    private int count = 0;
+    // whether the oldest entry was evicted and only kept to calculate difference for the next one
+    private boolean hasBase = false;
+
+    StepPerformanceRing(String transName, String stepName, int stepCopy, int limit) {
+        this.transName = transName;
+        this.stepName = stepName;
+        this.stepCopy = stepCopy;
+        this.limit = Math.max(0, limit);
+
+        allocate(this.limit > 0 ? this.limit + 1 : 16);
+    }
+
+    private void allocate(int capacity) {
+        seqNrs = seqNrs == null ? new int[capacity] : Arrays.copyOf(seqNrs, capacity);
+        batchIds = batchIds == null ? new long[capacity] : Arrays.copyOf(batchIds, capacity);
+        times = times == null ? new long[capacity] : Arrays.copyOf(times, capacity);
+        counters = counters == null ? new long[capacity * COUNTERS] : Arrays.copyOf(counters, capacity * COUNTERS);
+        bufferSizes = bufferSizes == null ? new long[capacity * 2] : Arrays.copyOf(bufferSizes, capacity * 2);
+    }
+
+    private int physical(int index) {
+        return (start + index) % seqNrs.length;
+    }
+
+    synchronized void add(int seqNr, long batchId, long time, long linesRead, long linesWritten, long linesInput,
+                          long linesOutput, long linesUpdated, long linesRejected, long errors,
+                          long inputBufferSize, long outputBufferSize) {
+        int index;
+        if (count < seqNrs.length) {
+            index = physical(count++);
+        } else if (limit > 0) {
+            // overwrite the oldest one
+            index = start;
+            start = (start + 1) % seqNrs.length;
+            hasBase = true;
+        } else {
+            // unlimited, entries are never wrapped around
+            allocate(seqNrs.length << 1);
+            index = count++;
+        }
+
+        seqNrs[index] = seqNr;
+        batchIds[index] = batchId;
+        times[index] = time;
+
+        int offset = index * COUNTERS;
+        counters[offset] = linesRead;
+        counters[offset + 1] = linesWritten;
+        counters[offset + 2] = linesInput;
+        counters[offset + 3] = linesOutput;
+        counters[offset + 4] = linesUpdated;
+        counters[offset + 5] = linesRejected;
+        counters[offset + 6] = errors;
+
+        bufferSizes[index << 1] = inputBufferSize;
+        bufferSizes[(index << 1) + 1] = outputBufferSize;
+    }
+
+    private StepPerformanceSnapShot create(int index) {
+        int offset = index * COUNTERS;
+        return new StepPerformanceSnapShot(seqNrs[index], batchIds[index], new Date(times[index]), transName,
+                stepName, stepCopy, counters[offset], counters[offset + 1], counters[offset + 2],
+                counters[offset + 3], counters[offset + 4], counters[offset + 5], counters[offset + 6]);
+    }
+
+    synchronized int size() {
+        return hasBase ? count - 1 : count;
+    }
+
+    synchronized int getLastSeqNr() {
+        return count == 0 ? 0 : seqNrs[physical(count - 1)];
+    }
+
+    /**
+     * Materialize snapshots within the given range of sequence numbers.
+     *
+     * @param fromSeqNr minimum sequence number(inclusive)
+     * @param toSeqNr   maximum sequence number(inclusive)
+     * @return snapshots ordered by sequence number
+     */
+    synchronized List<StepPerformanceSnapShot> getSnapShots(int fromSeqNr, int toSeqNr) {
+        List<StepPerformanceSnapShot> list = new ArrayList<StepPerformanceSnapShot>(size());
+
+        StepPerformanceSnapShot previous = null;
+        for (int i = 0; i < count; i++) {
+            int index = physical(i);
+            int seqNr = seqNrs[index];
+            boolean visible = i > 0 || !hasBase;
+            if (!visible || seqNr < fromSeqNr || seqNr > toSeqNr) {
+                // still needed to calculate difference of the next one
+                previous = null;
+                if (i + 1 < count) {
+                    int next = seqNrs[physical(i + 1)];
+                    if (next >= fromSeqNr && next <= toSeqNr) {
+                        previous = create(index);
+                    }
+                }
+                continue;
+            }
+
+            StepPerformanceSnapShot snapShot = create(index);
+            snapShot.diff(previous, bufferSizes[index << 1], bufferSizes[(index << 1) + 1]);
+            list.add(snapShot);
+            previous = snapShot;
+        }
+
+        return list;
+    }
+
+    List<StepPerformanceSnapShot> getSnapShots() {
+        return getSnapShots(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,100 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared threads for step initialization and run loops, used when pooled step execution is enabled. Threads are
+ * reused across transformations instead of being created and destroyed for each step copy.
+ * <p>
+ * The pool is not bounded, because steps block on row sets and a step waiting for a free thread could stall the
+ * whole transformation.
+ *
+ * @author Zhichun Wu
+ */
+public final class StepThreadPool {
+    static final int KEEP_ALIVE_SECONDS
+            = Integer.parseInt(System.getProperty("KETTLE_STEP_THREAD_POOL_KEEP_ALIVE_SECONDS", "60"));
+    static final int CORE_POOL_SIZE
+            = Integer.parseInt(System.getProperty("KETTLE_STEP_THREAD_POOL_CORE_SIZE", "0"));
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            CORE_POOL_SIZE, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "kettle-step-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static Runnable rename(final String name, final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                Thread current = Thread.currentThread();
+                String poolName = current.getName();
+                current.setName(name);
+                try {
+                    task.run();
+                } finally {
+                    // steps may change priority of the thread
+                    current.setPriority(Thread.NORM_PRIORITY);
+                    current.setName(poolName);
+                }
+            }
+        };
+    }
+
+    /**
+     * Run the given task in a pooled thread.
+     *
+     * @param name thread name while running the task
+     * @param task the task
+     * @return future of the task
+     */
+    public static Future<?> submit(String name, Runnable task) {
+        return executor.submit(rename(name, task));
+    }
+
+    public static int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public static int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public static int getLargestPoolSize() {
+        return executor.getLargestPoolSize();
+    }
+
+    public static long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    private StepThreadPool() {
+    }
+}
@@ -33,10 +33,13 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.repository.RepositoryDirectoryInterface;
+import org.pentaho.di.repository.RepositoryObjectType;
+import org.pentaho.di.resource.MetaCache;
 import org.pentaho.di.resource.ResourceDefinitionHelper;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.metastore.api.IMetaStore;
 
+
 /**
  * This class is supposed to use in steps where the mapping to sub transformations takes place
  *
@@ -58,15 +61,46 @@ public abstract class StepWithMappingMeta extends BaseStepMeta {
         return loadMappingMeta(mappingMeta, rep, metaStore, space, true);
     }
 
-    public static synchronized TransMeta loadMappingMeta(StepWithMappingMeta executorMeta, Repository rep,
-                                                         IMetaStore metaStore, VariableSpace space, boolean share) throws KettleException {
-        TransMeta mappingTransMeta = null;
-
-        CurrentDirectoryResolver r = new CurrentDirectoryResolver();
-        VariableSpace tmpSpace =
+    public static TransMeta loadMappingMeta(final StepWithMappingMeta executorMeta, final Repository rep,
+                                            final IMetaStore metaStore, VariableSpace space, boolean share) throws KettleException {
+        final CurrentDirectoryResolver r = new CurrentDirectoryResolver();
+        final VariableSpace tmpSpace =
                 r.resolveCurrentDirectory(executorMeta.getSpecificationMethod(), space, rep, executorMeta.getParentStepMeta(),
                         executorMeta.getFileName());
 
+        String cacheKey = MetaCache.buildCacheKey(RepositoryObjectType.TRANSFORMATION,
+                executorMeta.getSpecificationMethod(), rep, tmpSpace,
+                tmpSpace.environmentSubstitute(executorMeta.getFileName()),
+                tmpSpace.environmentSubstitute(executorMeta.getDirectoryPath()),
+                tmpSpace.environmentSubstitute(executorMeta.getTransName()),
+                executorMeta.getTransObjectId());
+        TransMeta mappingTransMeta = MetaCache.get(cacheKey, rep, tmpSpace, tmpSpace,
+                new MetaCache.Loader<TransMeta>() {
+                    @Override
+                    public TransMeta load(VariableSpace parentSpace) throws Exception {
+                        return loadMappingMeta(executorMeta, rep, metaStore, tmpSpace, parentSpace, r);
+                    }
+                });
+
+        // Pass some important information to the mapping transformation metadata:
+        if (share) {
+            mappingTransMeta.copyVariablesFrom(space);
+        }
+        mappingTransMeta.setRepository(rep);
+        mappingTransMeta.setMetaStore(metaStore);
+        mappingTransMeta.setFilename(mappingTransMeta.getFilename());
+
+        return mappingTransMeta;
+    }
+
+    /**
+     * Names are resolved by tmpSpace, while the loaded transformation gets parentSpace as parent variable space.
+     */
+    private static TransMeta loadMappingMeta(StepWithMappingMeta executorMeta, Repository rep, IMetaStore metaStore,
+                                             VariableSpace tmpSpace, VariableSpace parentSpace,
+                                             CurrentDirectoryResolver r) throws KettleException {
+        TransMeta mappingTransMeta = null;
+
         switch (executorMeta.getSpecificationMethod()) {
             case FILENAME:
                 String realFilename = tmpSpace.environmentSubstitute(executorMeta.getFileName());
@@ -100,7 +134,7 @@ public abstract class StepWithMappingMeta extends BaseStepMeta {
                         }
                     }
                     if (mappingTransMeta == null) {
-                        mappingTransMeta = new TransMeta(realFilename, metaStore, rep, true, tmpSpace, null);
+                        mappingTransMeta = new TransMeta(realFilename, metaStore, rep, true, parentSpace, null);
                         LogChannel.GENERAL.logDetailed("Loading transformation from repository",
                                 "Transformation was loaded from XML file [" + realFilename + "]");
                     }
@@ -135,13 +169,13 @@ public abstract class StepWithMappingMeta extends BaseStepMeta {
                     // rep is null, let's try loading by filename
                     try {
                         mappingTransMeta =
-                                new TransMeta(realDirectory + "/" + realTransname, metaStore, rep, true, tmpSpace, null);
+                                new TransMeta(realDirectory + "/" + realTransname, metaStore, rep, true, parentSpace, null);
                     } catch (KettleException ke) {
                         try {
                             // add .ktr extension and try again
                             mappingTransMeta =
                                     new TransMeta(realDirectory + "/" + realTransname + "." + Const.STRING_TRANS_DEFAULT_EXT, metaStore,
-                                            rep, true, tmpSpace, null);
+                                            rep, true, parentSpace, null);
                         } catch (KettleException ke2) {
                             throw new KettleException(BaseMessages.getString(PKG, "StepWithMappingMeta.Exception.UnableToLoadTrans",
                                     realTransname) + realDirectory);
@@ -158,14 +192,6 @@ public abstract class StepWithMappingMeta extends BaseStepMeta {
                 break;
         }
 
-        // Pass some important information to the mapping transformation metadata:
-        if (share) {
-            mappingTransMeta.copyVariablesFrom(space);
-        }
-        mappingTransMeta.setRepository(rep);
-        mappingTransMeta.setMetaStore(metaStore);
-        mappingTransMeta.setFilename(mappingTransMeta.getFilename());
-
         return mappingTransMeta;
     }
 
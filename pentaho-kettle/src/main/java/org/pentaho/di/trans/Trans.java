@@ -82,6 +82,7 @@ import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.pentaho.di.trans.Trans.BitMaskStatus.*;
@@ -356,15 +357,50 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     private boolean readyToStart;
 
     /**
-     * Step performance snapshots.
+     * Step performance snapshots, only used when set from outside.
      */
     private Map<String, List<StepPerformanceSnapShot>> stepPerformanceSnapShots;
 
+    /**
+     * Step performance snapshots captured by this transformation, kept in ring buffers per step copy.
+     */
+    private Map<String, StepPerformanceRing> stepPerformanceRings;
+
     /**
      * The step performance snapshot timer.
      */
     private Timer stepPerformanceSnapShotTimer;
 
+    /**
+     * Adapts capacity of rowsets at runtime, null if disabled.
+     */
+    private RowSetSizer rowSetSizer;
+
+    /**
+     * Name index of steps and rowsets, rebuilt when the lists change.
+     */
+    private volatile TransRuntimeIndex runtimeIndex;
+
+    /**
+     * Transformation as declared, when the steps run on a copy with resolved number of "auto" copies. Null otherwise.
+     */
+    private TransMeta declaredTransMeta;
+
+    /**
+     * Whether prepared steps and rowsets are kept for the next execution of this instance.
+     */
+    private boolean reusable;
+
+    /**
+     * Listeners attached to steps by the last call of startThreads, removed before the steps are started again.
+     */
+    private Map<StepInterface, List<StepListener>> runStepListeners;
+
+    /**
+     * Listener attached to the transformation by the last call of startThreads.
+     */
+    private TransListener runTransListener;
+
     /**
      * A list of listeners attached to the transformation.
      */
@@ -410,6 +446,11 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      */
     private AtomicInteger stepPerformanceSnapshotSeqNr;
 
+    /**
+     * Whether step fields of the transformation meta are shared by step copies of the current run.
+     */
+    private final AtomicBoolean stepFieldsMemo = new AtomicBoolean(false);
+
     /**
      * The last written step performance sequence number.
      */
@@ -677,6 +718,27 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * @throws KettleException in case the transformation could not be prepared (initialized)
      */
     public void prepareExecution(String[] arguments) throws KettleException {
+        boolean prepared = false;
+        try {
+            prepareSteps(arguments);
+            prepared = true;
+        } finally {
+            // row sets registered for sizing would otherwise hold their share of the budget forever
+            if (!prepared) {
+                endStepFieldsMemo();
+                stopRowSetSizer();
+            }
+        }
+    }
+
+    private void stopRowSetSizer() {
+        RowSetSizer sizer = rowSetSizer;
+        if (sizer != null) {
+            sizer.stop();
+        }
+    }
+
+    private void prepareSteps(String[] arguments) throws KettleException {
         setPreparing(true);
         startDate = null;
         setRunning(false);
@@ -749,10 +811,267 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             }
         }
 
+        // Run the steps prepared last time again if possible, the rest of the preparation(error handling, batch id,
+        // logging and step initialization) is the same for both
+        //
+        if (!reusable || !resetPreparedSteps()) {
+            allocateSteps();
+        }
+
+        // Now we need to verify if certain rowsets are not meant to be for error
+        // handling...
+        // Loop over the steps and for every step verify the output rowsets
+        // If a rowset is going to a target step in the steps error handling
+        // metadata, set it to the errorRowSet.
+        // The input rowsets are already in place, so the next step just accepts the
+        // rows.
+        // Metadata wise we need to do the same trick in TransMeta
+        //
+        for (int s = 0; s < steps.size(); s++) {
+            StepMetaDataCombi combi = steps.get(s);
+            if (combi.stepMeta.isDoingErrorHandling()) {
+                combi.step.identifyErrorOutput();
+
+            }
+        }
+
+        // Now (optionally) write start log record!
+        // Make sure we synchronize appropriately to avoid duplicate batch IDs.
+        //
+        Object syncObject = this;
+        if (parentJob != null) {
+            syncObject = parentJob; // parallel execution in a job
+        }
+        if (parentTrans != null) {
+            syncObject = parentTrans; // multiple sub-transformations
+        }
+        synchronized (syncObject) {
+            calculateBatchIdAndDateRange();
+            beginProcessing();
+        }
+
+        // Set the partition-to-rowset mapping
+        //
+        for (int i = 0; i < steps.size(); i++) {
+            StepMetaDataCombi sid = steps.get(i);
+
+            StepMeta stepMeta = sid.stepMeta;
+            StepInterface baseStep = sid.step;
+
+            baseStep.setPartitioned(stepMeta.isPartitioned());
+
+            // Now let's take a look at the source and target relation
+            //
+            // If this source step is not partitioned, and the target step is: it
+            // means we need to re-partition the incoming data.
+            // If both steps are partitioned on the same method and schema, we don't
+            // need to re-partition
+            // If both steps are partitioned on a different method or schema, we need
+            // to re-partition as well.
+            // If both steps are not partitioned, we don't need to re-partition
+            //
+            boolean isThisPartitioned = stepMeta.isPartitioned();
+            PartitionSchema thisPartitionSchema = null;
+            if (isThisPartitioned) {
+                thisPartitionSchema = stepMeta.getStepPartitioningMeta().getPartitionSchema();
+            }
+
+            boolean isNextPartitioned = false;
+            StepPartitioningMeta nextStepPartitioningMeta = null;
+            PartitionSchema nextPartitionSchema = null;
+
+            List<StepMeta> nextSteps = transMeta.findNextSteps(stepMeta);
+            int nrNext = nextSteps.size();
+            for (int p = 0; p < nrNext; p++) {
+                StepMeta nextStep = nextSteps.get(p);
+                if (nextStep.isPartitioned()) {
+                    isNextPartitioned = true;
+                    nextStepPartitioningMeta = nextStep.getStepPartitioningMeta();
+                    nextPartitionSchema = nextStepPartitioningMeta.getPartitionSchema();
+                }
+            }
+
+            baseStep.setRepartitioning(StepPartitioningMeta.PARTITIONING_METHOD_NONE);
+
+            // If the next step is partitioned differently, set re-partitioning, when
+            // running locally.
+            //
+            if ((!isThisPartitioned && isNextPartitioned) || (isThisPartitioned && isNextPartitioned
+                    && !thisPartitionSchema.equals(nextPartitionSchema))) {
+                baseStep.setRepartitioning(nextStepPartitioningMeta.getMethodType());
+            }
+
+            // For partitioning to a set of remove steps (repartitioning from a master
+            // to a set or remote output steps)
+            //
+            StepPartitioningMeta targetStepPartitioningMeta = baseStep.getStepMeta().getTargetStepPartitioningMeta();
+            if (targetStepPartitioningMeta != null) {
+                baseStep.setRepartitioning(targetStepPartitioningMeta.getMethodType());
+            }
+        }
+
+        setPreparing(false);
+        setInitializing(true);
+
+        // Do a topology sort... Over 150 step (copies) things might be slowing down too much.
+        //
+        if (isMonitored() && steps.size() < 150) {
+            doTopologySortOfSteps();
+        }
+
+        if (log.isDetailed()) {
+            log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.InitialisingSteps", String.valueOf(steps.size())));
+        }
+
+        final boolean pooled = transMeta.isPooledStepExecution();
+        beginStepFieldsMemo();
+        StepInitThread[] initThreads = new StepInitThread[steps.size()];
+        Thread[] threads = new Thread[steps.size()];
+        Future<?>[] futures = pooled ? new Future<?>[steps.size()] : null;
+
+        // Initialize all the threads...
+        //
+        for (int i = 0; i < steps.size(); i++) {
+            final StepMetaDataCombi sid = steps.get(i);
+
+            // Do the init code in the background!
+            // Init all steps at once, but ALL steps need to finish before we can
+            // continue properly!
+            //
+            initThreads[i] = new StepInitThread(sid, log);
+
+            if (pooled) {
+                ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepBeforeInitialize.id, initThreads[i]);
+
+                futures[i] = StepThreadPool.submit("init of " + sid.stepname + "." + sid.copy, initThreads[i]);
+                continue;
+            }
+
+            // Put it in a separate thread!
+            //
+            threads[i] = new Thread(initThreads[i]);
+            threads[i].setName("init of " + sid.stepname + "." + sid.copy + " (" + threads[i].getName() + ")");
+
+            ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepBeforeInitialize.id, initThreads[i]);
+
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                if (pooled) {
+                    futures[i].get();
+                } else {
+                    threads[i].join();
+                }
+                ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepAfterInitialize.id, initThreads[i]);
+            } catch (Exception ex) {
+                log.logError("Error with init thread: " + ex.getMessage(), ex.getMessage());
+                log.logError(Const.getStackTracker(ex));
+            }
+        }
+        endStepFieldsMemo();
+
+        setInitializing(false);
+        boolean ok = true;
+
+        // All step are initialized now: see if there was one that didn't do it
+        // correctly!
+        //
+        for (int i = 0; i < initThreads.length; i++) {
+            StepMetaDataCombi combi = initThreads[i].getCombi();
+            if (!initThreads[i].isOk()) {
+                log.logError(BaseMessages.getString(PKG, "Trans.Log.StepFailedToInit", combi.stepname + "." + combi.copy));
+                combi.data.setStatus(StepExecutionStatus.STATUS_STOPPED);
+                ok = false;
+            } else {
+                combi.data.setStatus(StepExecutionStatus.STATUS_IDLE);
+                if (log.isDetailed()) {
+                    log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.StepInitialized", combi.stepname + "."
+                            + combi.copy));
+                }
+            }
+        }
+
+        if (!ok) {
+            // steps failed to init are not run again
+            reusable = false;
+
+            // Halt the other threads as well, signal end-of-the line to the outside
+            // world...
+            // Also explicitly call dispose() to clean up resources opened during
+            // init();
+            //
+            for (int i = 0; i < initThreads.length; i++) {
+                StepMetaDataCombi combi = initThreads[i].getCombi();
+
+                // Dispose will overwrite the status, but we set it back right after
+                // this.
+                combi.step.dispose(combi.meta, combi.data);
+
+                if (initThreads[i].isOk()) {
+                    combi.data.setStatus(StepExecutionStatus.STATUS_HALTED);
+                } else {
+                    combi.data.setStatus(StepExecutionStatus.STATUS_STOPPED);
+                }
+            }
+
+            // Just for safety, fire the trans finished listeners...
+            try {
+                fireTransFinishedListeners();
+            } catch (KettleException e) {
+                // listeners produces errors
+                log.logError(BaseMessages.getString(PKG, "Trans.FinishListeners.Exception"));
+                // we will not pass this exception up to prepareExecuton() entry point.
+            } finally {
+                // Flag the transformation as finished even if exception was thrown
+                setFinished(true);
+            }
+
+            // Pass along the log during preview. Otherwise it becomes hard to see
+            // what went wrong.
+            //
+            if (isPreview()) {
+                String logText = KettleLogStore.getAppender().getBuffer(getLogChannelId(), true).toString();
+                throw new KettleException(BaseMessages.getString(PKG, "Trans.Log.FailToInitializeAtLeastOneStep") + Const.CR
+                        + logText);
+            } else {
+                throw new KettleException(BaseMessages.getString(PKG, "Trans.Log.FailToInitializeAtLeastOneStep")
+                        + Const.CR);
+            }
+        }
+
+        log.snap(Metrics.METRIC_TRANSFORMATION_INIT_STOP);
+
+        runtimeIndex = new TransRuntimeIndex(steps, rowsets);
+
+        KettleEnvironment.setExecutionInformation(this, repository);
+
+        setReadyToStart(true);
+    }
+
+    /**
+     * Allocate row sets and steps from scratch.
+     *
+     * @throws KettleException when failed to create a step
+     */
+    private void allocateSteps() throws KettleException {
         // Keep track of all the row sets and allocated steps
         //
         steps = new ArrayList<StepMetaDataCombi>();
         rowsets = new ArrayList<RowSet>();
+        stopRowSetSizer();
+        rowSetSizer = RowSetSizer.ADAPTIVE_ROWSET_ENABLED ? new RowSetSizer(log) : null;
+
+        // Resolve number of copies of "auto" steps before allocating row sets. The steps run on a copy holding the
+        // resolved numbers, as the declared transformation may be saved or run by others meanwhile
+        //
+        if (declaredTransMeta != null) {
+            transMeta = declaredTransMeta;
+        }
+        TransMeta resolvedTransMeta = StepCopyPlanner.resolve(transMeta, this, log);
+        declaredTransMeta = resolvedTransMeta == transMeta ? null : transMeta;
+        transMeta = resolvedTransMeta;
 
         List<StepMeta> hopsteps = transMeta.getTransHopSteps(false);
 
@@ -844,8 +1163,21 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                                 //
                                 Boolean batchingRowSet =
                                         ValueMetaString.convertStringToBoolean(System.getProperty(Const.KETTLE_BATCHING_ROWSET));
-                                if (batchingRowSet != null && batchingRowSet.booleanValue()) {
+                                if (ColumnarRowSet.COLUMNAR_ROWSET_ENABLED) {
+                                    rowSet = new ColumnarRowSet(transMeta.getSizeRowset());
+                                } else if (batchingRowSet != null && batchingRowSet.booleanValue()) {
                                     rowSet = new BlockingBatchingRowSet(transMeta.getSizeRowset());
+                                } else if (!SpscRowSet.SPSC_ROWSET_DISABLED
+                                        && (dispatchType == TYPE_DISP_1_1 || dispatchType == TYPE_DISP_N_N)) {
+                                    // one step copy on each side, so exactly one producer and one consumer
+                                    if (rowSetSizer != null) {
+                                        SpscRowSet spscRowSet = new SpscRowSet(transMeta.getSizeRowset(),
+                                                rowSetSizer.getMaxCapacity(transMeta.getSizeRowset()));
+                                        rowSetSizer.register(spscRowSet);
+                                        rowSet = spscRowSet;
+                                    } else {
+                                        rowSet = new SpscRowSet(transMeta.getSizeRowset());
+                                    }
                                 } else {
                                     rowSet = new BlockingRowSet(transMeta.getSizeRowset());
                                 }
@@ -943,266 +1275,55 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                     combi.stepMeta = stepMeta;
                     combi.meta = stepMeta.getStepMetaInterface();
 
-                    // Allocate the step data
-                    StepDataInterface data = combi.meta.getStepData();
-                    combi.data = data;
-
-                    // Allocate the step
-                    StepInterface step = combi.meta.getStep(stepMeta, data, c, transMeta, this);
-
-                    // Copy the variables of the transformation to the step...
-                    // don't share. Each copy of the step has its own variables.
-                    //
-                    step.initializeVariablesFrom(this);
-                    step.setUsingThreadPriorityManagment(transMeta.isUsingThreadPriorityManagment());
-
-                    // Pass the connected repository & metaStore to the steps runtime
-                    //
-                    step.setRepository(repository);
-                    step.setMetaStore(metaStore);
-
-                    // If the step is partitioned, set the partitioning ID and some other
-                    // things as well...
-                    if (stepMeta.isPartitioned()) {
-                        List<String> partitionIDs = stepMeta.getStepPartitioningMeta().getPartitionSchema().getPartitionIDs();
-                        if (partitionIDs != null && partitionIDs.size() > 0) {
-                            step.setPartitionID(partitionIDs.get(c)); // Pass the partition ID
-                            // to the step
-                        }
-                    }
-
-                    // Save the step too
-                    combi.step = step;
-
-                    // Pass logging level and metrics gathering down to the step level.
-                    // /
-                    if (combi.step instanceof LoggingObjectInterface) {
-                        LogChannelInterface logChannel = combi.step.getLogChannel();
-                        logChannel.setLogLevel(logLevel);
-                        logChannel.setGatheringMetrics(log.isGatheringMetrics());
-                    }
-
-                    // Add to the bunch...
-                    steps.add(combi);
-
-                    if (log.isDetailed()) {
-                        log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.TransformationHasAllocatedANewStep", stepMeta
-                                .getName(), String.valueOf(c)));
-                    }
-                }
-            }
-        }
-
-        // Now we need to verify if certain rowsets are not meant to be for error
-        // handling...
-        // Loop over the steps and for every step verify the output rowsets
-        // If a rowset is going to a target step in the steps error handling
-        // metadata, set it to the errorRowSet.
-        // The input rowsets are already in place, so the next step just accepts the
-        // rows.
-        // Metadata wise we need to do the same trick in TransMeta
-        //
-        for (int s = 0; s < steps.size(); s++) {
-            StepMetaDataCombi combi = steps.get(s);
-            if (combi.stepMeta.isDoingErrorHandling()) {
-                combi.step.identifyErrorOutput();
-
-            }
-        }
-
-        // Now (optionally) write start log record!
-        // Make sure we synchronize appropriately to avoid duplicate batch IDs.
-        //
-        Object syncObject = this;
-        if (parentJob != null) {
-            syncObject = parentJob; // parallel execution in a job
-        }
-        if (parentTrans != null) {
-            syncObject = parentTrans; // multiple sub-transformations
-        }
-        synchronized (syncObject) {
-            calculateBatchIdAndDateRange();
-            beginProcessing();
-        }
-
-        // Set the partition-to-rowset mapping
-        //
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-
-            StepMeta stepMeta = sid.stepMeta;
-            StepInterface baseStep = sid.step;
-
-            baseStep.setPartitioned(stepMeta.isPartitioned());
-
-            // Now let's take a look at the source and target relation
-            //
-            // If this source step is not partitioned, and the target step is: it
-            // means we need to re-partition the incoming data.
-            // If both steps are partitioned on the same method and schema, we don't
-            // need to re-partition
-            // If both steps are partitioned on a different method or schema, we need
-            // to re-partition as well.
-            // If both steps are not partitioned, we don't need to re-partition
-            //
-            boolean isThisPartitioned = stepMeta.isPartitioned();
-            PartitionSchema thisPartitionSchema = null;
-            if (isThisPartitioned) {
-                thisPartitionSchema = stepMeta.getStepPartitioningMeta().getPartitionSchema();
-            }
-
-            boolean isNextPartitioned = false;
-            StepPartitioningMeta nextStepPartitioningMeta = null;
-            PartitionSchema nextPartitionSchema = null;
-
-            List<StepMeta> nextSteps = transMeta.findNextSteps(stepMeta);
-            int nrNext = nextSteps.size();
-            for (int p = 0; p < nrNext; p++) {
-                StepMeta nextStep = nextSteps.get(p);
-                if (nextStep.isPartitioned()) {
-                    isNextPartitioned = true;
-                    nextStepPartitioningMeta = nextStep.getStepPartitioningMeta();
-                    nextPartitionSchema = nextStepPartitioningMeta.getPartitionSchema();
-                }
-            }
-
-            baseStep.setRepartitioning(StepPartitioningMeta.PARTITIONING_METHOD_NONE);
-
-            // If the next step is partitioned differently, set re-partitioning, when
-            // running locally.
-            //
-            if ((!isThisPartitioned && isNextPartitioned) || (isThisPartitioned && isNextPartitioned
-                    && !thisPartitionSchema.equals(nextPartitionSchema))) {
-                baseStep.setRepartitioning(nextStepPartitioningMeta.getMethodType());
-            }
-
-            // For partitioning to a set of remove steps (repartitioning from a master
-            // to a set or remote output steps)
-            //
-            StepPartitioningMeta targetStepPartitioningMeta = baseStep.getStepMeta().getTargetStepPartitioningMeta();
-            if (targetStepPartitioningMeta != null) {
-                baseStep.setRepartitioning(targetStepPartitioningMeta.getMethodType());
-            }
-        }
-
-        setPreparing(false);
-        setInitializing(true);
-
-        // Do a topology sort... Over 150 step (copies) things might be slowing down too much.
-        //
-        if (isMonitored() && steps.size() < 150) {
-            doTopologySortOfSteps();
-        }
-
-        if (log.isDetailed()) {
-            log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.InitialisingSteps", String.valueOf(steps.size())));
-        }
-
-        StepInitThread[] initThreads = new StepInitThread[steps.size()];
-        Thread[] threads = new Thread[steps.size()];
-
-        // Initialize all the threads...
-        //
-        for (int i = 0; i < steps.size(); i++) {
-            final StepMetaDataCombi sid = steps.get(i);
-
-            // Do the init code in the background!
-            // Init all steps at once, but ALL steps need to finish before we can
-            // continue properly!
-            //
-            initThreads[i] = new StepInitThread(sid, log);
-
-            // Put it in a separate thread!
-            //
-            threads[i] = new Thread(initThreads[i]);
-            threads[i].setName("init of " + sid.stepname + "." + sid.copy + " (" + threads[i].getName() + ")");
-
-            ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepBeforeInitialize.id, initThreads[i]);
-
-            threads[i].start();
-        }
-
-        for (int i = 0; i < threads.length; i++) {
-            try {
-                threads[i].join();
-                ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepAfterInitialize.id, initThreads[i]);
-            } catch (Exception ex) {
-                log.logError("Error with init thread: " + ex.getMessage(), ex.getMessage());
-                log.logError(Const.getStackTracker(ex));
-            }
-        }
-
-        setInitializing(false);
-        boolean ok = true;
-
-        // All step are initialized now: see if there was one that didn't do it
-        // correctly!
-        //
-        for (int i = 0; i < initThreads.length; i++) {
-            StepMetaDataCombi combi = initThreads[i].getCombi();
-            if (!initThreads[i].isOk()) {
-                log.logError(BaseMessages.getString(PKG, "Trans.Log.StepFailedToInit", combi.stepname + "." + combi.copy));
-                combi.data.setStatus(StepExecutionStatus.STATUS_STOPPED);
-                ok = false;
-            } else {
-                combi.data.setStatus(StepExecutionStatus.STATUS_IDLE);
-                if (log.isDetailed()) {
-                    log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.StepInitialized", combi.stepname + "."
-                            + combi.copy));
-                }
-            }
-        }
-
-        if (!ok) {
-            // Halt the other threads as well, signal end-of-the line to the outside
-            // world...
-            // Also explicitly call dispose() to clean up resources opened during
-            // init();
-            //
-            for (int i = 0; i < initThreads.length; i++) {
-                StepMetaDataCombi combi = initThreads[i].getCombi();
-
-                // Dispose will overwrite the status, but we set it back right after
-                // this.
-                combi.step.dispose(combi.meta, combi.data);
+                    // Allocate the step data
+                    StepDataInterface data = combi.meta.getStepData();
+                    combi.data = data;
 
-                if (initThreads[i].isOk()) {
-                    combi.data.setStatus(StepExecutionStatus.STATUS_HALTED);
-                } else {
-                    combi.data.setStatus(StepExecutionStatus.STATUS_STOPPED);
-                }
-            }
+                    // Allocate the step
+                    StepInterface step = combi.meta.getStep(stepMeta, data, c, transMeta, this);
 
-            // Just for safety, fire the trans finished listeners...
-            try {
-                fireTransFinishedListeners();
-            } catch (KettleException e) {
-                // listeners produces errors
-                log.logError(BaseMessages.getString(PKG, "Trans.FinishListeners.Exception"));
-                // we will not pass this exception up to prepareExecuton() entry point.
-            } finally {
-                // Flag the transformation as finished even if exception was thrown
-                setFinished(true);
-            }
+                    // Copy the variables of the transformation to the step...
+                    // don't share. Each copy of the step has its own variables.
+                    //
+                    step.initializeVariablesFrom(this);
+                    step.setUsingThreadPriorityManagment(transMeta.isUsingThreadPriorityManagment());
 
-            // Pass along the log during preview. Otherwise it becomes hard to see
-            // what went wrong.
-            //
-            if (isPreview()) {
-                String logText = KettleLogStore.getAppender().getBuffer(getLogChannelId(), true).toString();
-                throw new KettleException(BaseMessages.getString(PKG, "Trans.Log.FailToInitializeAtLeastOneStep") + Const.CR
-                        + logText);
-            } else {
-                throw new KettleException(BaseMessages.getString(PKG, "Trans.Log.FailToInitializeAtLeastOneStep")
-                        + Const.CR);
-            }
-        }
+                    // Pass the connected repository & metaStore to the steps runtime
+                    //
+                    step.setRepository(repository);
+                    step.setMetaStore(metaStore);
 
-        log.snap(Metrics.METRIC_TRANSFORMATION_INIT_STOP);
+                    // If the step is partitioned, set the partitioning ID and some other
+                    // things as well...
+                    if (stepMeta.isPartitioned()) {
+                        List<String> partitionIDs = stepMeta.getStepPartitioningMeta().getPartitionSchema().getPartitionIDs();
+                        if (partitionIDs != null && partitionIDs.size() > 0) {
+                            step.setPartitionID(partitionIDs.get(c)); // Pass the partition ID
+                            // to the step
+                        }
+                    }
 
-        KettleEnvironment.setExecutionInformation(this, repository);
+                    // Save the step too
+                    combi.step = step;
 
-        setReadyToStart(true);
+                    // Pass logging level and metrics gathering down to the step level.
+                    // /
+                    if (combi.step instanceof LoggingObjectInterface) {
+                        LogChannelInterface logChannel = combi.step.getLogChannel();
+                        logChannel.setLogLevel(logLevel);
+                        logChannel.setGatheringMetrics(log.isGatheringMetrics());
+                    }
+
+                    // Add to the bunch...
+                    steps.add(combi);
+
+                    if (log.isDetailed()) {
+                        log.logDetailed(BaseMessages.getString(PKG, "Trans.Log.TransformationHasAllocatedANewStep", stepMeta
+                                .getName(), String.valueOf(c)));
+                    }
+                }
+            }
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -1235,6 +1356,9 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
         fireTransStartedListeners();
 
+        removeRunListeners();
+        runStepListeners = new IdentityHashMap<StepInterface, List<StepListener>>();
+
         for (int i = 0; i < steps.size(); i++) {
             final StepMetaDataCombi sid = steps.get(i);
             sid.step.markStart();
@@ -1300,11 +1424,13 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             } else {
                 sid.step.addStepListener(stepListener);
             }
+            trackRunListener(sid.step, stepListener);
         }
 
         if (transMeta.isCapturingStepPerformanceSnapShots()) {
             stepPerformanceSnapshotSeqNr = new AtomicInteger(0);
-            stepPerformanceSnapShots = new ConcurrentHashMap<String, List<StepPerformanceSnapShot>>();
+            stepPerformanceSnapShots = null;
+            stepPerformanceRings = new ConcurrentHashMap<String, StepPerformanceRing>();
 
             // Calculate the maximum number of snapshots to be kept in memory
             //
@@ -1328,6 +1454,10 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             stepPerformanceSnapShotTimer.schedule(timerTask, 100, transMeta.getStepPerformanceCapturingDelay());
         }
 
+        if (rowSetSizer != null) {
+            rowSetSizer.start(getName());
+        }
+
         // Now start a thread to monitor the running transformation...
         //
         setFinished(false);
@@ -1354,6 +1484,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                 if (transMeta.isCapturingStepPerformanceSnapShots() && stepPerformanceSnapShotTimer != null) {
                     stepPerformanceSnapShotTimer.cancel();
                 }
+                stopRowSetSizer();
 
                 setFinished(true);
                 setRunning(false); // no longer running
@@ -1385,23 +1516,33 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         // so on)
         //
         transListeners.add(0, transListener);
+        runTransListener = transListener;
 
         setRunning(true);
 
         switch (transMeta.getTransformationType()) {
             case Normal:
 
+                final boolean pooled = transMeta.isPooledStepExecution();
+                if (pooled && log.isDetailed()) {
+                    log.logDetailed(new StringBuilder().append("Running ").append(steps.size())
+                            .append(" step copies in pooled threads(pool size: ").append(StepThreadPool.getPoolSize())
+                            .append(", active: ").append(StepThreadPool.getActiveCount()).append(')').toString());
+                }
+
                 // Now start all the threads...
                 //
                 for (int i = 0; i < steps.size(); i++) {
                     final StepMetaDataCombi combi = steps.get(i);
                     RunThread runThread = new RunThread(combi);
-                    Thread thread = new Thread(runThread);
-                    thread.setName(getName() + " - " + combi.stepname);
+                    Thread thread = pooled ? null : new Thread(runThread);
+                    if (thread != null) {
+                        thread.setName(getName() + " - " + combi.stepname);
+                    }
                     ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.StepBeforeStart.id, combi);
                     // Call an extension point at the end of the step
                     //
-                    combi.step.addStepListener(new StepAdapter() {
+                    StepListener finishedListener = new StepAdapter() {
 
                         @Override
                         public void stepFinished(Trans trans, StepMeta stepMeta, StepInterface step) {
@@ -1412,9 +1553,15 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                             }
                         }
 
-                    });
+                    };
+                    combi.step.addStepListener(finishedListener);
+                    trackRunListener(combi.step, finishedListener);
 
-                    thread.start();
+                    if (pooled) {
+                        StepThreadPool.submit(getName() + " - " + combi.stepname, runThread);
+                    } else {
+                        thread.start();
+                    }
                 }
                 break;
 
@@ -1448,6 +1595,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                                     }
                                 }
                             });
+                            runtimeIndex = null;
 
                             boolean[] stepDone = new boolean[steps.size()];
                             int nrDone = 0;
@@ -1554,12 +1702,13 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      */
     protected void addStepPerformanceSnapShot() {
 
-        if (stepPerformanceSnapShots == null) {
+        Map<String, StepPerformanceRing> rings = stepPerformanceRings;
+        if (rings == null) {
             return; // Race condition somewhere?
         }
 
-        boolean pausedAndNotEmpty = isPaused() && !stepPerformanceSnapShots.isEmpty();
-        boolean stoppedAndNotEmpty = isStopped() && !stepPerformanceSnapShots.isEmpty();
+        boolean pausedAndNotEmpty = isPaused() && !rings.isEmpty();
+        boolean stoppedAndNotEmpty = isStopped() && !rings.isEmpty();
 
         if (transMeta.isCapturingStepPerformanceSnapShots() && !pausedAndNotEmpty && !stoppedAndNotEmpty) {
             // get the statistics from the steps and keep them...
@@ -1569,29 +1718,16 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                 StepMeta stepMeta = steps.get(i).stepMeta;
                 StepInterface step = steps.get(i).step;
 
-                StepPerformanceSnapShot snapShot =
-                        new StepPerformanceSnapShot(seqNr, getBatchId(), new Date(), getName(), stepMeta.getName(), step.getCopy(),
-                                step.getLinesRead(), step.getLinesWritten(), step.getLinesInput(), step.getLinesOutput(), step
-                                .getLinesUpdated(), step.getLinesRejected(), step.getErrors());
-                List<StepPerformanceSnapShot> snapShotList = stepPerformanceSnapShots.get(step.toString());
-                StepPerformanceSnapShot previous;
-                if (snapShotList == null) {
-                    snapShotList = new ArrayList<StepPerformanceSnapShot>();
-                    stepPerformanceSnapShots.put(step.toString(), snapShotList);
-                    previous = null;
-                } else {
-                    previous = snapShotList.get(snapShotList.size() - 1); // the last one...
-                }
-                // Make the difference...
-                //
-                snapShot.diff(previous, step.rowsetInputSize(), step.rowsetOutputSize());
-                synchronized (stepPerformanceSnapShots) {
-                    snapShotList.add(snapShot);
-
-                    if (stepPerformanceSnapshotSizeLimit > 0 && snapShotList.size() > stepPerformanceSnapshotSizeLimit) {
-                        snapShotList.remove(0);
-                    }
+                String key = step.toString();
+                StepPerformanceRing ring = rings.get(key);
+                if (ring == null) {
+                    ring = new StepPerformanceRing(getName(), stepMeta.getName(), step.getCopy(),
+                            stepPerformanceSnapshotSizeLimit);
+                    rings.put(key, ring);
                 }
+                ring.add(seqNr, getBatchId(), System.currentTimeMillis(), step.getLinesRead(), step.getLinesWritten(),
+                        step.getLinesInput(), step.getLinesOutput(), step.getLinesUpdated(), step.getLinesRejected(),
+                        step.getErrors(), step.rowsetInputSize(), step.rowsetOutputSize());
             }
 
             lastStepPerformanceSnapshotSeqNrAdded = stepPerformanceSnapshotSeqNr.get();
@@ -1603,6 +1739,9 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * after ALL the slave transformations in a clustered run have finished.
      */
     public void cleanup() {
+        // in case the transformation was prepared but never started
+        stopRowSetSizer();
+
         // Close all open server sockets.
         // We can only close these after all processing has been confirmed to be finished.
         //
@@ -1615,6 +1754,115 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         }
     }
 
+    private void trackRunListener(StepInterface step, StepListener listener) {
+        List<StepListener> listeners = runStepListeners.get(step);
+        if (listeners == null) {
+            listeners = new ArrayList<StepListener>(2);
+            runStepListeners.put(step, listeners);
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove listeners added by the last call of startThreads, so that they're not notified twice when the steps are
+     * started again.
+     */
+    private void removeRunListeners() {
+        if (runStepListeners != null) {
+            for (Map.Entry<StepInterface, List<StepListener>> entry : runStepListeners.entrySet()) {
+                if (entry.getKey() instanceof BaseStep) {
+                    ((BaseStep) entry.getKey()).getStepListeners().removeAll(entry.getValue());
+                }
+            }
+            runStepListeners = null;
+        }
+
+        if (runTransListener != null) {
+            transListeners.remove(runTransListener);
+            runTransListener = null;
+        }
+    }
+
+    /**
+     * Reset steps and rowsets of the last run, so that prepareExecution can go on with them instead of allocating new
+     * steps, rowsets and log channels. Error handling is identified, batch id and start record are written and the steps
+     * are initialized again afterwards, just like for new steps.
+     *
+     * @return true if the steps were reset, false if the transformation needs to be prepared from scratch
+     */
+    protected boolean resetPreparedSteps() {
+        if (steps == null || steps.isEmpty() || rowsets == null || !isFinished() || isStopped() || errors.get() > 0
+                || transMeta.getTransformationType() != TransMeta.TransformationType.Normal) {
+            return false;
+        }
+        for (StepMetaDataCombi combi : steps) {
+            if (!(combi.step instanceof BaseStep) || combi.step.getErrors() > 0) {
+                return false;
+            }
+        }
+
+        removeRunListeners();
+
+        // results of the last run may still be referenced by the caller
+        resultRows = new ArrayList<RowMetaAndData>();
+        resultFiles = new ArrayList<ResultFile>();
+
+        // log lines of the last run were collected by the caller, don't add them up
+        KettleLogStore.discardLines(getLogChannelId(), false);
+
+        for (RowSet rowSet : rowsets) {
+            rowSet.clear();
+            if (rowSetSizer != null && rowSet instanceof ResizableRowSet) {
+                rowSetSizer.register((ResizableRowSet) rowSet);
+            }
+        }
+
+        for (StepMetaDataCombi combi : steps) {
+            BaseStep step = (BaseStep) combi.step;
+
+            step.setLinesRead(0L);
+            step.setLinesWritten(0L);
+            step.setLinesInput(0L);
+            step.setLinesOutput(0L);
+            step.setLinesUpdated(0L);
+            step.setLinesRejected(0L);
+            step.setErrors(0L);
+            step.setStopped(false);
+            step.setPaused(false);
+            step.first = true;
+            // input rowsets are removed from the step once they're done, and the error rowset is back among the
+            // output rowsets until identifyErrorOutput is called again
+            step.dispatch();
+        }
+
+        if (log.isDetailed()) {
+            log.logDetailed(new StringBuilder().append("Reusing ").append(steps.size()).append(" prepared step copies and ")
+                    .append(rowsets.size()).append(" rowsets").toString());
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks whether prepared steps and rowsets are kept for the next execution of this instance.
+     *
+     * @return true if this instance can be executed again without allocating steps and rowsets from scratch
+     */
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Sets whether prepared steps and rowsets are kept for the next execution of this instance. Only finished
+     * executions without errors are reused. Step data objects are kept as well, so this is only safe for steps which
+     * set up their data in init().
+     *
+     * @param reusable true to reuse prepared steps and rowsets
+     */
+    public void setReusable(boolean reusable) {
+        this.reusable = reusable;
+    }
+
     /**
      * Logs a summary message for the specified step.
      *
@@ -1712,6 +1960,23 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         status.updateAndGet(v -> finished ? v | FINISHED.mask : (BIT_STATUS_SUM ^ FINISHED.mask) & v);
     }
 
+    /**
+     * Step copies being initialized concurrently share fields calculated by each other, instead of clearing and
+     * calculating the fields of all previous steps again and again. Ends as soon as all steps are initialized, so that
+     * fields asked for while running, by Spoon editors for instance, are calculated from the current metadata.
+     */
+    private void beginStepFieldsMemo() {
+        if (stepFieldsMemo.compareAndSet(false, true)) {
+            transMeta.beginStepFieldsMemo();
+        }
+    }
+
+    private void endStepFieldsMemo() {
+        if (stepFieldsMemo.compareAndSet(true, false)) {
+            transMeta.endStepFieldsMemo();
+        }
+    }
+
     public boolean isFinishedOrStopped() {
         return isFinished() || isStopped();
     }
@@ -1840,16 +2105,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * @return the row set, or null if none found
      */
     public RowSet findRowSet(String rowsetname) {
-        // Start with the transformation.
-        for (int i = 0; i < rowsets.size(); i++) {
-            // log.logDetailed("DIS: looking for RowSet ["+rowsetname+"] in nr "+i+" of "+threads.size()+" threads...");
-            RowSet rs = rowsets.get(i);
-            if (rs.getName().equalsIgnoreCase(rowsetname)) {
-                return rs;
-            }
-        }
-
-        return null;
+        return getRuntimeIndex().getRowSet(rowsetname);
     }
 
     /**
@@ -1862,16 +2118,21 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * @return the row set, or null if none found
      */
     public RowSet findRowSet(String from, int fromcopy, String to, int tocopy) {
-        // Start with the transformation.
-        for (int i = 0; i < rowsets.size(); i++) {
-            RowSet rs = rowsets.get(i);
-            if (rs.getOriginStepName().equalsIgnoreCase(from) && rs.getDestinationStepName().equalsIgnoreCase(to) && rs
-                    .getOriginStepCopy() == fromcopy && rs.getDestinationStepCopy() == tocopy) {
-                return rs;
-            }
-        }
+        return getRuntimeIndex().getRowSet(from, fromcopy, to, tocopy);
+    }
 
-        return null;
+    /**
+     * Gets name index of steps and rowsets, rebuilding it if the lists have been changed.
+     *
+     * @return the index
+     */
+    private TransRuntimeIndex getRuntimeIndex() {
+        TransRuntimeIndex index = runtimeIndex;
+        if (index == null || !index.isValidFor(steps, rowsets)) {
+            index = new TransRuntimeIndex(steps, rowsets);
+            runtimeIndex = index;
+        }
+        return index;
     }
 
     /**
@@ -2035,15 +2296,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface step = sid.step;
-            if (step.getStepname().equalsIgnoreCase(name) && step.getCopy() == copy) {
-                return step;
-            }
-        }
-
-        return null;
+        StepMetaDataCombi sid = getRuntimeIndex().getCombi(name, copy);
+        return sid == null ? null : sid.step;
     }
 
     /**
@@ -2413,7 +2667,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             } finally {
                 // If we use interval logging, we keep the connection open for performance reasons...
                 //
-                if (transLogTableDatabaseConnection != null && (intervalInSeconds <= 0)) {
+                if (transLogTableDatabaseConnection != null
+                        && (intervalInSeconds <= 0 || LogTableWriter.ASYNC_LOG_TABLES_ENABLED)) {
                     transLogTableDatabaseConnection.disconnect();
                     transLogTableDatabaseConnection = null;
                 }
@@ -2451,27 +2706,21 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         // end PDI-7070
 
         try {
-            db = new Database(this, channelLogTable.getDatabaseMeta());
-            db.shareVariablesWith(this);
-            db.connect();
-            db.setCommit(logCommitSize);
+            db = connectLogDatabase(channelLogTable.getDatabaseMeta());
 
             List<LoggingHierarchy> loggingHierarchyList = getLoggingHierarchy();
             for (LoggingHierarchy loggingHierarchy : loggingHierarchyList) {
-                db.writeLogRecord(channelLogTable, LogStatus.START, loggingHierarchy, null);
+                writeLogRecord(db, channelLogTable, loggingHierarchy);
             }
 
             // Also time-out the log records in here...
             //
-            db.cleanupLogRecords(channelLogTable);
+            cleanupLogRecords(db, channelLogTable);
         } catch (Exception e) {
             throw new KettleException(BaseMessages.getString(PKG,
                     "Trans.Exception.UnableToWriteLogChannelInformationToLogTable"), e);
         } finally {
-            if (!db.isAutoCommit()) {
-                db.commit(true);
-            }
-            db.disconnect();
+            disconnectLogDatabase(db);
         }
     }
 
@@ -2484,30 +2733,66 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         Database db = null;
         StepLogTable stepLogTable = getTransMeta().getStepLogTable();
         try {
-            db = createDataBase(stepLogTable.getDatabaseMeta());
-            db.shareVariablesWith(this);
-            db.connect();
-            db.setCommit(logCommitSize);
+            db = connectLogDatabase(stepLogTable.getDatabaseMeta());
 
             for (StepMetaDataCombi combi : getSteps()) {
-                db.writeLogRecord(stepLogTable, LogStatus.START, combi, null);
+                writeLogRecord(db, stepLogTable, combi);
             }
 
-            db.cleanupLogRecords(stepLogTable);
+            cleanupLogRecords(db, stepLogTable);
         } catch (Exception e) {
             throw new KettleException(BaseMessages.getString(PKG,
                     "Trans.Exception.UnableToWriteStepInformationToLogTable"), e);
         } finally {
+            disconnectLogDatabase(db);
+        }
+
+    }
+
+    protected Database createDataBase(DatabaseMeta meta) {
+        return new Database(this, meta);
+    }
+
+    /**
+     * Connects to the logging database, unless log records are written asynchronously.
+     *
+     * @return connected database, or null when log records are queued for {@link LogTableWriter}
+     */
+    private Database connectLogDatabase(DatabaseMeta meta) throws KettleDatabaseException {
+        if (LogTableWriter.ASYNC_LOG_TABLES_ENABLED) {
+            return null;
+        }
+
+        Database db = createDataBase(meta);
+        db.shareVariablesWith(this);
+        db.connect();
+        db.setCommit(logCommitSize);
+        return db;
+    }
+
+    private void disconnectLogDatabase(Database db) throws KettleDatabaseException {
+        if (db != null) {
             if (!db.isAutoCommit()) {
                 db.commit(true);
             }
             db.disconnect();
         }
+    }
 
+    private void writeLogRecord(Database db, LogTableCoreInterface logTable, Object subject) throws KettleException {
+        if (db == null) {
+            LogTableWriter.writeLogRecord(this, logTable, LogStatus.START, subject, null);
+        } else {
+            db.writeLogRecord(logTable, LogStatus.START, subject, null);
+        }
     }
 
-    protected Database createDataBase(DatabaseMeta meta) {
-        return new Database(this, meta);
+    private void cleanupLogRecords(Database db, LogTableCoreInterface logTable) throws KettleException {
+        if (db == null) {
+            LogTableWriter.cleanupLogRecords(this, logTable);
+        } else {
+            db.cleanupLogRecords(logTable);
+        }
     }
 
     protected synchronized void writeMetricsInformation() throws KettleException {
@@ -2537,10 +2822,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         Database db = null;
         MetricsLogTable metricsLogTable = transMeta.getMetricsLogTable();
         try {
-            db = new Database(this, metricsLogTable.getDatabaseMeta());
-            db.shareVariablesWith(this);
-            db.connect();
-            db.setCommit(logCommitSize);
+            db = connectLogDatabase(metricsLogTable.getDatabaseMeta());
 
             List<String> logChannelIds = LoggingRegistry.getInstance().getLogChannelChildren(getLogChannelId());
             for (String logChannelId : logChannelIds) {
@@ -2550,7 +2832,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                     Iterator<MetricsSnapshotInterface> iterator = snapshotList.iterator();
                     while (iterator.hasNext()) {
                         MetricsSnapshotInterface snapshot = iterator.next();
-                        db.writeLogRecord(metricsLogTable, LogStatus.START, new LoggingMetric(batchId, snapshot), null);
+                        writeLogRecord(db, metricsLogTable, new LoggingMetric(batchId, snapshot));
                     }
                 }
 
@@ -2561,7 +2843,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
                         Iterator<MetricsSnapshotInterface> iterator = snapshotMap.values().iterator();
                         while (iterator.hasNext()) {
                             MetricsSnapshotInterface snapshot = iterator.next();
-                            db.writeLogRecord(metricsLogTable, LogStatus.START, new LoggingMetric(batchId, snapshot), null);
+                            writeLogRecord(db, metricsLogTable, new LoggingMetric(batchId, snapshot));
                         }
                     }
                 }
@@ -2569,15 +2851,12 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
 
             // Also time-out the log records in here...
             //
-            db.cleanupLogRecords(metricsLogTable);
+            cleanupLogRecords(db, metricsLogTable);
         } catch (Exception e) {
             throw new KettleException(BaseMessages.getString(PKG,
                     "Trans.Exception.UnableToWriteMetricsInformationToLogTable"), e);
         } finally {
-            if (!db.isAutoCommit()) {
-                db.commit(true);
-            }
-            db.disconnect();
+            disconnectLogDatabase(db);
         }
     }
 
@@ -2667,7 +2946,15 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         //
         DatabaseMeta logcon = transMeta.getTransLogTable().getDatabaseMeta();
         String logTable = transMeta.getTransLogTable().getActualTableName();
-        if (logcon != null) {
+        if (logcon != null && LogTableWriter.ASYNC_LOG_TABLES_ENABLED) {
+            // take the log record now, and leave the rest to the writer
+            if (!Utils.isEmpty(logTable)) {
+                LogTableWriter.writeLogRecord(this, transLogTable, status, this, null);
+            }
+            if (status.equals(LogStatus.END) || status.equals(LogStatus.STOP)) {
+                LogTableWriter.cleanupLogRecords(this, transLogTable);
+            }
+        } else if (logcon != null) {
             Database ldb = null;
 
             try {
@@ -2731,50 +3018,49 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         Database ldb = null;
         PerformanceLogTable performanceLogTable = transMeta.getPerformanceLogTable();
 
+        Map<String, StepPerformanceRing> rings = stepPerformanceRings;
         if (!performanceLogTable.isDefined() || !transMeta.isCapturingStepPerformanceSnapShots()
-                || stepPerformanceSnapShots == null || stepPerformanceSnapShots.isEmpty()) {
+                || rings == null || rings.isEmpty()) {
             return 0; // nothing to do here!
         }
 
         try {
-            ldb = new Database(this, performanceLogTable.getDatabaseMeta());
-            ldb.shareVariablesWith(this);
-            ldb.connect();
-            ldb.setCommit(logCommitSize);
+            ldb = connectLogDatabase(performanceLogTable.getDatabaseMeta());
 
             // Write to the step performance log table...
             //
-            RowMetaInterface rowMeta = performanceLogTable.getLogRecord(LogStatus.START, null, null).getRowMeta();
-            ldb.prepareInsert(rowMeta, performanceLogTable.getActualSchemaName(), performanceLogTable.getActualTableName());
-
-            synchronized (stepPerformanceSnapShots) {
-                Iterator<List<StepPerformanceSnapShot>> iterator = stepPerformanceSnapShots.values().iterator();
-                while (iterator.hasNext()) {
-                    List<StepPerformanceSnapShot> snapshots = iterator.next();
-                    synchronized (snapshots) {
-                        Iterator<StepPerformanceSnapShot> snapshotsIterator = snapshots.iterator();
-                        while (snapshotsIterator.hasNext()) {
-                            StepPerformanceSnapShot snapshot = snapshotsIterator.next();
-                            if (snapshot.getSeqNr() >= startSequenceNr && snapshot
-                                    .getSeqNr() <= lastStepPerformanceSnapshotSeqNrAdded) {
-
-                                RowMetaAndData row = performanceLogTable.getLogRecord(LogStatus.START, snapshot, null);
-
-                                ldb.setValuesInsert(row.getRowMeta(), row.getData());
-                                ldb.insertRow(true);
-                            }
-                            lastSeqNr = snapshot.getSeqNr();
-                        }
+            if (ldb != null) {
+                RowMetaInterface rowMeta = performanceLogTable.getLogRecord(LogStatus.START, null, null).getRowMeta();
+                ldb.prepareInsert(rowMeta, performanceLogTable.getActualSchemaName(),
+                        performanceLogTable.getActualTableName());
+            }
+
+            for (StepPerformanceRing ring : rings.values()) {
+                // only materialize snapshots not written yet
+                for (StepPerformanceSnapShot snapshot
+                        : ring.getSnapShots(startSequenceNr, lastStepPerformanceSnapshotSeqNrAdded)) {
+                    RowMetaAndData row = performanceLogTable.getLogRecord(LogStatus.START, snapshot, null);
+
+                    if (ldb == null) {
+                        LogTableWriter.insertLogRecord(this, performanceLogTable, row);
+                    } else {
+                        ldb.setValuesInsert(row.getRowMeta(), row.getData());
+                        ldb.insertRow(true);
                     }
                 }
+                if (ring.size() > 0) {
+                    lastSeqNr = ring.getLastSeqNr();
+                }
             }
 
-            ldb.insertFinished(true);
+            if (ldb != null) {
+                ldb.insertFinished(true);
+            }
 
             // Finally, see if the log table needs cleaning up...
             //
             if (status.equals(LogStatus.END)) {
-                ldb.cleanupLogRecords(performanceLogTable);
+                cleanupLogRecords(ldb, performanceLogTable);
             }
 
         } catch (Exception e) {
@@ -2899,14 +3185,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface step = sid.step;
-            if (step.getStepname().equalsIgnoreCase(stepname)) {
-                return step;
-            }
-        }
-        return null;
+        StepMetaDataCombi sid = getRuntimeIndex().getFirstCombi(stepname);
+        return sid == null ? null : sid.step;
     }
 
     /**
@@ -2916,20 +3196,11 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * @return the list of base steps for the specified step
      */
     public List<StepInterface> findBaseSteps(String stepname) {
-        List<StepInterface> baseSteps = new ArrayList<StepInterface>();
-
         if (steps == null) {
-            return baseSteps;
+            return new ArrayList<StepInterface>();
         }
 
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface stepInterface = sid.step;
-            if (stepInterface.getStepname().equalsIgnoreCase(stepname)) {
-                baseSteps.add(stepInterface);
-            }
-        }
-        return baseSteps;
+        return new ArrayList<StepInterface>(getRuntimeIndex().getStepInterfaces(stepname));
     }
 
     /**
@@ -2944,14 +3215,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface stepInterface = sid.step;
-            if (stepInterface.getStepname().equalsIgnoreCase(stepname) && sid.copy == copyNr) {
-                return stepInterface;
-            }
-        }
-        return null;
+        StepMetaDataCombi sid = getRuntimeIndex().getCombi(stepname, copyNr);
+        return sid == null ? null : sid.step;
     }
 
     /**
@@ -2966,16 +3231,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        List<StepInterface> list = new ArrayList<StepInterface>();
-
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface stepInterface = sid.step;
-            if (stepInterface.getStepname().equalsIgnoreCase(stepname)) {
-                list.add(stepInterface);
-            }
-        }
-        return list;
+        return new ArrayList<StepInterface>(getRuntimeIndex().getStepInterfaces(stepname));
     }
 
     /**
@@ -2989,14 +3245,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            StepInterface rt = sid.step;
-            if (rt.getStepname().equalsIgnoreCase(name)) {
-                return sid.data;
-            }
-        }
-        return null;
+        StepMetaDataCombi sid = getRuntimeIndex().getFirstCombi(name);
+        return sid == null ? null : sid.data;
     }
 
     /**
@@ -3036,7 +3286,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
     }
 
     /**
-     * Gets the meta-data for the transformation.
+     * Gets the meta-data for the transformation. Once prepared, it's a copy with resolved number of copies if the
+     * transformation has "auto" steps.
      *
      * @return Returns the transformation meta-data
      */
@@ -3051,6 +3302,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      */
     public void setTransMeta(TransMeta transMeta) {
         this.transMeta = transMeta;
+        this.declaredTransMeta = null;
     }
 
     /**
@@ -3193,15 +3445,8 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             return null;
         }
 
-        // Now start all the threads...
-        for (int i = 0; i < steps.size(); i++) {
-            StepMetaDataCombi sid = steps.get(i);
-            if (sid.stepname.equalsIgnoreCase(stepname) && sid.copy == copy) {
-                return sid.step;
-            }
-        }
-
-        return null;
+        StepMetaDataCombi sid = getRuntimeIndex().getCombi(stepname, copy);
+        return sid == null ? null : sid.step;
     }
 
     /**
@@ -4563,13 +4808,32 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
         }
     }
 
+    /**
+     * Gets the controller adapting capacity of rowsets.
+     *
+     * @return the rowset sizer, or null if adaptive rowsets are disabled
+     */
+    public RowSetSizer getRowSetSizer() {
+        return rowSetSizer;
+    }
+
     /**
      * Gets a named list (map) of step performance snapshots.
      *
      * @return a named list (map) of step performance snapshots
      */
     public Map<String, List<StepPerformanceSnapShot>> getStepPerformanceSnapShots() {
-        return stepPerformanceSnapShots;
+        Map<String, StepPerformanceRing> rings = stepPerformanceRings;
+        if (rings == null) {
+            return stepPerformanceSnapShots;
+        }
+
+        Map<String, List<StepPerformanceSnapShot>> snapShots =
+                new ConcurrentHashMap<String, List<StepPerformanceSnapShot>>(rings.size());
+        for (Map.Entry<String, StepPerformanceRing> entry : rings.entrySet()) {
+            snapShots.put(entry.getKey(), entry.getValue().getSnapShots());
+        }
+        return snapShots;
     }
 
     /**
@@ -4578,6 +4842,7 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
      * @param stepPerformanceSnapShots a named list (map) of step performance snapshots to set
      */
     public void setStepPerformanceSnapShots(Map<String, List<StepPerformanceSnapShot>> stepPerformanceSnapShots) {
+        this.stepPerformanceRings = null;
         this.stepPerformanceSnapShots = stepPerformanceSnapShots;
     }
 
@@ -5546,6 +5811,9 @@ public class Trans implements VariableSpace, NamedParams, HasLogChannelInterface
             backwardChange = false;
 
         } // finished sorting
+
+        // order of steps has been changed
+        runtimeIndex = null;
     }
 
     @Override
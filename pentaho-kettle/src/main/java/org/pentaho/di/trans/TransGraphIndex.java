@@ -0,0 +1,307 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Index of steps and hops of a {@link TransMeta}: steps by case-folded name, hops by source and target step, and steps
+ * in topological order. Hops are indexed by step instance, so renaming a step doesn't make the index stale. Step
+ * names are only used to find steps, a miss is looked up in the step list.
+ * <p>
+ * Step equality in hops is name based(case insensitive). When a hop refers to a step outside the step list, or hops of
+ * a step outside of it are asked for, hops are looked up in the hop list instead.
+ * <p>
+ * The index only narrows down candidates, callers still check hops(enabled or not, source and target) as before. It's
+ * built on first use and dropped by {@link TransMeta} whenever steps or hops are changed. Hops can also be edited in
+ * place(setFromStep/setToStep) without telling anyone. Hops found for a step are checked against it, and sorting
+ * checks all hops against the steps they had when indexed. Once a hop is found edited, lookups fall back to scanning
+ * the hop list and the index is rebuilt on next use. A hop edited to end at a step it didn't before is only noticed
+ * that way, or when the transformation is marked as changed.
+ *
+ * @author Zhichun Wu
+ */
+final class TransGraphIndex {
+    private final List<StepMeta> steps;
+    private final List<TransHopMeta> hops;
+
+    private final Map<String, StepMeta> stepsByName;
+    private final Map<StepMeta, List<TransHopMeta>> hopsFrom;
+    private final Map<StepMeta, List<TransHopMeta>> hopsTo;
+    // steps in the list, by instance
+    private final Map<StepMeta, Boolean> indexed;
+    // all hops refer to steps in the list
+    private boolean hopsIndexed = true;
+    // source and target steps of hops when indexed, in hop list order
+    private final List<StepMeta> hopFromSteps;
+    private final List<StepMeta> hopToSteps;
+    // a hop was found edited in place
+    private volatile boolean stale = false;
+
+    private int indexedSteps;
+    private int indexedHops;
+
+    // steps from start to finish, following enabled hops, null if not calculated yet
+    private List<StepMeta> sortedSteps;
+    private boolean hasLoop;
+    private int sortedEnabledHops;
+
+    static String foldName(String stepName) {
+        return stepName == null ? null : stepName.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    static String toKey(StepMeta stepMeta) {
+        return stepMeta == null ? null : foldName(stepMeta.getName());
+    }
+
+    TransGraphIndex(List<StepMeta> steps, List<TransHopMeta> hops) {
+        this.steps = steps;
+        this.hops = hops;
+
+        this.stepsByName = new HashMap<>(steps.size() * 2);
+        this.hopsFrom = new IdentityHashMap<>(steps.size() * 2);
+        this.hopsTo = new IdentityHashMap<>(steps.size() * 2);
+        this.indexed = new IdentityHashMap<>(steps.size() * 2);
+        this.hopFromSteps = new ArrayList<>(hops.size());
+        this.hopToSteps = new ArrayList<>(hops.size());
+
+        for (StepMeta stepMeta : steps) {
+            addStep(stepMeta);
+        }
+        for (TransHopMeta hop : hops) {
+            addHop(hop);
+        }
+    }
+
+    private void addHop(Map<StepMeta, List<TransHopMeta>> map, StepMeta stepMeta, TransHopMeta hop) {
+        if (stepMeta == null) {
+            return;
+        }
+        if (!indexed.containsKey(stepMeta)) {
+            hopsIndexed = false;
+        }
+
+        List<TransHopMeta> list = map.get(stepMeta);
+        if (list == null) {
+            list = new ArrayList<>(2);
+            map.put(stepMeta, list);
+        }
+        list.add(hop);
+    }
+
+    /**
+     * @return true if steps or hops are not added or removed behind our back
+     */
+    boolean isValid(List<StepMeta> steps, List<TransHopMeta> hops) {
+        return !stale && this.steps == steps && this.hops == hops
+                && indexedSteps == steps.size() && indexedHops == hops.size();
+    }
+
+    /**
+     * Index a step appended to the end of the step list.
+     */
+    void addStep(StepMeta stepMeta) {
+        String key = toKey(stepMeta);
+        // first one wins, same as scanning the list
+        if (key != null && !stepsByName.containsKey(key)) {
+            stepsByName.put(key, stepMeta);
+        }
+        if (stepMeta != null) {
+            indexed.put(stepMeta, Boolean.TRUE);
+        }
+        indexedSteps++;
+    }
+
+    /**
+     * Index a hop appended to the end of the hop list.
+     */
+    void addHop(TransHopMeta hop) {
+        if (hop != null) {
+            addHop(hopsFrom, hop.getFromStep(), hop);
+            addHop(hopsTo, hop.getToStep(), hop);
+        }
+        hopFromSteps.add(hop == null ? null : hop.getFromStep());
+        hopToSteps.add(hop == null ? null : hop.getToStep());
+        indexedHops++;
+        sortedSteps = null;
+    }
+
+    StepMeta findStep(String name) {
+        StepMeta stepMeta = stepsByName.get(foldName(name));
+        if (stepMeta != null && name.equalsIgnoreCase(stepMeta.getName())) {
+            return stepMeta;
+        }
+
+        // not indexed, or renamed without telling anyone, have to look it up the hard way
+        for (StepMeta s : steps) {
+            if (s.getName().equalsIgnoreCase(name)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    private List<TransHopMeta> scanHops(StepMeta stepMeta, boolean from) {
+        List<TransHopMeta> list = new ArrayList<>(2);
+        for (TransHopMeta hop : hops) {
+            StepMeta s = from ? hop.getFromStep() : hop.getToStep();
+            if (s != null && s.equals(stepMeta)) {
+                list.add(hop);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return hops starting from the given step, in the same order as in the hop list
+     */
+    List<TransHopMeta> getHopsFrom(StepMeta stepMeta) {
+        if (stepMeta == null) {
+            return Collections.emptyList();
+        } else if (!hopsIndexed || !indexed.containsKey(stepMeta)) {
+            return scanHops(stepMeta, true);
+        }
+
+        List<TransHopMeta> list = hopsFrom.get(stepMeta);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        for (TransHopMeta hop : list) {
+            if (hop.getFromStep() != stepMeta) {
+                stale = true;
+                return scanHops(stepMeta, true);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return hops ending at the given step, in the same order as in the hop list
+     */
+    List<TransHopMeta> getHopsTo(StepMeta stepMeta) {
+        if (stepMeta == null) {
+            return Collections.emptyList();
+        } else if (!hopsIndexed || !indexed.containsKey(stepMeta)) {
+            return scanHops(stepMeta, false);
+        }
+
+        List<TransHopMeta> list = hopsTo.get(stepMeta);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        for (TransHopMeta hop : list) {
+            if (hop.getToStep() != stepMeta) {
+                stale = true;
+                return scanHops(stepMeta, false);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Sort steps from start to finish following enabled hops. Among steps whose previous steps are all sorted, the one
+     * first by name(case insensitive) goes first, so independent steps are ordered by name as they used to be.
+     *
+     * @return sorted steps, or null when there's a loop
+     */
+    List<StepMeta> getSortedSteps() {
+        int enabledHops = 0;
+        for (int i = 0; i < hops.size(); i++) {
+            TransHopMeta hop = hops.get(i);
+            if (hop != null && (hop.getFromStep() != hopFromSteps.get(i) || hop.getToStep() != hopToSteps.get(i))) {
+                // edited in place, the caller rebuilds the index next time
+                stale = true;
+                return new TransGraphIndex(steps, hops).getSortedSteps();
+            }
+            if (hop != null && hop.isEnabled()) {
+                enabledHops++;
+            }
+        }
+
+        // a hop might be enabled or disabled since last time
+        if (sortedSteps == null || sortedEnabledHops != enabledHops) {
+            sortSteps();
+            sortedEnabledHops = enabledHops;
+        }
+
+        return hasLoop ? null : sortedSteps;
+    }
+
+    private void sortSteps() {
+        Map<StepMeta, Integer> inDegrees = new IdentityHashMap<>(steps.size() * 2);
+        for (StepMeta stepMeta : steps) {
+            int inDegree = 0;
+            for (TransHopMeta hop : getHopsTo(stepMeta)) {
+                if (hop.isEnabled() && hop.getFromStep() != null) {
+                    inDegree++;
+                }
+            }
+            inDegrees.put(stepMeta, inDegree);
+        }
+
+        final Map<StepMeta, Integer> positions = new IdentityHashMap<>(steps.size() * 2);
+        for (int i = 0; i < steps.size(); i++) {
+            positions.put(steps.get(i), i);
+        }
+        PriorityQueue<StepMeta> ready = new PriorityQueue<>(Math.max(1, steps.size()), new Comparator<StepMeta>() {
+            @Override
+            public int compare(StepMeta o1, StepMeta o2) {
+                int result = String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(o1.getName()),
+                        String.valueOf(o2.getName()));
+                return result != 0 ? result : Integer.compare(positions.get(o1), positions.get(o2));
+            }
+        });
+        for (StepMeta stepMeta : steps) {
+            if (inDegrees.get(stepMeta) == 0) {
+                ready.add(stepMeta);
+            }
+        }
+
+        List<StepMeta> sorted = new ArrayList<>(steps.size());
+        while (!ready.isEmpty()) {
+            StepMeta stepMeta = ready.poll();
+            sorted.add(stepMeta);
+
+            for (TransHopMeta hop : getHopsFrom(stepMeta)) {
+                if (!hop.isEnabled() || hop.getToStep() == null) {
+                    continue;
+                }
+
+                StepMeta next = hopsIndexed ? hop.getToStep() : findStep(hop.getToStep().getName());
+                Integer inDegree = next == null ? null : inDegrees.get(next);
+                if (inDegree != null) {
+                    inDegrees.put(next, inDegree - 1);
+                    if (inDegree == 1) {
+                        ready.add(next);
+                    }
+                }
+            }
+        }
+
+        hasLoop = sorted.size() != steps.size();
+        sortedSteps = sorted;
+    }
+}
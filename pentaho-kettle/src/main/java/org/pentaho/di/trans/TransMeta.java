@@ -67,12 +67,13 @@ import org.pentaho.di.trans.steps.transexecutor.TransExecutorMeta;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -167,6 +168,11 @@ public class TransMeta extends AbstractMeta
      */
     protected int sizeRowset;
 
+    /**
+     * Whether steps are initialized and executed in shared, pooled threads.
+     */
+    protected boolean pooledStepExecution;
+
     /**
      * The meta-data for the database connection associated with "max date" auditing information.
      */
@@ -305,6 +311,16 @@ public class TransMeta extends AbstractMeta
      */
     protected Map<String, Boolean> loopCache;
 
+    /**
+     * Number of running transformations sharing the step fields cache, see {@link #beginStepFieldsMemo()}.
+     */
+    private AtomicInteger stepFieldsMemoUsers = new AtomicInteger(0);
+
+    /**
+     * Index of steps and hops, built on first use and dropped when steps or hops are changed.
+     */
+    private volatile TransGraphIndex graphIndex;
+
     /**
      * The log channel interface.
      */
@@ -664,6 +680,7 @@ public class TransMeta extends AbstractMeta
 
         try {
             TransMeta transMeta = (TransMeta) super.clone();
+            transMeta.stepFieldsMemoUsers = new AtomicInteger(0);
             if (doClear) {
                 transMeta.clear();
             } else {
@@ -678,6 +695,10 @@ public class TransMeta extends AbstractMeta
                 transMeta.clusterSchemas = new ArrayList<>();
                 transMeta.namedParams = new NamedParamsDefault();
                 transMeta.stepChangeListeners = new ArrayList<>();
+                // caches must not be shared with the source, which might be used by other threads
+                transMeta.stepsFieldsCache = new ConcurrentHashMap<>();
+                transMeta.loopCache = new ConcurrentHashMap<>();
+                transMeta.graphIndex = null;
             }
             for (DatabaseMeta db : databases) {
                 transMeta.addDatabase((DatabaseMeta) db.clone());
@@ -740,6 +761,7 @@ public class TransMeta extends AbstractMeta
         setObjectId(null);
         steps = new ArrayList<>();
         hops = new ArrayList<>();
+        graphIndex = null;
         dependencies = new ArrayList<>();
         partitionSchemas = new ArrayList<>();
         clusterSchemas = new ArrayList<>();
@@ -757,6 +779,7 @@ public class TransMeta extends AbstractMeta
         metricsLogTable = MetricsLogTable.getDefault(this, this);
 
         sizeRowset = Const.ROWS_IN_ROWSET;
+        pooledStepExecution = false;
         sleepTimeEmpty = Const.TIMEOUT_GET_MILLIS;
         sleepTimeFull = Const.TIMEOUT_PUT_MILLIS;
 
@@ -797,8 +820,8 @@ public class TransMeta extends AbstractMeta
         stepPerformanceCapturingDelay = 1000; // every 1 seconds
         stepPerformanceCapturingSizeLimit = "100"; // maximum 100 data points
 
-        stepsFieldsCache = new HashMap<>();
-        loopCache = new HashMap<>();
+        stepsFieldsCache = new ConcurrentHashMap<>();
+        loopCache = new ConcurrentHashMap<>();
         transformationType = TransformationType.Normal;
 
         log = LogChannel.GENERAL;
@@ -810,7 +833,11 @@ public class TransMeta extends AbstractMeta
      * @param stepMeta The meta-data for the step to be added.
      */
     public void addStep(StepMeta stepMeta) {
+        TransGraphIndex index = graphIndex;
         steps.add(stepMeta);
+        if (index != null) {
+            index.addStep(stepMeta);
+        }
         stepMeta.setParentTransMeta(this);
         StepMetaInterface iface = stepMeta.getStepMetaInterface();
         if (iface instanceof StepMetaChangeListenerInterface) {
@@ -826,6 +853,7 @@ public class TransMeta extends AbstractMeta
      * @param stepMeta The meta-data for the step to be added.
      */
     public void addOrReplaceStep(StepMeta stepMeta) {
+        clearGraphIndex();
         int index = steps.indexOf(stepMeta);
         if (index < 0) {
             index = steps.add(stepMeta) ? 0 : index;
@@ -848,7 +876,11 @@ public class TransMeta extends AbstractMeta
      * @param hi The hop meta-data to be added.
      */
     public void addTransHop(TransHopMeta hi) {
+        TransGraphIndex index = graphIndex;
         hops.add(hi);
+        if (index != null) {
+            index.addHop(hi);
+        }
         changed_hops = true;
     }
 
@@ -870,6 +902,7 @@ public class TransMeta extends AbstractMeta
      */
     public void addStep(int p, StepMeta stepMeta) {
         steps.add(p, stepMeta);
+        clearGraphIndex();
         stepMeta.setParentTransMeta(this);
         changed_steps = true;
         StepMetaInterface iface = stepMeta.getStepMetaInterface();
@@ -891,6 +924,7 @@ public class TransMeta extends AbstractMeta
         } catch (IndexOutOfBoundsException e) {
             hops.add(hi);
         }
+        clearGraphIndex();
         changed_hops = true;
     }
 
@@ -961,6 +995,7 @@ public class TransMeta extends AbstractMeta
         }
 
         steps.remove(i);
+        clearGraphIndex();
 
         if (removeStep.getStepMetaInterface() instanceof MissingTrans) {
             removeMissingTrans((MissingTrans) removeStep.getStepMetaInterface());
@@ -981,6 +1016,7 @@ public class TransMeta extends AbstractMeta
         }
 
         hops.remove(i);
+        clearGraphIndex();
         changed_hops = true;
     }
 
@@ -992,6 +1028,7 @@ public class TransMeta extends AbstractMeta
      */
     public void removeTransHop(TransHopMeta hop) {
         hops.remove(hop);
+        clearGraphIndex();
         changed_hops = true;
     }
 
@@ -1064,6 +1101,7 @@ public class TransMeta extends AbstractMeta
             addStepChangeListener(i, (StepMetaChangeListenerInterface) stepMeta.getStepMetaInterface());
         }
         steps.set(i, stepMeta);
+        clearGraphIndex();
         stepMeta.setParentTransMeta(this);
     }
 
@@ -1076,6 +1114,7 @@ public class TransMeta extends AbstractMeta
      */
     public void setTransHop(int i, TransHopMeta hi) {
         hops.set(i, hi);
+        clearGraphIndex();
     }
 
     /**
@@ -1120,6 +1159,8 @@ public class TransMeta extends AbstractMeta
         int excl = -1;
         if (exclude != null) {
             excl = indexOfStep(exclude);
+        } else {
+            return getGraphIndex().findStep(name);
         }
 
         for (int i = 0; i < nrSteps(); i++) {
@@ -1156,9 +1197,7 @@ public class TransMeta extends AbstractMeta
      * @return The hop or null if no hop was found.
      */
     public TransHopMeta findTransHopFrom(StepMeta fromstep) {
-        int i;
-        for (i = 0; i < nrTransHops(); i++) {
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(fromstep)) {
             if (hi.getFromStep() != null && hi.getFromStep().equals(fromstep)) { // return the first
                 return hi;
             }
@@ -1167,7 +1206,7 @@ public class TransMeta extends AbstractMeta
     }
 
     public List<TransHopMeta> findAllTransHopFrom(StepMeta fromstep) {
-        return hops.stream()
+        return getGraphIndex().getHopsFrom(fromstep).stream()
                 .filter(hop -> hop.getFromStep() != null && hop.getFromStep().equals(fromstep))
                 .collect(Collectors.toList());
     }
@@ -1202,8 +1241,7 @@ public class TransMeta extends AbstractMeta
      * @return The hop or null if no hop was found.
      */
     public TransHopMeta findTransHop(StepMeta from, StepMeta to, boolean disabledToo) {
-        for (int i = 0; i < nrTransHops(); i++) {
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(from)) {
             if (hi.isEnabled() || disabledToo) {
                 if (hi.getFromStep() != null && hi.getToStep() != null && hi.getFromStep().equals(from) && hi.getToStep()
                         .equals(to)) {
@@ -1221,9 +1259,7 @@ public class TransMeta extends AbstractMeta
      * @return The hop or null if no hop was found.
      */
     public TransHopMeta findTransHopTo(StepMeta tostep) {
-        int i;
-        for (i = 0; i < nrTransHops(); i++) {
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(tostep)) {
             if (hi.getToStep() != null && hi.getToStep().equals(tostep)) { // Return the first!
                 return hi;
             }
@@ -1338,10 +1374,8 @@ public class TransMeta extends AbstractMeta
     @Deprecated
     public int findNrPrevSteps(StepMeta stepMeta, boolean info) {
         int count = 0;
-        int i;
 
-        for (i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(stepMeta)) { // Look at all the hops to this step;
             if (hi.getToStep() != null && hi.isEnabled() && hi.getToStep().equals(stepMeta)) {
                 // Check if this previous step isn't informative (StreamValueLookup)
                 // We don't want fields from this stream to show up!
@@ -1365,11 +1399,8 @@ public class TransMeta extends AbstractMeta
     @Deprecated
     public StepMeta findPrevStep(StepMeta stepMeta, int nr, boolean info) {
         int count = 0;
-        int i;
-
-        for (i = 0; i < nrTransHops(); i++) { // Look at all the hops;
 
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(stepMeta)) { // Look at all the hops to this step;
             if (hi.getToStep() != null && hi.isEnabled() && hi.getToStep().equals(stepMeta)) {
                 if (info || !isStepInformative(stepMeta, hi.getFromStep())) {
                     if (count == nr) {
@@ -1402,7 +1433,7 @@ public class TransMeta extends AbstractMeta
     public List<StepMeta> findPreviousSteps(StepMeta stepMeta, boolean info) {
         List<StepMeta> previousSteps = new ArrayList<>();
 
-        for (TransHopMeta hi : hops) {
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(stepMeta)) {
             if (hi.getToStep() != null && hi.isEnabled() && hi.getToStep().equals(stepMeta)) {
                 // Check if this previous step isn't informative (StreamValueLookup)
                 // We don't want fields from this stream to show up!
@@ -1448,12 +1479,7 @@ public class TransMeta extends AbstractMeta
 
         int count = 0;
 
-        for (int i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hi = getTransHop(i);
-            if (hi == null || hi.getToStep() == null) {
-                log.logError(BaseMessages.getString(PKG, "TransMeta.Log.DestinationOfHopCannotBeNull"));
-            }
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(stepMeta)) { // Look at all the hops to this step;
             if (hi != null && hi.getToStep() != null && hi.isEnabled() && hi.getToStep().equals(stepMeta)) {
                 // Check if this previous step isn't informative (StreamValueLookup)
                 // We don't want fields from this stream to show up!
@@ -1484,9 +1510,7 @@ public class TransMeta extends AbstractMeta
      * @throws KettleStepException the kettle step exception
      */
     public RowMetaInterface getPrevInfoFields(StepMeta stepMeta) throws KettleStepException {
-        for (int i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-            TransHopMeta hi = getTransHop(i);
-
+        for (TransHopMeta hi : getGraphIndex().getHopsTo(stepMeta)) { // Look at all the hops to this step;
             if (hi.isEnabled() && hi.getToStep().equals(stepMeta)) {
                 StepMeta infoStep = hi.getFromStep();
                 if (isStepInformative(stepMeta, infoStep)) {
@@ -1508,10 +1532,7 @@ public class TransMeta extends AbstractMeta
     @Deprecated
     public int findNrNextSteps(StepMeta stepMeta) {
         int count = 0;
-        int i;
-        for (i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(stepMeta)) { // Look at all the hops from this step;
             if (hi.isEnabled() && hi.getFromStep().equals(stepMeta)) {
                 count++;
             }
@@ -1530,11 +1551,8 @@ public class TransMeta extends AbstractMeta
     @Deprecated
     public StepMeta findNextStep(StepMeta stepMeta, int nr) {
         int count = 0;
-        int i;
 
-        for (i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(stepMeta)) { // Look at all the hops from this step;
             if (hi.isEnabled() && hi.getFromStep().equals(stepMeta)) {
                 if (count == nr) {
                     return hi.getToStep();
@@ -1553,9 +1571,7 @@ public class TransMeta extends AbstractMeta
      */
     public StepMeta[] getPrevSteps(StepMeta stepMeta) {
         List<StepMeta> prevSteps = new ArrayList<>();
-        for (int i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hopMeta = getTransHop(i);
+        for (TransHopMeta hopMeta : getGraphIndex().getHopsTo(stepMeta)) { // Look at all the hops to this step;
             if (hopMeta.isEnabled() && hopMeta.getToStep().equals(stepMeta)) {
                 prevSteps.add(hopMeta.getFromStep());
             }
@@ -1600,9 +1616,7 @@ public class TransMeta extends AbstractMeta
     @Deprecated
     public StepMeta[] getNextSteps(StepMeta stepMeta) {
         List<StepMeta> nextSteps = new ArrayList<>();
-        for (int i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(stepMeta)) { // Look at all the hops from this step;
             if (hi.isEnabled() && hi.getFromStep().equals(stepMeta)) {
                 nextSteps.add(hi.getToStep());
             }
@@ -1619,9 +1633,7 @@ public class TransMeta extends AbstractMeta
      */
     public List<StepMeta> findNextSteps(StepMeta stepMeta) {
         List<StepMeta> nextSteps = new ArrayList<>();
-        for (int i = 0; i < nrTransHops(); i++) { // Look at all the hops;
-
-            TransHopMeta hi = getTransHop(i);
+        for (TransHopMeta hi : getGraphIndex().getHopsFrom(stepMeta)) { // Look at all the hops from this step;
             if (hi.isEnabled() && hi.getFromStep().equals(stepMeta)) {
                 nextSteps.add(hi.getToStep());
             }
@@ -1770,7 +1782,7 @@ public class TransMeta extends AbstractMeta
         String fromToCacheEntry = stepMeta.getName() + (targetStep != null ? ("-" + targetStep.getName()) : "");
         RowMetaInterface rowMeta = stepsFieldsCache.get(fromToCacheEntry);
         if (rowMeta != null) {
-            return rowMeta;
+            return toStepFields(rowMeta);
         }
 
         // See if the step is sending ERROR rows to the specified target step.
@@ -1789,7 +1801,7 @@ public class TransMeta extends AbstractMeta
             //
             stepsFieldsCache.put(fromToCacheEntry, row);
 
-            return row;
+            return toStepFields(row);
         }
 
         // Resume the regular program...
@@ -1850,7 +1862,43 @@ public class TransMeta extends AbstractMeta
         //
         stepsFieldsCache.put(fromToCacheEntry, rowMeta);
 
-        return rowMeta;
+        return toStepFields(rowMeta);
+    }
+
+    /**
+     * Cached fields are shared by all step copies when the memo is active, so each caller gets its own copy.
+     */
+    private RowMetaInterface toStepFields(RowMetaInterface rowMeta) {
+        return isStepFieldsMemoActive() ? rowMeta.clone() : rowMeta;
+    }
+
+    /**
+     * Keep the step fields cache until {@link #endStepFieldsMemo()}, instead of clearing it on every call of
+     * {@link #getStepFields(StepMeta, ProgressMonitorListener)} or {@link #getPrevStepFields(StepMeta)}. Fields of a
+     * step are then calculated once per run, no matter how many step copies are asking for them during initialization.
+     * <p>
+     * Calls can be nested, for example when the same meta is used by several transformations at the same time. Changes
+     * made to steps or hops in the meantime won't be reflected, so do not use it when editing a transformation.
+     */
+    public void beginStepFieldsMemo() {
+        stepFieldsMemoUsers.incrementAndGet();
+    }
+
+    /**
+     * Counterpart of {@link #beginStepFieldsMemo()}, the step fields cache is cleared when the last user is gone.
+     */
+    public void endStepFieldsMemo() {
+        int users = stepFieldsMemoUsers.updateAndGet(v -> v > 0 ? v - 1 : 0);
+        if (users == 0) {
+            stepsFieldsCache.clear();
+        }
+    }
+
+    /**
+     * @return true if the step fields cache is shared, see {@link #beginStepFieldsMemo()}
+     */
+    public boolean isStepFieldsMemoActive() {
+        return stepFieldsMemoUsers.get() > 0;
     }
 
     /**
@@ -2358,6 +2406,7 @@ public class TransMeta extends AbstractMeta
         retval.append("    ").append(XMLHandler.closeTag("maxdate")).append(Const.CR);
 
         retval.append("    ").append(XMLHandler.addTagValue("size_rowset", sizeRowset));
+        retval.append("    ").append(XMLHandler.addTagValue("pooled_step_execution", pooledStepExecution));
 
         retval.append("    ").append(XMLHandler.addTagValue("sleep_time_empty", sleepTimeEmpty));
         retval.append("    ").append(XMLHandler.addTagValue("sleep_time_full", sleepTimeFull));
@@ -2797,7 +2846,8 @@ public class TransMeta extends AbstractMeta
                 // Handle connections
                 boolean isPur = ResourceDefinitionHelper.isPentahoRepository(rep);
 
-                int n = XMLHandler.countNodes(transnode, DatabaseMeta.XML_TAG);
+                List<Node> nodecons = XMLHandler.getNodes(transnode, DatabaseMeta.XML_TAG);
+                int n = nodecons.size();
                 Set<String> privateTransformationDatabases = new HashSet<>(n);
                 if (log.isDebug()) {
                     log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.WeHaveConnections", String.valueOf(n)));
@@ -2806,7 +2856,7 @@ public class TransMeta extends AbstractMeta
                     if (log.isDebug()) {
                         log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.LookingAtConnection") + i);
                     }
-                    Node nodecon = XMLHandler.getSubNodeByNr(transnode, DatabaseMeta.XML_TAG, i);
+                    Node nodecon = nodecons.get(i);
 
                     DatabaseMeta dbcon = new DatabaseMeta(nodecon);
                     if (isPur && !(dbcon.getAccessType() == DatabaseMeta.TYPE_ACCESS_JNDI
@@ -2838,21 +2888,23 @@ public class TransMeta extends AbstractMeta
 
                 // Read the notes...
                 Node notepadsnode = XMLHandler.getSubNode(transnode, XML_TAG_NOTEPADS);
-                int nrnotes = XMLHandler.countNodes(notepadsnode, NotePadMeta.XML_TAG);
+                List<Node> notepadnodes = XMLHandler.getNodes(notepadsnode, NotePadMeta.XML_TAG);
+                int nrnotes = notepadnodes.size();
                 for (int i = 0; i < nrnotes; i++) {
-                    Node notepadnode = XMLHandler.getSubNodeByNr(notepadsnode, NotePadMeta.XML_TAG, i);
+                    Node notepadnode = notepadnodes.get(i);
                     NotePadMeta ni = new NotePadMeta(notepadnode);
                     notes.add(ni);
                 }
 
                 // Handle Steps
-                int s = XMLHandler.countNodes(transnode, StepMeta.XML_TAG);
+                List<Node> stepnodes = XMLHandler.getNodes(transnode, StepMeta.XML_TAG);
+                int s = stepnodes.size();
 
                 if (log.isDebug()) {
                     log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.ReadingSteps") + s + " steps...");
                 }
                 for (int i = 0; i < s; i++) {
-                    Node stepnode = XMLHandler.getSubNodeByNr(transnode, StepMeta.XML_TAG, i);
+                    Node stepnode = stepnodes.get(i);
 
                     if (log.isDebug()) {
                         log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.LookingAtStep") + i);
@@ -2886,9 +2938,19 @@ public class TransMeta extends AbstractMeta
                 // Read the error handling code of the steps...
                 //
                 Node errorHandlingNode = XMLHandler.getSubNode(transnode, XML_TAG_STEP_ERROR_HANDLING);
-                int nrErrorHandlers = XMLHandler.countNodes(errorHandlingNode, StepErrorMeta.XML_ERROR_TAG);
+                List<Node> stepErrorMetaNodes = XMLHandler.getNodes(errorHandlingNode, StepErrorMeta.XML_ERROR_TAG);
+                int nrErrorHandlers = stepErrorMetaNodes.size();
+                // source and target of all error handlers, so that error hops can be identified in one pass
+                Set<String> errorHops = new HashSet<>(nrErrorHandlers);
+                for (Node stepErrorMetaNode : stepErrorMetaNodes) {
+                    String hopKey = getHopKey(stepErrorMetaNode,
+                            StepErrorMeta.XML_SOURCE_STEP_TAG, StepErrorMeta.XML_TARGET_STEP_TAG);
+                    if (hopKey != null) {
+                        errorHops.add(hopKey);
+                    }
+                }
                 for (int i = 0; i < nrErrorHandlers; i++) {
-                    Node stepErrorMetaNode = XMLHandler.getSubNodeByNr(errorHandlingNode, StepErrorMeta.XML_ERROR_TAG, i);
+                    Node stepErrorMetaNode = stepErrorMetaNodes.get(i);
                     StepErrorMeta stepErrorMeta = new StepErrorMeta(this, stepErrorMetaNode, steps);
                     if (stepErrorMeta.getSourceStep() != null) {
                         stepErrorMeta.getSourceStep().setStepErrorMeta(stepErrorMeta); // a bit of a trick, I know.
@@ -2908,7 +2970,8 @@ public class TransMeta extends AbstractMeta
                 // Handle Hops
                 //
                 Node ordernode = XMLHandler.getSubNode(transnode, XML_TAG_ORDER);
-                n = XMLHandler.countNodes(ordernode, TransHopMeta.XML_HOP_TAG);
+                List<Node> hopnodes = XMLHandler.getNodes(ordernode, TransHopMeta.XML_HOP_TAG);
+                n = hopnodes.size();
 
                 if (log.isDebug()) {
                     log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.WeHaveHops") + n + " hops...");
@@ -2917,10 +2980,11 @@ public class TransMeta extends AbstractMeta
                     if (log.isDebug()) {
                         log.logDebug(BaseMessages.getString(PKG, "TransMeta.Log.LookingAtHop") + i);
                     }
-                    Node hopnode = XMLHandler.getSubNodeByNr(ordernode, TransHopMeta.XML_HOP_TAG, i);
+                    Node hopnode = hopnodes.get(i);
 
                     TransHopMeta hopinf = new TransHopMeta(hopnode, steps);
-                    hopinf.setErrorHop(isErrorNode(errorHandlingNode, hopnode));
+                    String hopKey = getHopKey(hopnode, TransHopMeta.XML_FROM_TAG, TransHopMeta.XML_TO_TAG);
+                    hopinf.setErrorHop(hopKey != null && errorHops.contains(hopKey));
                     addTransHop(hopinf);
                 }
 
@@ -3037,10 +3101,11 @@ public class TransMeta extends AbstractMeta
                 // If the date is larger then enddate, startdate is set to MIN_DATE
                 //
                 Node depsNode = XMLHandler.getSubNode(infonode, XML_TAG_DEPENDENCIES);
-                int nrDeps = XMLHandler.countNodes(depsNode, TransDependency.XML_TAG);
+                List<Node> depNodes = XMLHandler.getNodes(depsNode, TransDependency.XML_TAG);
+                int nrDeps = depNodes.size();
 
                 for (int i = 0; i < nrDeps; i++) {
-                    Node depNode = XMLHandler.getSubNodeByNr(depsNode, TransDependency.XML_TAG, i);
+                    Node depNode = depNodes.get(i);
 
                     TransDependency transDependency = new TransDependency(depNode, databases);
                     if (transDependency.getDatabase() != null && transDependency.getFieldname() != null) {
@@ -3050,10 +3115,11 @@ public class TransMeta extends AbstractMeta
 
                 // Read the named parameters.
                 Node paramsNode = XMLHandler.getSubNode(infonode, XML_TAG_PARAMETERS);
-                int nrParams = XMLHandler.countNodes(paramsNode, "parameter");
+                List<Node> paramNodes = XMLHandler.getNodes(paramsNode, "parameter");
+                int nrParams = paramNodes.size();
 
                 for (int i = 0; i < nrParams; i++) {
-                    Node paramNode = XMLHandler.getSubNodeByNr(paramsNode, "parameter", i);
+                    Node paramNode = paramNodes.get(i);
 
                     String paramName = XMLHandler.getTagValue(paramNode, "name");
                     String defaultValue = XMLHandler.getTagValue(paramNode, "default_value");
@@ -3065,9 +3131,10 @@ public class TransMeta extends AbstractMeta
                 // Read the partitioning schemas
                 //
                 Node partSchemasNode = XMLHandler.getSubNode(infonode, XML_TAG_PARTITIONSCHEMAS);
-                int nrPartSchemas = XMLHandler.countNodes(partSchemasNode, PartitionSchema.XML_TAG);
+                List<Node> partSchemaNodes = XMLHandler.getNodes(partSchemasNode, PartitionSchema.XML_TAG);
+                int nrPartSchemas = partSchemaNodes.size();
                 for (int i = 0; i < nrPartSchemas; i++) {
-                    Node partSchemaNode = XMLHandler.getSubNodeByNr(partSchemasNode, PartitionSchema.XML_TAG, i);
+                    Node partSchemaNode = partSchemaNodes.get(i);
                     PartitionSchema partitionSchema = new PartitionSchema(partSchemaNode);
 
                     // Check if the step exists and if it's a shared step.
@@ -3106,9 +3173,10 @@ public class TransMeta extends AbstractMeta
                 // Read the slave servers...
                 //
                 Node slaveServersNode = XMLHandler.getSubNode(infonode, XML_TAG_SLAVESERVERS);
-                int nrSlaveServers = XMLHandler.countNodes(slaveServersNode, SlaveServer.XML_TAG);
+                List<Node> slaveServerNodes = XMLHandler.getNodes(slaveServersNode, SlaveServer.XML_TAG);
+                int nrSlaveServers = slaveServerNodes.size();
                 for (int i = 0; i < nrSlaveServers; i++) {
-                    Node slaveServerNode = XMLHandler.getSubNodeByNr(slaveServersNode, SlaveServer.XML_TAG, i);
+                    Node slaveServerNode = slaveServerNodes.get(i);
                     SlaveServer slaveServer = new SlaveServer(slaveServerNode);
                     slaveServer.shareVariablesWith(this);
 
@@ -3133,9 +3201,10 @@ public class TransMeta extends AbstractMeta
                 // Read the cluster schemas
                 //
                 Node clusterSchemasNode = XMLHandler.getSubNode(infonode, XML_TAG_CLUSTERSCHEMAS);
-                int nrClusterSchemas = XMLHandler.countNodes(clusterSchemasNode, ClusterSchema.XML_TAG);
+                List<Node> clusterSchemaNodes = XMLHandler.getNodes(clusterSchemasNode, ClusterSchema.XML_TAG);
+                int nrClusterSchemas = clusterSchemaNodes.size();
                 for (int i = 0; i < nrClusterSchemas; i++) {
-                    Node clusterSchemaNode = XMLHandler.getSubNodeByNr(clusterSchemasNode, ClusterSchema.XML_TAG, i);
+                    Node clusterSchemaNode = clusterSchemaNodes.get(i);
                     ClusterSchema clusterSchema = new ClusterSchema(clusterSchemaNode, slaveServers);
                     clusterSchema.shareVariablesWith(this);
 
@@ -3165,6 +3234,7 @@ public class TransMeta extends AbstractMeta
 
                 String srowset = XMLHandler.getTagValue(infonode, "size_rowset");
                 sizeRowset = Const.toInt(srowset, Const.ROWS_IN_ROWSET);
+                pooledStepExecution = "Y".equalsIgnoreCase(XMLHandler.getTagValue(infonode, "pooled_step_execution"));
                 sleepTimeEmpty =
                         Const.toInt(XMLHandler.getTagValue(infonode, "sleep_time_empty"), Const.TIMEOUT_GET_MILLIS);
                 sleepTimeFull = Const.toInt(XMLHandler.getTagValue(infonode, "sleep_time_full"), Const.TIMEOUT_PUT_MILLIS);
@@ -3296,18 +3366,17 @@ public class TransMeta extends AbstractMeta
      */
     public List<StepMeta> getTransHopSteps(boolean all) {
         List<StepMeta> st = new ArrayList<>();
-        int idx;
+        // names of steps already in the list, instead of searching the list again and again
+        Set<String> added = new HashSet<>();
 
         for (int x = 0; x < nrTransHops(); x++) {
             TransHopMeta hi = getTransHop(x);
             if (hi.isEnabled() || all) {
-                idx = st.indexOf(hi.getFromStep()); // FROM
-                if (idx < 0) {
+                if (added.add(TransGraphIndex.toKey(hi.getFromStep()))) { // FROM
                     st.add(hi.getFromStep());
                 }
 
-                idx = st.indexOf(hi.getToStep()); // TO
-                if (idx < 0) {
+                if (added.add(TransGraphIndex.toKey(hi.getToStep()))) { // TO
                     st.add(hi.getToStep());
                 }
             }
@@ -3318,9 +3387,10 @@ public class TransMeta extends AbstractMeta
             StepMeta stepMeta = getStep(x);
             if (stepMeta.isDrawn() && !isStepUsedInTransHops(stepMeta)) {
                 st.add(stepMeta);
+                added.add(TransGraphIndex.toKey(stepMeta));
             }
             if (!stepMeta.getRemoteInputSteps().isEmpty() || !stepMeta.getRemoteOutputSteps().isEmpty()) {
-                if (!st.contains(stepMeta)) {
+                if (added.add(TransGraphIndex.toKey(stepMeta))) {
                     st.add(stepMeta);
                 }
             }
@@ -3489,37 +3559,23 @@ public class TransMeta extends AbstractMeta
         return false;
     }
 
-    private boolean isErrorNode(Node errorHandingNode, Node checkNode) {
-        if (errorHandingNode != null) {
-            NodeList errors = errorHandingNode.getChildNodes();
-
-            Node nodeHopFrom = XMLHandler.getSubNode(checkNode, TransHopMeta.XML_FROM_TAG);
-            Node nodeHopTo = XMLHandler.getSubNode(checkNode, TransHopMeta.XML_TO_TAG);
-
-            int i = 0;
-            while (i < errors.getLength()) {
-
-                Node errorNode = errors.item(i);
-
-                if (!StepErrorMeta.XML_ERROR_TAG.equals(errorNode.getNodeName())) {
-                    i++;
-                    continue;
-                }
-
-                Node errorSourceNode = XMLHandler.getSubNode(errorNode, StepErrorMeta.XML_SOURCE_STEP_TAG);
-                Node errorTagetNode = XMLHandler.getSubNode(errorNode, StepErrorMeta.XML_TARGET_STEP_TAG);
-
-                String sourceContent = errorSourceNode.getTextContent().trim();
-                String tagetContent = errorTagetNode.getTextContent().trim();
-
-                if (sourceContent.equals(nodeHopFrom.getTextContent().trim())
-                        && tagetContent.equals(nodeHopTo.getTextContent().trim())) {
-                    return true;
-                }
-                i++;
-            }
+    /**
+     * Builds the key of a hop or an error handler node, from its source and target step names.
+     *
+     * @param node    hop or error handler node
+     * @param fromTag tag of the source step name
+     * @param toTag   tag of the target step name
+     * @return key of the hop, or null if either name is missing
+     */
+    private static String getHopKey(Node node, String fromTag, String toTag) {
+        Node fromNode = XMLHandler.getSubNode(node, fromTag);
+        Node toNode = XMLHandler.getSubNode(node, toTag);
+        if (fromNode == null || toNode == null) {
+            return null;
         }
-        return false;
+
+        return new StringBuilder().append(fromNode.getTextContent().trim())
+                .append('\n').append(toNode.getTextContent().trim()).toString();
     }
 
     /**
@@ -3851,6 +3907,7 @@ public class TransMeta extends AbstractMeta
     public void sortSteps() {
         try {
             Collections.sort(steps);
+            clearGraphIndex();
         } catch (Exception e) {
             log.logError(BaseMessages.getString(PKG, "TransMeta.Exception.ErrorOfSortingSteps") + e);
             log.logError(Const.getStackTracker(e));
@@ -3862,6 +3919,7 @@ public class TransMeta extends AbstractMeta
      */
     public void sortHops() {
         Collections.sort(hops);
+        clearGraphIndex();
     }
 
     /**
@@ -3872,65 +3930,75 @@ public class TransMeta extends AbstractMeta
     /**
      * Puts the steps in a more natural order: from start to finish. For the moment, we ignore splits and joins. Splits
      * and joins can't be listed sequentially in any case!
+     * <p>
+     * Without loops the steps simply follow the enabled hops, and steps independent of each other are ordered by name.
+     * The map of previous steps is only needed to sort transformations with loops, so it's only filled for them.
      *
-     * @return a map containing all the previous steps per step
+     * @return a map containing all the previous steps per step when there's a loop, otherwise an empty map
      */
     public Map<StepMeta, Map<StepMeta, Boolean>> sortStepsNatural() {
         long startTime = System.currentTimeMillis();
 
         prevCount = 0;
 
-        // First create a map where all the previous steps of another step are kept...
-        //
         final Map<StepMeta, Map<StepMeta, Boolean>> stepMap = new HashMap<>();
 
-        // Also cache the previous steps
-        //
-        final Map<StepMeta, List<StepMeta>> previousCache = new HashMap<>();
-
-        // Cache calculation of steps before another
-        //
-        Map<StepMeta, Map<StepMeta, Boolean>> beforeCache = new HashMap<>();
-
-        for (StepMeta stepMeta : steps) {
-            // What are the previous steps? (cached version for performance)
+        List<StepMeta> sortedSteps = getGraphIndex().getSortedSteps();
+        if (sortedSteps != null) {
+            // no loop, so the steps can simply follow the hops
+            List<StepMeta> ordered = new ArrayList<>(sortedSteps);
+            steps.clear();
+            steps.addAll(ordered);
+        } else {
+            // Also cache the previous steps
             //
-            List<StepMeta> prevSteps = previousCache.get(stepMeta);
-            if (prevSteps == null) {
-                prevSteps = findPreviousSteps(stepMeta);
-                prevCount++;
-                previousCache.put(stepMeta, prevSteps);
-            }
+            final Map<StepMeta, List<StepMeta>> previousCache = new HashMap<>();
 
-            // Now get the previous steps recursively, store them in the step map
+            // Cache calculation of steps before another
             //
-            for (StepMeta prev : prevSteps) {
-                Map<StepMeta, Boolean> beforePrevMap = updateFillStepMap(previousCache, beforeCache, stepMeta, prev);
-                stepMap.put(stepMeta, beforePrevMap);
+            Map<StepMeta, Map<StepMeta, Boolean>> beforeCache = new HashMap<>();
+
+            for (StepMeta stepMeta : steps) {
+                // What are the previous steps? (cached version for performance)
+                //
+                List<StepMeta> prevSteps = previousCache.get(stepMeta);
+                if (prevSteps == null) {
+                    prevSteps = findPreviousSteps(stepMeta);
+                    prevCount++;
+                    previousCache.put(stepMeta, prevSteps);
+                }
 
-                // Store it also in the beforeCache...
+                // Now get the previous steps recursively, store them in the step map
                 //
-                beforeCache.put(prev, beforePrevMap);
+                for (StepMeta prev : prevSteps) {
+                    Map<StepMeta, Boolean> beforePrevMap = updateFillStepMap(previousCache, beforeCache, stepMeta, prev);
+                    stepMap.put(stepMeta, beforePrevMap);
+
+                    // Store it also in the beforeCache...
+                    //
+                    beforeCache.put(prev, beforePrevMap);
+                }
             }
-        }
 
-        Collections.sort(steps, new Comparator<StepMeta>() {
+            Collections.sort(steps, new Comparator<StepMeta>() {
 
-            @Override
-            public int compare(StepMeta o1, StepMeta o2) {
+                @Override
+                public int compare(StepMeta o1, StepMeta o2) {
 
-                Map<StepMeta, Boolean> beforeMap = stepMap.get(o1);
-                if (beforeMap != null) {
-                    if (beforeMap.get(o2) == null) {
-                        return -1;
+                    Map<StepMeta, Boolean> beforeMap = stepMap.get(o1);
+                    if (beforeMap != null) {
+                        if (beforeMap.get(o2) == null) {
+                            return -1;
+                        } else {
+                            return 1;
+                        }
                     } else {
-                        return 1;
+                        return o1.getName().compareToIgnoreCase(o2.getName());
                     }
-                } else {
-                    return o1.getName().compareToIgnoreCase(o2.getName());
                 }
-            }
-        });
+            });
+        }
+        clearGraphIndex();
 
         long endTime = System.currentTimeMillis();
         log.logBasic(
@@ -4725,6 +4793,28 @@ public class TransMeta extends AbstractMeta
         this.sizeRowset = sizeRowset;
     }
 
+    /**
+     * Checks whether steps should run in pooled threads instead of one new thread per step copy. Variable
+     * KETTLE_TRANS_POOLED_STEP_EXECUTION(Y/N) overrides the setting of the transformation.
+     *
+     * @return true if pooled step execution is enabled
+     */
+    public boolean isPooledStepExecution() {
+        String pooled = getVariable("KETTLE_TRANS_POOLED_STEP_EXECUTION");
+        if (Utils.isEmpty(pooled)) {
+            return pooledStepExecution;
+        } else {
+            return "Y".equalsIgnoreCase(pooled);
+        }
+    }
+
+    /**
+     * @param pooledStepExecution true to run steps in pooled threads
+     */
+    public void setPooledStepExecution(boolean pooledStepExecution) {
+        this.pooledStepExecution = pooledStepExecution;
+    }
+
     /**
      * Gets the database cache object.
      *
@@ -5724,15 +5814,49 @@ public class TransMeta extends AbstractMeta
      * Clears the step fields and loop caches.
      */
     public void clearCaches() {
-        clearStepFieldsCachce();
+        stepsFieldsCache.clear();
         clearLoopCache();
+        clearGraphIndex();
+    }
+
+    /**
+     * Gets index of steps and hops, (re)build it when it's not there or out of date.
+     *
+     * @return index of steps and hops
+     */
+    private TransGraphIndex getGraphIndex() {
+        TransGraphIndex index = graphIndex;
+        if (index == null || !index.isValid(steps, hops)) {
+            index = new TransGraphIndex(steps, hops);
+            graphIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Drops index of steps and hops, it will be rebuilt on next use.
+     */
+    private void clearGraphIndex() {
+        graphIndex = null;
+    }
+
+    /**
+     * Hops might have been edited in place, so the index of steps and hops is dropped as well.
+     */
+    @Override
+    public void setChanged() {
+        clearGraphIndex();
+        super.setChanged();
     }
 
     /**
      * Clears the step fields cachce.
      */
     private void clearStepFieldsCachce() {
-        stepsFieldsCache.clear();
+        // fields calculated by other step copies are still good
+        if (!isStepFieldsMemoActive()) {
+            stepsFieldsCache.clear();
+        }
     }
 
     /**
@@ -5995,6 +6119,8 @@ public class TransMeta extends AbstractMeta
     }
 
     public void notifyAllListeners(StepMeta oldMeta, StepMeta newMeta) {
+        // the step might be renamed
+        clearGraphIndex();
         for (StepMetaChangeListenerInterface listener : stepChangeListeners) {
             listener.onStepChange(this, oldMeta, newMeta);
         }
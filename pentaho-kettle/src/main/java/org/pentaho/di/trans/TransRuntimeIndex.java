@@ -0,0 +1,174 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans;
+
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable index of running step copies and row sets of a transformation. Names are case-insensitive, and the first
+ * match wins, just like a linear search through the lists.
+ *
+ * @author Zhichun Wu
+ */
+final class TransRuntimeIndex {
+    static final class StepEntry {
+        final List<StepMetaDataCombi> combis = new ArrayList<StepMetaDataCombi>(1);
+        // copy number -> first step copy with the number
+        StepMetaDataCombi[] byCopy = new StepMetaDataCombi[0];
+        List<StepInterface> stepInterfaces;
+    }
+
+    private final List<StepMetaDataCombi> steps;
+    private final int stepCount;
+    private final List<RowSet> rowsets;
+    private final int rowSetCount;
+
+    private final Map<String, StepEntry> stepsByName;
+    private final Map<String, RowSet> rowSetsByName;
+    private final Map<String, RowSet> rowSetsByCopies;
+
+    /**
+     * Same folding as {@link String#equalsIgnoreCase(String)}.
+     *
+     * @param name name of a step or row set
+     * @return case-folded name
+     */
+    static String fold(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    static String rowSetKey(String from, int fromCopy, String to, int toCopy) {
+        return new StringBuilder().append(fold(from)).append('\u0000').append(fromCopy).append('\u0000')
+                .append(fold(to)).append('\u0000').append(toCopy).toString();
+    }
+
+    TransRuntimeIndex(List<StepMetaDataCombi> steps, List<RowSet> rowsets) {
+        this.steps = steps;
+        this.stepCount = steps == null ? 0 : steps.size();
+        this.rowsets = rowsets;
+        this.rowSetCount = rowsets == null ? 0 : rowsets.size();
+
+        Map<String, StepEntry> stepsByName = new HashMap<String, StepEntry>();
+        for (int i = 0; i < stepCount; i++) {
+            StepMetaDataCombi combi = steps.get(i);
+            String name = combi.step == null ? combi.stepname : combi.step.getStepname();
+            if (name == null) {
+                continue;
+            }
+
+            String key = fold(name);
+            StepEntry entry = stepsByName.get(key);
+            if (entry == null) {
+                entry = new StepEntry();
+                stepsByName.put(key, entry);
+            }
+            entry.combis.add(combi);
+
+            int copy = combi.copy;
+            if (copy >= 0) {
+                if (copy >= entry.byCopy.length) {
+                    entry.byCopy = Arrays.copyOf(entry.byCopy, copy + 1);
+                }
+                if (entry.byCopy[copy] == null) {
+                    entry.byCopy[copy] = combi;
+                }
+            }
+        }
+        for (StepEntry entry : stepsByName.values()) {
+            List<StepInterface> stepInterfaces = new ArrayList<StepInterface>(entry.combis.size());
+            for (StepMetaDataCombi combi : entry.combis) {
+                stepInterfaces.add(combi.step);
+            }
+            entry.stepInterfaces = Collections.unmodifiableList(stepInterfaces);
+        }
+        this.stepsByName = stepsByName;
+
+        Map<String, RowSet> rowSetsByName = new HashMap<String, RowSet>();
+        Map<String, RowSet> rowSetsByCopies = new HashMap<String, RowSet>();
+        for (int i = 0; i < rowSetCount; i++) {
+            RowSet rowSet = rowsets.get(i);
+            if (rowSet.getName() != null) {
+                String key = fold(rowSet.getName());
+                if (!rowSetsByName.containsKey(key)) {
+                    rowSetsByName.put(key, rowSet);
+                }
+            }
+            if (rowSet.getOriginStepName() != null && rowSet.getDestinationStepName() != null) {
+                String key = rowSetKey(rowSet.getOriginStepName(), rowSet.getOriginStepCopy(),
+                        rowSet.getDestinationStepName(), rowSet.getDestinationStepCopy());
+                if (!rowSetsByCopies.containsKey(key)) {
+                    rowSetsByCopies.put(key, rowSet);
+                }
+            }
+        }
+        this.rowSetsByName = rowSetsByName;
+        this.rowSetsByCopies = rowSetsByCopies;
+    }
+
+    /**
+     * Checks whether this index still reflects the given lists. Lists sorted in place must be invalidated explicitly.
+     */
+    boolean isValidFor(List<StepMetaDataCombi> steps, List<RowSet> rowsets) {
+        return this.steps == steps && this.rowsets == rowsets
+                && stepCount == (steps == null ? 0 : steps.size())
+                && rowSetCount == (rowsets == null ? 0 : rowsets.size());
+    }
+
+    /**
+     * @param stepname step name
+     * @return all copies of the step in order, or an empty list
+     */
+    List<StepMetaDataCombi> getCombis(String stepname) {
+        StepEntry entry = stepname == null ? null : stepsByName.get(fold(stepname));
+        return entry == null ? Collections.<StepMetaDataCombi>emptyList() : entry.combis;
+    }
+
+    List<StepInterface> getStepInterfaces(String stepname) {
+        StepEntry entry = stepname == null ? null : stepsByName.get(fold(stepname));
+        return entry == null ? Collections.<StepInterface>emptyList() : entry.stepInterfaces;
+    }
+
+    StepMetaDataCombi getFirstCombi(String stepname) {
+        List<StepMetaDataCombi> combis = getCombis(stepname);
+        return combis.isEmpty() ? null : combis.get(0);
+    }
+
+    StepMetaDataCombi getCombi(String stepname, int copy) {
+        StepEntry entry = stepname == null ? null : stepsByName.get(fold(stepname));
+        return entry == null || copy < 0 || copy >= entry.byCopy.length ? null : entry.byCopy[copy];
+    }
+
+    RowSet getRowSet(String rowsetname) {
+        return rowsetname == null ? null : rowSetsByName.get(fold(rowsetname));
+    }
+
+    RowSet getRowSet(String from, int fromcopy, String to, int tocopy) {
+        return from == null || to == null ? null : rowSetsByCopies.get(rowSetKey(from, fromcopy, to, tocopy));
+    }
+}
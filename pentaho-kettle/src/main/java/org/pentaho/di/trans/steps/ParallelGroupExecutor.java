@@ -0,0 +1,504 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.ResultFile;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.parameters.NamedParams;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.core.util.Utils;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.StepThreadPool;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Base of executor steps running several groups of rows at the same time, each in its own transformation or job.
+ * Groups are formed by size, field or time just like the sequential executors. Executions run in pooled threads,
+ * while all rows are passed on by the step thread, either in the order of the groups or as soon as a group is done.
+ * At most "parallelism" groups are in flight, the step stops reading input until one of them is passed on.
+ * <p>
+ * Each group runs in one of "parallelism" worker slots, so that metadata which can't be shared by concurrent
+ * executions is copied once per slot and reused by the groups running in it one after another.
+ *
+ * @param <E> transformation or job executing a group
+ * @author Zhichun Wu
+ */
+public abstract class ParallelGroupExecutor<E> extends BaseStep implements StepInterface {
+    protected static final class Group<E> {
+        final int nr;
+        final int slot;
+        final List<RowMetaAndData> rows;
+        final long startTime;
+
+        E executor;
+        volatile long finishTime;
+        Result result;
+        Future<?> future;
+
+        Group(int nr, int slot, List<RowMetaAndData> rows) {
+            this.nr = nr;
+            this.slot = slot;
+            this.rows = rows;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public List<RowMetaAndData> getRows() {
+            return rows;
+        }
+
+        public E getExecutor() {
+            return executor;
+        }
+
+        /**
+         * Record the time execution finished, unless already recorded.
+         */
+        public void finish() {
+            if (finishTime == 0L) {
+                finishTime = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * @return milliseconds spent on execution, not including the time waiting to be passed on
+         */
+        public long getExecutionTime() {
+            return (finishTime > 0L ? finishTime : System.currentTimeMillis()) - startTime;
+        }
+    }
+
+    private final Class<?> pkg;
+    // prefix of i18n keys, e.g. TransExecutor
+    private final String messagePrefix;
+    private final int parallelism;
+    private final boolean keepOrder;
+
+    private int groupSize;
+    private long groupTime;
+    private long groupTimeStart;
+    private String groupField;
+    private int groupFieldIndex = -1;
+    private ValueMetaInterface groupFieldMeta;
+    private Object prevGroupFieldData;
+    private List<RowMetaAndData> groupBuffer;
+    private int groupNr = 0;
+
+    // groups in flight, in the order they were started
+    private final Deque<Group<E>> pending = new ArrayDeque<Group<E>>();
+    // finished groups, only used when order is not kept
+    private final BlockingQueue<Group<E>> completed = new LinkedBlockingQueue<Group<E>>();
+    private final Set<E> running = Collections.newSetFromMap(new ConcurrentHashMap<E, Boolean>());
+    private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+
+    protected ParallelGroupExecutor(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                                    TransMeta transMeta, Trans trans, Class<?> pkg, String messagePrefix,
+                                    int parallelism, boolean keepOrder) {
+        super(stepMeta, stepDataInterface, copyNr, transMeta, trans);
+
+        this.pkg = pkg;
+        this.messagePrefix = messagePrefix;
+        this.parallelism = Math.max(1, parallelism);
+        this.keepOrder = keepOrder;
+
+        for (int i = 0; i < this.parallelism; i++) {
+            freeSlots.addLast(i);
+        }
+    }
+
+    /**
+     * Called on the first row, typically to find output row sets.
+     */
+    protected abstract void prepareOutputs() throws KettleException;
+
+    /**
+     * Called for each input row before it's added to a group.
+     */
+    protected void passOnInputRow(Object[] row) throws KettleException {
+    }
+
+    /**
+     * Create the transformation or job for the group, with parameters set. Runs in the step thread.
+     */
+    protected abstract E createExecutor(Group<E> group) throws KettleException;
+
+    /**
+     * Execute the group. Runs in a pooled thread, must not touch row sets of this step.
+     *
+     * @return result of the execution, failures included
+     */
+    protected abstract Result execute(Group<E> group);
+
+    /**
+     * Pass on results of a finished group. Runs in the step thread.
+     */
+    protected abstract void collectResults(Group<E> group, Result result) throws KettleException;
+
+    protected abstract String getLogChannelId(E executor);
+
+    protected abstract void stopExecutor(E executor);
+
+    public boolean processRow(StepMetaInterface smi, StepDataInterface sdi) throws KettleException {
+        Object[] row = getRow();
+        if (row == null) {
+            submitGroup();
+            passOnResults(0);
+
+            setOutputDone();
+            return false;
+        }
+
+        if (first) {
+            first = false;
+            initOnFirstRow();
+        }
+
+        passOnInputRow(row);
+
+        // Grouping by field and execution time works ONLY if grouping by size is disabled.
+        if (groupSize < 0) {
+            if (groupFieldIndex >= 0) {
+                Object groupFieldData = row[groupFieldIndex];
+                if (prevGroupFieldData != null && groupFieldMeta.compare(prevGroupFieldData, groupFieldData) != 0) {
+                    submitGroup();
+                }
+                prevGroupFieldData = groupFieldData;
+            } else if (groupTime > 0 && System.currentTimeMillis() - groupTimeStart >= groupTime) {
+                submitGroup();
+            }
+        }
+
+        groupBuffer.add(new RowMetaAndData(getInputRowMeta(), row));
+
+        if (groupSize > 0 && groupBuffer.size() >= groupSize) {
+            submitGroup();
+        }
+
+        // pass on groups finished in the meantime, without waiting
+        passOnResults(parallelism);
+
+        return true;
+    }
+
+    private void initOnFirstRow() throws KettleException {
+        if (groupField != null) {
+            groupFieldIndex = getInputRowMeta().indexOfValue(groupField);
+            if (groupFieldIndex < 0) {
+                throw new KettleException(BaseMessages.getString(
+                        pkg, messagePrefix + ".Exception.GroupFieldNotFound", groupField));
+            }
+            groupFieldMeta = getInputRowMeta().getValueMeta(groupFieldIndex);
+        }
+
+        prepareOutputs();
+    }
+
+    /**
+     * Set up grouping, to be called by init() of the executor.
+     */
+    protected void initGrouping(String size, String field, String time) {
+        groupBuffer = new ArrayList<RowMetaAndData>();
+        groupSize = Utils.isEmpty(size) ? -1 : Const.toInt(environmentSubstitute(size), -1);
+        groupTime = Utils.isEmpty(time) ? -1 : Const.toInt(environmentSubstitute(time), -1);
+        groupTimeStart = System.currentTimeMillis();
+        groupField = Utils.isEmpty(field) ? null : environmentSubstitute(field);
+
+        if (log.isDetailed()) {
+            logDetailed(new StringBuilder().append("Executing up to ").append(parallelism)
+                    .append(" groups at the same time, results are passed on ")
+                    .append(keepOrder ? "in order" : "as soon as available").toString());
+        }
+    }
+
+    private void submitGroup() throws KettleException {
+        if (groupBuffer.isEmpty()) {
+            return;
+        }
+
+        // make room for the new group
+        passOnResults(parallelism - 1);
+        if (isStopped()) {
+            return;
+        }
+
+        final Group<E> group = new Group<E>(++groupNr, freeSlots.removeFirst(), groupBuffer);
+        groupBuffer = new ArrayList<RowMetaAndData>();
+        groupTimeStart = group.startTime;
+
+        try {
+            group.executor = createExecutor(group);
+        } catch (KettleException | RuntimeException e) {
+            freeSlots.addFirst(group.slot);
+            throw e;
+        }
+
+        running.add(group.executor);
+        group.future = StepThreadPool.submit(getStepname() + " - group " + group.nr, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    group.result = execute(group);
+                } finally {
+                    group.finish();
+                    running.remove(group.executor);
+                    if (!keepOrder) {
+                        completed.offer(group);
+                    }
+                }
+            }
+        });
+        pending.addLast(group);
+    }
+
+    /**
+     * Pass on results of finished groups, and wait until no more than the given number of groups are in flight.
+     *
+     * @param maxPending maximum number of groups left in flight
+     * @throws KettleException when failed to pass on results
+     */
+    private void passOnResults(int maxPending) throws KettleException {
+        while (!pending.isEmpty()) {
+            boolean mustWait = pending.size() > maxPending;
+
+            Group<E> group;
+            if (keepOrder) {
+                group = pending.peekFirst();
+                if (!mustWait && !group.future.isDone()) {
+                    break;
+                }
+            } else if (mustWait) {
+                try {
+                    group = completed.take();
+                } catch (InterruptedException e) {
+                    throw new KettleException(e);
+                }
+            } else {
+                group = completed.poll();
+                if (group == null) {
+                    break;
+                }
+            }
+
+            waitFor(group);
+            pending.remove(group);
+            passOn(group);
+        }
+    }
+
+    private void waitFor(Group<E> group) throws KettleException {
+        try {
+            group.future.get();
+        } catch (InterruptedException e) {
+            throw new KettleException(e);
+        } catch (ExecutionException e) {
+            throw new KettleException(e.getCause());
+        }
+    }
+
+    private void passOn(Group<E> group) throws KettleException {
+        Result result = group.result;
+        if (result == null) {
+            result = new Result();
+            result.setResult(false);
+            result.setNrErrors(1);
+        }
+
+        try {
+            collectResults(group, result);
+        } finally {
+            freeSlots.addLast(group.slot);
+        }
+    }
+
+    /**
+     * Set parameters and variables of the execution, when fields are used take the first row of the group.
+     */
+    protected <T extends VariableSpace & NamedParams> void passParameters(T target, String[] variables,
+                                                                           String[] fields, String[] inputs,
+                                                                           List<RowMetaAndData> rows)
+            throws KettleException {
+        target.clearParameters();
+
+        String[] parameterNames = target.listParameters();
+        for (int i = 0; i < variables.length; i++) {
+            String variable = variables[i];
+            String fieldName = fields[i];
+            String inputValue = inputs[i];
+            String value;
+            // Take the value from an input row or from a static value?
+            if (!Utils.isEmpty(fieldName)) {
+                int idx = getInputRowMeta().indexOfValue(fieldName);
+                if (idx < 0) {
+                    throw new KettleException(BaseMessages.getString(
+                            pkg, messagePrefix + ".Exception.UnableToFindField", fieldName));
+                }
+                value = rows.get(0).getString(idx, "");
+            } else {
+                value = environmentSubstitute(inputValue);
+            }
+
+            // See if this is a parameter or just a variable...
+            if (Const.indexOfString(variable, parameterNames) < 0) {
+                target.setVariable(variable, Const.NVL(value, ""));
+            } else {
+                target.setParameterValue(variable, Const.NVL(value, ""));
+            }
+        }
+
+        target.activateParameters();
+    }
+
+    /**
+     * Put one row of execution results. Empty field names are skipped, the others are filled in the order of the
+     * arguments: execution time, result, number of errors, lines read, written, input, output, rejected, updated,
+     * deleted, files retrieved, exit status, log text and log channel id.
+     */
+    protected void putExecutionResults(RowMetaInterface rowMeta, RowSet rowSet, Group<E> group, Result result,
+                                       String... fields) throws KettleException {
+        Object[] outputRow = RowDataUtil.allocateRowData(rowMeta.size());
+        String logChannelId = getLogChannelId(group.executor);
+        Object[] values = new Object[]{
+                Long.valueOf(group.getExecutionTime()),
+                Boolean.valueOf(result.getResult()),
+                Long.valueOf(result.getNrErrors()),
+                Long.valueOf(result.getNrLinesRead()),
+                Long.valueOf(result.getNrLinesWritten()),
+                Long.valueOf(result.getNrLinesInput()),
+                Long.valueOf(result.getNrLinesOutput()),
+                Long.valueOf(result.getNrLinesRejected()),
+                Long.valueOf(result.getNrLinesUpdated()),
+                Long.valueOf(result.getNrLinesDeleted()),
+                Long.valueOf(result.getNrFilesRetrieved()),
+                Long.valueOf(result.getExitStatus()),
+                null,
+                logChannelId
+        };
+        if (fields.length > 12 && !Utils.isEmpty(fields[12])) {
+            values[12] = KettleLogStore.getAppender().getBuffer(logChannelId, false).toString();
+        }
+
+        int idx = 0;
+        for (int i = 0; i < values.length && i < fields.length; i++) {
+            if (!Utils.isEmpty(fields[i])) {
+                outputRow[idx++] = values[i];
+            }
+        }
+
+        putRowTo(rowMeta, outputRow, rowSet);
+    }
+
+    /**
+     * Put result rows of the execution, checking types of the fields.
+     */
+    protected void putResultRows(RowMetaInterface rowMeta, RowSet rowSet, Result result, int[] types)
+            throws KettleException {
+        if (result.getRows() == null) {
+            return;
+        }
+
+        for (RowMetaAndData metaAndData : result.getRows()) {
+            Object[] row = metaAndData.getData();
+            Object[] targetRow = RowDataUtil.allocateRowData(rowMeta.size());
+
+            for (int i = 0; i < types.length; i++) {
+                ValueMetaInterface valueMeta = metaAndData.getRowMeta().getValueMeta(i);
+                if (valueMeta.getType() != types[i]) {
+                    throw new KettleException(BaseMessages.getString(pkg, messagePrefix + ".IncorrectDataTypePassed",
+                            valueMeta.getTypeDesc(), ValueMetaFactory.getValueMetaName(types[i])));
+                }
+
+                targetRow[i] = row[i];
+            }
+
+            putRowTo(rowMeta, targetRow, rowSet);
+        }
+    }
+
+    protected void putResultFiles(RowMetaInterface rowMeta, RowSet rowSet, Result result) throws KettleException {
+        if (result.getResultFilesList() == null) {
+            return;
+        }
+
+        for (ResultFile resultFile : result.getResultFilesList()) {
+            Object[] targetRow = RowDataUtil.allocateRowData(rowMeta.size());
+            targetRow[0] = resultFile.getFile().getName().toString();
+
+            putRowTo(rowMeta, targetRow, rowSet);
+        }
+    }
+
+    protected int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void stopRunning(StepMetaInterface stepMetaInterface, StepDataInterface stepDataInterface)
+            throws KettleException {
+        for (E executor : running) {
+            stopExecutor(executor);
+        }
+
+        super.stopRunning(stepMetaInterface, stepDataInterface);
+    }
+
+    public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
+        // groups left in flight when the step failed or was stopped
+        for (E executor : running) {
+            stopExecutor(executor);
+        }
+        for (Group<E> group : pending) {
+            try {
+                group.future.get();
+            } catch (Exception e) {
+                // already logged by the execution
+            }
+        }
+        pending.clear();
+        completed.clear();
+
+        super.dispose(smi, sdi);
+    }
+}
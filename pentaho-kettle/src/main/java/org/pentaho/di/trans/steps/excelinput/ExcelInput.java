@@ -32,6 +32,7 @@ import org.pentaho.di.core.fileinput.FileInputList;
 import org.pentaho.di.core.playlist.FilePlayListAll;
 import org.pentaho.di.core.playlist.FilePlayListReplay;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.spreadsheet.KCell;
@@ -67,6 +68,9 @@ public class ExcelInput extends BaseStep implements StepInterface {
 
     private ExcelInputData data;
 
+    // frozen copy of the output row metadata for lookups of this step, the one passed on may be changed by next steps
+    private RowMetaInterface fieldsRowMeta;
+
     public ExcelInput(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
                       Trans trans) {
         super(stepMeta, stepDataInterface, copyNr, transMeta, trans);
@@ -79,7 +83,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
      */
 
     private Object[] fillRow(int startcolumn, ExcelInputRow excelInputRow) throws KettleException {
-        Object[] r = new Object[data.outputRowMeta.size()];
+        Object[] r = new Object[fieldsRowMeta.size()];
 
         // Keep track whether or not we handled an error for this line yet.
         boolean errorHandled = false;
@@ -97,7 +101,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
                 continue;
             }
 
-            ValueMetaInterface targetMeta = data.outputRowMeta.getValueMeta(rowcolumn);
+            ValueMetaInterface targetMeta = fieldsRowMeta.getValueMeta(rowcolumn);
             ValueMetaInterface sourceMeta = null;
 
             try {
@@ -359,6 +363,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
 
             data.outputRowMeta = new RowMeta(); // start from scratch!
             meta.getFields(data.outputRowMeta, getStepname(), null, null, this, repository, metaStore);
+            fieldsRowMeta = RowMeta.freeze(data.outputRowMeta.clone());
 
             if (meta.isAcceptingFilenames()) {
                 // Read the files from the specified input stream...
@@ -431,7 +436,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
             // OK, see if we need to repeat values.
             if (data.previousRow != null) {
                 for (int i = 0; i < meta.getField().length; i++) {
-                    ValueMetaInterface valueMeta = data.outputRowMeta.getValueMeta(i);
+                    ValueMetaInterface valueMeta = fieldsRowMeta.getValueMeta(i);
                     Object valueData = r[i];
 
                     if (valueMeta.isNull(valueData) && meta.getField()[i].isRepeated()) {
@@ -442,7 +447,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
             }
 
             // Remember this row for the next time around!
-            data.previousRow = data.outputRowMeta.cloneRow(r);
+            data.previousRow = fieldsRowMeta.cloneRow(r);
 
             // Send out the good news: we found a row of data!
             putRow(data.outputRowMeta, r);
@@ -610,7 +615,7 @@ public class ExcelInput extends BaseStep implements StepInterface {
                         Object[] r = fillRow(data.colnr, excelInputRow);
                         if (log.isRowLevel()) {
                             logRowlevel(BaseMessages.getString(
-                                    PKG, "ExcelInput.Log.ConvertedLinToRow", "" + lineNr, data.outputRowMeta.getString(r)));
+                                    PKG, "ExcelInput.Log.ConvertedLinToRow", "" + lineNr, fieldsRowMeta.getString(r)));
                         }
 
                         boolean isEmpty = isLineEmpty(line);
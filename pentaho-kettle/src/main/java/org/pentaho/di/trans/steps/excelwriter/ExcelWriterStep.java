@@ -79,7 +79,7 @@ public class ExcelWriterStep extends BaseStep implements StepInterface {
                 data.inputRowMeta = new RowMeta();
             } else {
                 data.outputRowMeta = getInputRowMeta().clone();
-                data.inputRowMeta = getInputRowMeta().clone();
+                data.inputRowMeta = RowMeta.freeze(getInputRowMeta().clone());
             }
 
             // if we are supposed to init the file up front, here we go
@@ -91,6 +91,11 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
      */
     private String groupTime;
 
+    /**
+     * Optional number of jobs executed at the same time (empty default, "1")
+     */
+    private String parallelism;
+
     private JobExecutorParameters parameters;
 
     private String executionResultTargetStep;
@@ -234,6 +239,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         retval.append("    ").append(XMLHandler.addTagValue("group_size", groupSize));
         retval.append("    ").append(XMLHandler.addTagValue("group_field", groupField));
         retval.append("    ").append(XMLHandler.addTagValue("group_time", groupTime));
+        retval.append("    ").append(XMLHandler.addTagValue("parallelism", parallelism));
 
         // Add the mapping parameters too
         //
@@ -306,6 +312,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
             groupSize = XMLHandler.getTagValue(stepnode, "group_size");
             groupField = XMLHandler.getTagValue(stepnode, "group_field");
             groupTime = XMLHandler.getTagValue(stepnode, "group_time");
+            parallelism = XMLHandler.getTagValue(stepnode, "parallelism");
 
             // Load the mapping parameters too..
             //
@@ -369,6 +376,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         groupSize = rep.getStepAttributeString(id_step, "group_size");
         groupField = rep.getStepAttributeString(id_step, "group_field");
         groupTime = rep.getStepAttributeString(id_step, "group_time");
+        parallelism = rep.getStepAttributeString(id_step, "parallelism");
 
         parameters = new JobExecutorParameters(rep, id_step);
 
@@ -420,6 +428,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         rep.saveStepAttribute(id_transformation, id_step, "group_size", groupSize);
         rep.saveStepAttribute(id_transformation, id_step, "group_field", groupField);
         rep.saveStepAttribute(id_transformation, id_step, "group_time", groupTime);
+        rep.saveStepAttribute(id_transformation, id_step, "parallelism", parallelism);
 
         // save the mapping parameters too
         //
@@ -481,6 +490,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         groupSize = "1";
         groupField = "";
         groupTime = "";
+        parallelism = "";
 
         executionTimeField = "ExecutionTime";
         executionResultField = "ExecutionResult";
@@ -610,19 +620,49 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         return targetSteps.toArray(new String[targetSteps.size()]);
     }
 
-    public static final synchronized JobMeta loadJobMeta(JobExecutorMeta executorMeta, Repository rep,
-                                                         VariableSpace space) throws KettleException {
+    public static final JobMeta loadJobMeta(JobExecutorMeta executorMeta, Repository rep,
+                                            VariableSpace space) throws KettleException {
         return loadJobMeta(executorMeta, rep, null, space);
     }
 
-    public static final synchronized JobMeta loadJobMeta(JobExecutorMeta executorMeta, Repository rep,
-                                                         IMetaStore metaStore, VariableSpace space) throws KettleException {
-        JobMeta mappingJobMeta = null;
-
-        CurrentDirectoryResolver r = new CurrentDirectoryResolver();
-        VariableSpace tmpSpace = r.resolveCurrentDirectory(executorMeta.getSpecificationMethod(),
+    public static final JobMeta loadJobMeta(final JobExecutorMeta executorMeta, final Repository rep,
+                                            final IMetaStore metaStore, VariableSpace space) throws KettleException {
+        final CurrentDirectoryResolver r = new CurrentDirectoryResolver();
+        final VariableSpace tmpSpace = r.resolveCurrentDirectory(executorMeta.getSpecificationMethod(),
                 space, rep, executorMeta.getParentStepMeta(), executorMeta.getFileName());
 
+        String cacheKey = MetaCache.buildCacheKey(RepositoryObjectType.JOB,
+                executorMeta.getSpecificationMethod(), rep, tmpSpace,
+                tmpSpace.environmentSubstitute(executorMeta.getFileName()),
+                tmpSpace.environmentSubstitute(executorMeta.getDirectoryPath()),
+                tmpSpace.environmentSubstitute(executorMeta.getJobName()),
+                executorMeta.getJobObjectId());
+        JobMeta mappingJobMeta = MetaCache.get(cacheKey, rep, tmpSpace, tmpSpace,
+                new MetaCache.Loader<JobMeta>() {
+                    @Override
+                    public JobMeta load(VariableSpace parentSpace) throws Exception {
+                        return loadJobMeta(executorMeta, rep, metaStore, tmpSpace, parentSpace, r);
+                    }
+                });
+
+        // Pass some important information to the mapping transformation metadata:
+        //
+        mappingJobMeta.copyVariablesFrom(space);
+        mappingJobMeta.setRepository(rep);
+        mappingJobMeta.setMetaStore(metaStore);
+        mappingJobMeta.setFilename(mappingJobMeta.getFilename());
+
+        return mappingJobMeta;
+    }
+
+    /**
+     * Names are resolved by tmpSpace, while the loaded job gets parentSpace as parent variable space.
+     */
+    private static JobMeta loadJobMeta(JobExecutorMeta executorMeta, Repository rep, IMetaStore metaStore,
+                                       VariableSpace tmpSpace, VariableSpace parentSpace,
+                                       CurrentDirectoryResolver r) throws KettleException {
+        JobMeta mappingJobMeta = null;
+
         switch (executorMeta.getSpecificationMethod()) {
             case FILENAME:
                 String realFilename = tmpSpace.environmentSubstitute(executorMeta.getFileName());
@@ -655,7 +695,7 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
                         }
                     }
                     if (mappingJobMeta == null) {
-                        mappingJobMeta = new JobMeta(tmpSpace, realFilename, rep, metaStore, null);
+                        mappingJobMeta = new JobMeta(parentSpace, realFilename, rep, metaStore, null);
                         LogChannel.GENERAL.logDetailed("Loading job from repository", "Job was loaded from XML file ["
                                 + realFilename + "]");
                     }
@@ -689,11 +729,11 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
                 } else {
                     // rep is null, let's try loading by filename
                     try {
-                        mappingJobMeta = new JobMeta(tmpSpace, realDirectory + "/" + realJobname, rep, metaStore, null);
+                        mappingJobMeta = new JobMeta(parentSpace, realDirectory + "/" + realJobname, rep, metaStore, null);
                     } catch (KettleException ke) {
                         try {
                             // add .kjb extension and try again
-                            mappingJobMeta = new JobMeta(tmpSpace,
+                            mappingJobMeta = new JobMeta(parentSpace,
                                     realDirectory + "/" + realJobname + "." + Const.STRING_JOB_DEFAULT_EXT, rep, metaStore, null);
                         } catch (KettleException ke2) {
                             throw new KettleException(BaseMessages.getString(
@@ -712,13 +752,6 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
                 break;
         }
 
-        // Pass some important information to the mapping transformation metadata:
-        //
-        mappingJobMeta.copyVariablesFrom(space);
-        mappingJobMeta.setRepository(rep);
-        mappingJobMeta.setMetaStore(metaStore);
-        mappingJobMeta.setFilename(mappingJobMeta.getFilename());
-
         return mappingJobMeta;
     }
 
@@ -756,7 +789,9 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
     @Override
     public StepInterface getStep(StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta tr,
                                  Trans trans) {
-        return new JobExecutor(stepMeta, stepDataInterface, cnr, tr, trans);
+        int threads = Const.toInt(tr.environmentSubstitute(parallelism), 1);
+        return threads > 1 ? new ParallelJobExecutor(stepMeta, stepDataInterface, cnr, tr, trans, threads)
+                : new JobExecutor(stepMeta, stepDataInterface, cnr, tr, trans);
     }
 
     @Override
@@ -1388,6 +1423,20 @@ public class JobExecutorMeta extends BaseStepMeta implements StepMetaInterface,
         this.groupTime = groupTime;
     }
 
+    /**
+     * @return the number of jobs executed at the same time
+     */
+    public String getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of jobs executed at the same time
+     */
+    public void setParallelism(String parallelism) {
+        this.parallelism = parallelism;
+    }
+
     @Override
     public boolean excludeFromCopyDistributeVerification() {
         return true;
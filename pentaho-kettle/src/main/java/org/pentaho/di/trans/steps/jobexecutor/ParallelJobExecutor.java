@@ -0,0 +1,222 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.jobexecutor;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.extension.ExtensionPointHandler;
+import org.pentaho.di.core.extension.KettleExtensionPoint;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.job.DelegationListener;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobExecutionConfiguration;
+import org.pentaho.di.job.JobMeta;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.*;
+import org.pentaho.di.trans.steps.ParallelGroupExecutor;
+
+/**
+ * Job Executor running up to "parallelism" jobs at the same time, see {@link ParallelGroupExecutor}. Results are
+ * passed on in the order of the groups, so the output does not depend on which job finishes first. Each worker slot
+ * gets its own copy of the executor job, as job entries keep state while running.
+ *
+ * @author Zhichun Wu
+ */
+public class ParallelJobExecutor extends ParallelGroupExecutor<Job> {
+    private static Class<?> PKG = JobExecutorMeta.class; // for i18n purposes, needed by Translator2!!
+
+    private JobExecutorMeta meta;
+    private JobMeta executorJobMeta;
+    private JobMeta[] slotJobMetas;
+
+    private RowMetaInterface executionResultsOutputRowMeta;
+    private RowSet executionResultRowSet;
+    private RowMetaInterface resultRowsOutputRowMeta;
+    private RowSet resultRowsRowSet;
+    private RowMetaInterface resultFilesOutputRowMeta;
+    private RowSet resultFilesRowSet;
+
+    public ParallelJobExecutor(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                               TransMeta transMeta, Trans trans, int parallelism) {
+        super(stepMeta, stepDataInterface, copyNr, transMeta, trans, PKG, "JobExecutor", parallelism, true);
+    }
+
+    @Override
+    protected void prepareOutputs() throws KettleException {
+        StepMeta targetStep = meta.getExecutionResultTargetStepMeta();
+        if (targetStep != null) {
+            executionResultsOutputRowMeta = new RowMeta();
+            meta.getFields(executionResultsOutputRowMeta, getStepname(), null, targetStep, this,
+                    meta.getRepository(), meta.getMetaStore());
+            executionResultRowSet = findOutputRowSet(targetStep.getName());
+        }
+
+        targetStep = meta.getResultRowsTargetStepMeta();
+        if (targetStep != null) {
+            resultRowsOutputRowMeta = new RowMeta();
+            meta.getFields(resultRowsOutputRowMeta, getStepname(), null, targetStep, this,
+                    meta.getRepository(), meta.getMetaStore());
+            resultRowsRowSet = findOutputRowSet(targetStep.getName());
+        }
+
+        targetStep = meta.getResultFilesTargetStepMeta();
+        if (targetStep != null) {
+            resultFilesOutputRowMeta = new RowMeta();
+            meta.getFields(resultFilesOutputRowMeta, getStepname(), null, targetStep, this,
+                    meta.getRepository(), meta.getMetaStore());
+            resultFilesRowSet = findOutputRowSet(targetStep.getName());
+        }
+    }
+
+    @Override
+    protected Job createExecutor(Group<Job> group) throws KettleException {
+        // jobs in the same slot run one after another, so they can share a copy of the meta data
+        JobMeta slotJobMeta = slotJobMetas[group.getSlot()];
+        if (slotJobMeta == null) {
+            slotJobMeta = (JobMeta) executorJobMeta.realClone(false);
+            slotJobMetas[group.getSlot()] = slotJobMeta;
+        }
+
+        Job executorJob = new Job(meta.getRepository(), slotJobMeta, this);
+
+        // jobs run at the same time, so variables are copied instead of shared with the job meta data
+        executorJob.initializeVariablesFrom(executorJobMeta);
+        executorJob.setParentTrans(getTrans());
+        executorJob.setLogLevel(getLogLevel());
+        executorJob.setInternalKettleVariables(this);
+        executorJob.copyParametersFrom(executorJobMeta);
+        executorJob.setArguments(getTrans().getArguments());
+
+        JobExecutorParameters parameters = meta.getParameters();
+        passParameters(executorJob, parameters.getVariable(), parameters.getField(), parameters.getInput(),
+                group.getRows());
+
+        // Pass the accumulated rows
+        executorJob.setSourceRows(group.getRows());
+
+        // keep track for drill down in Spoon...
+        getTrans().getActiveSubjobs().put(getStepname(), executorJob);
+
+        return executorJob;
+    }
+
+    /**
+     * Any failure ends up in the returned result. The finish time of the group is recorded here, not when its results
+     * are passed on after slower jobs started before it.
+     */
+    @Override
+    protected Result execute(Group<Job> group) {
+        Job executorJob = group.getExecutor();
+        Result result = new Result();
+
+        try {
+            ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.JobStart.id, executorJob);
+
+            executorJob.beginProcessing();
+
+            // Inform the parent transformation we started something here...
+            for (DelegationListener delegationListener : getTrans().getDelegationListeners()) {
+                delegationListener.jobDelegationStarted(executorJob, new JobExecutionConfiguration());
+            }
+
+            result = executorJob.execute(0, result);
+        } catch (Throwable e) {
+            log.logError("An error occurred executing the job: ", e);
+            result.setResult(false);
+            result.setNrErrors(1);
+        } finally {
+            try {
+                ExtensionPointHandler.callExtensionPoint(log, KettleExtensionPoint.JobFinish.id, executorJob);
+                executorJob.fireJobFinishListeners();
+            } catch (Throwable e) {
+                result.setNrErrors(1);
+                result.setResult(false);
+                log.logError(BaseMessages.getString(PKG, "JobExecutor.Log.ErrorExecJob", e.getMessage()), e);
+            }
+            group.finish();
+        }
+
+        if (executorJob.isStopped() && result.getResult()) {
+            // stopped jobs never count as a success
+            result.setResult(false);
+        }
+
+        return result;
+    }
+
+    @Override
+    protected void collectResults(Group<Job> group, Result result) throws KettleException {
+        // First the natural output...
+        if (executionResultRowSet != null) {
+            putExecutionResults(executionResultsOutputRowMeta, executionResultRowSet, group, result,
+                    meta.getExecutionTimeField(), meta.getExecutionResultField(), meta.getExecutionNrErrorsField(),
+                    meta.getExecutionLinesReadField(), meta.getExecutionLinesWrittenField(),
+                    meta.getExecutionLinesInputField(), meta.getExecutionLinesOutputField(),
+                    meta.getExecutionLinesRejectedField(), meta.getExecutionLinesUpdatedField(),
+                    meta.getExecutionLinesDeletedField(), meta.getExecutionFilesRetrievedField(),
+                    meta.getExecutionExitStatusField(), meta.getExecutionLogTextField(),
+                    meta.getExecutionLogChannelIdField());
+        }
+
+        // Optionally also send the result rows to a specified target step...
+        if (resultRowsRowSet != null) {
+            putResultRows(resultRowsOutputRowMeta, resultRowsRowSet, result, meta.getResultRowsType());
+        }
+
+        if (resultFilesRowSet != null) {
+            putResultFiles(resultFilesOutputRowMeta, resultFilesRowSet, result);
+        }
+    }
+
+    @Override
+    protected String getLogChannelId(Job executor) {
+        return executor.getLogChannelId();
+    }
+
+    @Override
+    protected void stopExecutor(Job executor) {
+        executor.stopAll();
+    }
+
+    public boolean init(StepMetaInterface smi, StepDataInterface sdi) {
+        meta = (JobExecutorMeta) smi;
+
+        if (!super.init(smi, sdi)) {
+            return false;
+        }
+
+        try {
+            executorJobMeta = JobExecutorMeta.loadJobMeta(meta, meta.getRepository(), meta.getMetaStore(), this);
+        } catch (Exception e) {
+            logError("Unable to load the executor job", e);
+            return false;
+        }
+
+        if (executorJobMeta == null) {
+            logError("No valid job was specified nor loaded!");
+            return false;
+        }
+
+        slotJobMetas = new JobMeta[getParallelism()];
+        initGrouping(meta.getGroupSize(), meta.getGroupField(), meta.getGroupTime());
+
+        return true;
+    }
+}
@@ -29,6 +29,7 @@ import org.apache.commons.vfs2.FileType;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.core.xml.XMLHandler;
@@ -97,7 +98,7 @@ public class Mail extends BaseStep implements StepInterface {
             first = false;
 
             // get the RowMeta
-            data.previousRowMeta = getInputRowMeta().clone();
+            data.previousRowMeta = RowMeta.freeze(getInputRowMeta().clone());
 
             // Check is filename field is provided
             if (Utils.isEmpty(meta.getDestination())) {
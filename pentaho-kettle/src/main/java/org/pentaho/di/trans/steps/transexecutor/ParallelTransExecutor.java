@@ -0,0 +1,283 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.transexecutor;
+
+import org.pentaho.di.core.Result;
+import org.pentaho.di.core.RowMetaAndData;
+import org.pentaho.di.core.RowSet;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.job.DelegationListener;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransExecutionConfiguration;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.*;
+import org.pentaho.di.trans.steps.ParallelGroupExecutor;
+
+import java.util.List;
+
+/**
+ * Trans Executor running several groups of rows at the same time, see {@link ParallelGroupExecutor}. Each worker slot
+ * gets its own copy of the executor transformation, reused by the groups running in that slot. When pooling is enabled,
+ * each slot also keeps its prepared transformation for the next group, see {@link TransExecutorPool}.
+ *
+ * @author Zhichun Wu
+ */
+public class ParallelTransExecutor extends ParallelGroupExecutor<Trans> {
+    private static Class<?> PKG = TransExecutorMeta.class; // for i18n purposes, needed by Translator2!!
+
+    private TransExecutorMeta meta;
+    private TransMeta executorTransMeta;
+    private TransMeta[] slotTransMetas;
+    // null when prepared transformations are not reused
+    private TransExecutorPool[] slotPools;
+    private final int poolSize;
+
+    private RowMetaInterface executionResultsOutputRowMeta;
+    private RowSet executionResultRowSet;
+    private RowMetaInterface resultRowsOutputRowMeta;
+    private RowSet resultRowsRowSet;
+    private RowMetaInterface resultFilesOutputRowMeta;
+    private RowSet resultFilesRowSet;
+    private RowMetaInterface executorStepOutputRowMeta;
+    private RowSet executorStepOutputRowSet;
+
+    public ParallelTransExecutor(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
+                                 TransMeta transMeta, Trans trans, int parallelism, boolean keepOrder, int poolSize) {
+        super(stepMeta, stepDataInterface, copyNr, transMeta, trans, PKG, "TransExecutor", parallelism, keepOrder);
+
+        this.poolSize = poolSize;
+    }
+
+    @Override
+    protected void prepareOutputs() throws KettleException {
+        StepMeta targetStep = meta.getExecutionResultTargetStepMeta();
+        if (targetStep != null) {
+            executionResultsOutputRowMeta = new RowMeta();
+            meta.prepareExecutionResultsFields(executionResultsOutputRowMeta, targetStep);
+            executionResultRowSet = findOutputRowSet(targetStep.getName());
+        }
+
+        targetStep = meta.getResultFilesTargetStepMeta();
+        if (targetStep != null) {
+            resultFilesOutputRowMeta = new RowMeta();
+            meta.prepareExecutionResultsFileFields(resultFilesOutputRowMeta, targetStep);
+            resultFilesRowSet = findOutputRowSet(targetStep.getName());
+        }
+
+        targetStep = meta.getOutputRowsSourceStepMeta();
+        if (targetStep != null) {
+            resultRowsOutputRowMeta = new RowMeta();
+            meta.prepareResultsRowsFields(resultRowsOutputRowMeta);
+            resultRowsRowSet = findOutputRowSet(targetStep.getName());
+        }
+
+        targetStep = meta.getExecutorsOutputStepMeta();
+        if (targetStep != null) {
+            executorStepOutputRowMeta = getInputRowMeta().clone();
+            executorStepOutputRowSet = findOutputRowSet(targetStep.getName());
+        }
+    }
+
+    @Override
+    protected void passOnInputRow(Object[] row) throws KettleException {
+        if (executorStepOutputRowSet != null) {
+            putRowTo(executorStepOutputRowMeta, row, executorStepOutputRowSet);
+        }
+    }
+
+    @Override
+    protected Trans createExecutor(Group<Trans> group) throws KettleException {
+        TransExecutorPool pool = slotPools == null ? null : slotPools[group.getSlot()];
+        Trans executorTrans = pool == null ? null : pool.borrow();
+        if (executorTrans == null) {
+            executorTrans = createTrans(group.getSlot());
+            if (pool != null) {
+                pool.track(executorTrans);
+            }
+        }
+
+        TransExecutorParameters parameters = meta.getParameters();
+        passParameters(executorTrans, parameters.getVariable(), parameters.getField(), parameters.getInput(),
+                group.getRows());
+
+        // keep track for drill down in Spoon...
+        getTrans().addActiveSubTransformation(getStepname(), executorTrans);
+
+        return executorTrans;
+    }
+
+    private Trans createTrans(int slot) throws KettleException {
+        // groups in the same slot run one after another, so they can share a copy of the meta data
+        TransMeta slotTransMeta = slotTransMetas[slot];
+        if (slotTransMeta == null) {
+            slotTransMeta = (TransMeta) executorTransMeta.realClone(false);
+            slotTransMetas[slot] = slotTransMeta;
+        }
+
+        Trans executorTrans = new Trans(slotTransMeta, this);
+        executorTrans.setParentTrans(getTrans());
+        executorTrans.setRepository(getTrans().getRepository());
+        executorTrans.setLogLevel(getLogLevel());
+        executorTrans.setArguments(getTrans().getArguments());
+
+        if (meta.getParameters().isInheritingAllVariables()) {
+            // variables are copied instead of shared, as parameters of one group must not leak into another
+            executorTrans.initializeVariablesFrom(this);
+        }
+
+        executorTrans.setInternalKettleVariables(this);
+        executorTrans.copyParametersFrom(executorTransMeta);
+        executorTrans.setPreview(getTrans().isPreview());
+        executorTrans.setServletPrintWriter(getTrans().getServletPrintWriter());
+        executorTrans.setServletReponse(getTrans().getServletResponse());
+        executorTrans.setServletRequest(getTrans().getServletRequest());
+
+        return executorTrans;
+    }
+
+    @Override
+    protected Result execute(Group<Trans> group) {
+        Trans executorTrans = group.getExecutor();
+        List<RowMetaAndData> rows = group.getRows();
+
+        Result result = new Result();
+        result.setRows(rows);
+        executorTrans.setPreviousResult(result);
+
+        try {
+            executorTrans.prepareExecution(getTrans().getArguments());
+
+            // run transformation
+            executorTrans.startThreads();
+
+            // Inform the parent transformation we started something here...
+            for (DelegationListener delegationListener : getTrans().getDelegationListeners()) {
+                delegationListener.transformationDelegationStarted(executorTrans, new TransExecutionConfiguration());
+            }
+
+            // Wait a while until we're done with the transformation
+            executorTrans.waitUntilFinished();
+
+            result = executorTrans.getResult();
+        } catch (Exception e) {
+            log.logError("An error occurred executing the transformation: ", e);
+            result.setResult(false);
+            result.setNrErrors(1);
+        }
+
+        return result;
+    }
+
+    @Override
+    protected void collectResults(Group<Trans> group, Result result) throws KettleException {
+        try {
+            putResults(group, result);
+        } finally {
+            // log text was taken, the transformation can run the next group of the slot
+            if (slotPools != null) {
+                slotPools[group.getSlot()].release(group.getExecutor());
+            }
+        }
+    }
+
+    private void putResults(Group<Trans> group, Result result) throws KettleException {
+        if (resultRowsRowSet != null) {
+            putResultRows(resultRowsOutputRowMeta, resultRowsRowSet, result, meta.getOutputRowsType());
+        }
+
+        if (executionResultRowSet != null) {
+            putExecutionResults(executionResultsOutputRowMeta, executionResultRowSet, group, result,
+                    meta.getExecutionTimeField(), meta.getExecutionResultField(), meta.getExecutionNrErrorsField(),
+                    meta.getExecutionLinesReadField(), meta.getExecutionLinesWrittenField(),
+                    meta.getExecutionLinesInputField(), meta.getExecutionLinesOutputField(),
+                    meta.getExecutionLinesRejectedField(), meta.getExecutionLinesUpdatedField(),
+                    meta.getExecutionLinesDeletedField(), meta.getExecutionFilesRetrievedField(),
+                    meta.getExecutionExitStatusField(), meta.getExecutionLogTextField(),
+                    meta.getExecutionLogChannelIdField());
+        }
+
+        if (resultFilesRowSet != null) {
+            putResultFiles(resultFilesOutputRowMeta, resultFilesRowSet, result);
+        }
+    }
+
+    @Override
+    protected String getLogChannelId(Trans executor) {
+        return executor.getLogChannelId();
+    }
+
+    @Override
+    protected void stopExecutor(Trans executor) {
+        executor.stopAll();
+    }
+
+    public boolean init(StepMetaInterface smi, StepDataInterface sdi) {
+        meta = (TransExecutorMeta) smi;
+
+        if (!super.init(smi, sdi)) {
+            return false;
+        }
+
+        try {
+            executorTransMeta = TransExecutorMeta.loadMappingMeta(meta, meta.getRepository(), meta.getMetaStore(), this);
+        } catch (Exception e) {
+            logError("Unable to load the executor transformation", e);
+            return false;
+        }
+
+        if (executorTransMeta == null) {
+            logError("No valid transformation was specified nor loaded!");
+            return false;
+        }
+
+        slotTransMetas = new TransMeta[getParallelism()];
+        if (poolSize > 0) {
+            // groups of a slot run one after another, one prepared transformation per slot is enough
+            slotPools = new TransExecutorPool[getParallelism()];
+            for (int i = 0; i < slotPools.length; i++) {
+                slotPools[i] = new TransExecutorPool(1);
+            }
+        }
+        initGrouping(meta.getGroupSize(), meta.getGroupField(), meta.getGroupTime());
+
+        return true;
+    }
+
+    @Override
+    public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
+        super.dispose(smi, sdi);
+
+        if (slotPools != null) {
+            long created = 0L;
+            long reused = 0L;
+            long discarded = 0L;
+            for (TransExecutorPool pool : slotPools) {
+                pool.close();
+                created += pool.getCreatedCount();
+                reused += pool.getReusedCount();
+                discarded += pool.getDiscardedCount();
+            }
+
+            if (log.isDetailed()) {
+                logDetailed(new StringBuilder().append("Executed transformation ").append(created + reused)
+                        .append(" times(created: ").append(created).append(", reused: ").append(reused)
+                        .append(", discarded: ").append(discarded).append(')').toString());
+            }
+        }
+    }
+}
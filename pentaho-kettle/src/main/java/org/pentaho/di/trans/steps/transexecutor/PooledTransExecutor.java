@@ -0,0 +1,77 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.transexecutor;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+/**
+ * Trans Executor reusing prepared transformations from a {@link TransExecutorPool}, instead of creating a new
+ * transformation for every group of rows.
+ *
+ * @author Zhichun Wu
+ */
+public class PooledTransExecutor extends TransExecutor {
+    private final TransExecutorPool pool;
+
+    // transformation of the last group
+    private Trans current;
+
+    public PooledTransExecutor(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta,
+                               Trans trans, int poolSize) {
+        super(stepMeta, stepDataInterface, copyNr, transMeta, trans);
+
+        this.pool = new TransExecutorPool(poolSize);
+    }
+
+    @Override
+    Trans createInternalTrans() throws KettleException {
+        // the last group is done when the next one starts
+        pool.release(current);
+
+        Trans executorTrans = pool.borrow();
+        if (executorTrans == null) {
+            executorTrans = pool.track(super.createInternalTrans());
+        }
+
+        current = executorTrans;
+        return executorTrans;
+    }
+
+    @Override
+    public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
+        pool.release(current);
+        current = null;
+        pool.close();
+
+        if (log.isDetailed()) {
+            log.logDetailed(new StringBuilder().append("Executed transformation ")
+                    .append(pool.getCreatedCount() + pool.getReusedCount()).append(" times(created: ")
+                    .append(pool.getCreatedCount()).append(", reused: ").append(pool.getReusedCount())
+                    .append(", discarded: ").append(pool.getDiscardedCount()).append(')').toString());
+        }
+
+        super.dispose(smi, sdi);
+    }
+
+    public TransExecutorPool getPool() {
+        return pool;
+    }
+}
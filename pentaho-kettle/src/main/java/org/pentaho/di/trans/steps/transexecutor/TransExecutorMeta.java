@@ -87,6 +87,21 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
      */
     private String groupTime;
 
+    /**
+     * Optional number of prepared transformations kept for reuse between executions (empty default, "0" means no reuse)
+     */
+    private String poolSize;
+
+    /**
+     * Optional number of groups executed at the same time (empty default, "1")
+     */
+    private String parallelism;
+
+    /**
+     * Whether results of groups executed in parallel are passed on in the order of the groups (default true)
+     */
+    private boolean keepOrder = true;
+
     private TransExecutorParameters parameters;
 
     private String executionResultTargetStep;
@@ -256,6 +271,9 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
         retval.append("    ").append(XMLHandler.addTagValue("group_size", groupSize));
         retval.append("    ").append(XMLHandler.addTagValue("group_field", groupField));
         retval.append("    ").append(XMLHandler.addTagValue("group_time", groupTime));
+        retval.append("    ").append(XMLHandler.addTagValue("pool_size", poolSize));
+        retval.append("    ").append(XMLHandler.addTagValue("parallelism", parallelism));
+        retval.append("    ").append(XMLHandler.addTagValue("keep_order", keepOrder));
 
         // Add the mapping parameters too
         //
@@ -323,6 +341,9 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
             groupSize = XMLHandler.getTagValue(stepnode, "group_size");
             groupField = XMLHandler.getTagValue(stepnode, "group_field");
             groupTime = XMLHandler.getTagValue(stepnode, "group_time");
+            poolSize = XMLHandler.getTagValue(stepnode, "pool_size");
+            parallelism = XMLHandler.getTagValue(stepnode, "parallelism");
+            keepOrder = !"N".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "keep_order"));
 
             // Load the mapping parameters too..
             //
@@ -384,6 +405,9 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
         groupSize = rep.getStepAttributeString(id_step, "group_size");
         groupField = rep.getStepAttributeString(id_step, "group_field");
         groupTime = rep.getStepAttributeString(id_step, "group_time");
+        poolSize = rep.getStepAttributeString(id_step, "pool_size");
+        parallelism = rep.getStepAttributeString(id_step, "parallelism");
+        keepOrder = rep.getStepAttributeBoolean(id_step, 0, "keep_order", true);
 
         parameters = new TransExecutorParameters(rep, id_step);
 
@@ -433,6 +457,9 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
         rep.saveStepAttribute(id_transformation, id_step, "group_size", groupSize);
         rep.saveStepAttribute(id_transformation, id_step, "group_field", groupField);
         rep.saveStepAttribute(id_transformation, id_step, "group_time", groupTime);
+        rep.saveStepAttribute(id_transformation, id_step, "pool_size", poolSize);
+        rep.saveStepAttribute(id_transformation, id_step, "parallelism", parallelism);
+        rep.saveStepAttribute(id_transformation, id_step, "keep_order", keepOrder);
 
         // save the mapping parameters too
         //
@@ -485,6 +512,9 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
         groupSize = "1";
         groupField = "";
         groupTime = "";
+        poolSize = "";
+        parallelism = "";
+        keepOrder = true;
 
         executionTimeField = "ExecutionTime";
         executionResultField = "ExecutionResult";
@@ -579,8 +609,8 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
     }
 
     @Deprecated
-    public static synchronized TransMeta loadTransMeta(TransExecutorMeta executorMeta, Repository rep,
-                                                       VariableSpace space) throws KettleException {
+    public static TransMeta loadTransMeta(TransExecutorMeta executorMeta, Repository rep,
+                                          VariableSpace space) throws KettleException {
         return loadMappingMeta(executorMeta, rep, null, space);
     }
 
@@ -616,7 +646,14 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
 
     public StepInterface getStep(StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta tr,
                                  Trans trans) {
-        return new TransExecutor(stepMeta, stepDataInterface, cnr, tr, trans);
+        int size = Const.toInt(tr.environmentSubstitute(poolSize), TransExecutorPool.DEFAULT_POOL_SIZE);
+        int threads = Const.toInt(tr.environmentSubstitute(parallelism), 1);
+        if (threads > 1) {
+            return new ParallelTransExecutor(stepMeta, stepDataInterface, cnr, tr, trans, threads, keepOrder, size);
+        }
+
+        return size > 0 ? new PooledTransExecutor(stepMeta, stepDataInterface, cnr, tr, trans, size)
+                : new TransExecutor(stepMeta, stepDataInterface, cnr, tr, trans);
     }
 
     @Override
@@ -1065,6 +1102,48 @@ public class TransExecutorMeta extends StepWithMappingMeta implements StepMetaIn
         this.groupTime = groupTime;
     }
 
+    /**
+     * @return the number of prepared transformations kept for reuse
+     */
+    public String getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @param poolSize the number of prepared transformations kept for reuse
+     */
+    public void setPoolSize(String poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @return the number of groups executed at the same time
+     */
+    public String getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of groups executed at the same time
+     */
+    public void setParallelism(String parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return true if results of parallel groups are passed on in the order of the groups
+     */
+    public boolean isKeepOrder() {
+        return keepOrder;
+    }
+
+    /**
+     * @param keepOrder true to pass on results of parallel groups in the order of the groups
+     */
+    public void setKeepOrder(boolean keepOrder) {
+        this.keepOrder = keepOrder;
+    }
+
     @Override
     public boolean excludeFromCopyDistributeVerification() {
         return true;
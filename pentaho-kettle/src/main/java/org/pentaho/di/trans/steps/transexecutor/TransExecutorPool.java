@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+package org.pentaho.di.trans.steps.transexecutor;
+
+import org.pentaho.di.trans.Trans;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small pool of prepared transformations of the same {@link org.pentaho.di.trans.TransMeta}. Finished transformations
+ * without errors are kept and executed again, instead of creating steps, rowsets and log channels for every group.
+ *
+ * @author Zhichun Wu
+ */
+public class TransExecutorPool {
+    static final int DEFAULT_POOL_SIZE = Integer.parseInt(System.getProperty("KETTLE_TRANS_EXECUTOR_POOL_SIZE", "0"));
+
+    private final int capacity;
+    private final Deque<Trans> idle;
+
+    private final AtomicLong created = new AtomicLong(0L);
+    private final AtomicLong reused = new AtomicLong(0L);
+    private final AtomicLong discarded = new AtomicLong(0L);
+
+    private boolean closed = false;
+
+    public TransExecutorPool(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.idle = new ArrayDeque<Trans>(this.capacity);
+    }
+
+    /**
+     * @return an idle prepared transformation, or null if there's none
+     */
+    public synchronized Trans borrow() {
+        // most recently used first, its steps are more likely to be warm
+        Trans trans = idle.pollFirst();
+        if (trans != null) {
+            reused.incrementAndGet();
+        }
+        return trans;
+    }
+
+    /**
+     * Mark the transformation as reusable, right after it was created for the pool.
+     *
+     * @param trans newly created transformation
+     * @return the same transformation
+     */
+    public Trans track(Trans trans) {
+        trans.setReusable(true);
+        created.incrementAndGet();
+        return trans;
+    }
+
+    /**
+     * Give back a transformation. It's only kept when it finished without errors and the pool is not full.
+     *
+     * @param trans transformation borrowed from(or tracked by) this pool, can be null
+     */
+    public void release(Trans trans) {
+        if (trans == null) {
+            return;
+        }
+
+        if (trans.isReusable() && trans.isFinished() && !trans.isStopped() && trans.getErrors() == 0) {
+            synchronized (this) {
+                if (!closed && idle.size() < capacity && !idle.contains(trans)) {
+                    idle.offerFirst(trans);
+                    return;
+                }
+            }
+        }
+
+        discard(trans);
+    }
+
+    private void discard(Trans trans) {
+        trans.setReusable(false);
+        trans.cleanup();
+        discarded.incrementAndGet();
+    }
+
+    /**
+     * Discard all idle transformations, nothing will be kept afterwards.
+     */
+    public void close() {
+        Trans[] transformations;
+        synchronized (this) {
+            closed = true;
+            transformations = idle.toArray(new Trans[idle.size()]);
+            idle.clear();
+        }
+
+        for (Trans trans : transformations) {
+            discard(trans);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getDiscardedCount() {
+        return discarded.get();
+    }
+}
@@ -55,6 +55,7 @@ public class CarteSingleton {
     private CarteSingleton(SlaveServerConfig config) throws KettleException {
         KettleEnvironment.init();
         KettleLogStore.init(config.getMaxLogLines(), config.getMaxLogTimeoutMinutes());
+        MappedLogSpool.getInstance().install();
 
         this.log = new LogChannel("Carte");
         transformationMap = new TransformationMap();
@@ -176,6 +177,8 @@ public class CarteSingleton {
                                         //
                                         KettleLogStore.discardLines(logChannelId, false);
                                         LoggingRegistry.getInstance().removeIncludingChildren(logChannelId);
+                                        // after the registry, so that lookups in between don't bring the spool back
+                                        MappedLogSpool.getInstance().discard(logChannelId);
 
                                         // transformationMap.deallocateServerSocketPorts(entry);
 
@@ -210,6 +213,9 @@ public class CarteSingleton {
                                         //
                                         KettleLogStore.discardLines(logChannelId, false);
                                         LoggingRegistry.getInstance().removeIncludingChildren(logChannelId);
+                                        // after the registry, so that lookups in between don't bring the spool back
+                                        MappedLogSpool.getInstance().discard(logChannelId);
+                                        job.getJobEntryResultHistory().discard();
 
                                         log.logMinimal("Cleaned up job "
                                                 + entry.getName() + " with id " + entry.getId() + " from " + logDate);
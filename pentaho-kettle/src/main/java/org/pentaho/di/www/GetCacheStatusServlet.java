@@ -19,6 +19,7 @@ package org.pentaho.di.www;
 import com.google.common.base.Strings;
 import org.pentaho.di.cluster.ServerCache;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.resource.MetaCache;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -40,6 +41,10 @@ public class GetCacheStatusServlet extends BaseHttpServlet implements CartePlugi
     public static final String CONTEXT_PATH = "/kettle/cache";
     public static final String PARAM_NAME = "name";
     public static final String PARAM_INVALIDATE = "invalidate";
+    public static final String PARAM_TYPE = "type";
+
+    // parsed transformations and jobs, see MetaCache
+    public static final String TYPE_META = "meta";
 
     public GetCacheStatusServlet() {
     }
@@ -65,7 +70,19 @@ public class GetCacheStatusServlet extends BaseHttpServlet implements CartePlugi
 
         WebResult result = new WebResult(WebResult.STRING_OK, "", "");
 
-        if (invalidate) {
+        if (TYPE_META.equalsIgnoreCase(request.getParameter(PARAM_TYPE))) {
+            if (invalidate) {
+                if (applyToAll) {
+                    MetaCache.invalidateAll();
+                } else {
+                    MetaCache.invalidate(resourceName);
+                }
+            } else {
+                // hit and miss counts are in the description, the id has the number of cached entries
+                result.setId(String.valueOf(MetaCache.size()));
+                result.setMessage(MetaCache.getStats());
+            }
+        } else if (invalidate) {
             if (applyToAll) {
                 ServerCache.invalidateAll();
             } else {
@@ -21,6 +21,7 @@ import org.pentaho.di.core.Const;
 import org.pentaho.di.core.Result;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobEntryLauncher;
 import org.pentaho.di.trans.Trans;
 import oshi.SystemInfo;
 import oshi.hardware.CentralProcessor;
@@ -101,6 +102,12 @@ public class GetHealthServlet extends BaseHttpServlet implements CartePluginInte
     private static final String TAG_FAILED_TRANS = "failed_trans";
     private static final String TAG_FINISHED_TRANS = "finished_trans";
     private static final String TAG_HALTED_TRANS = "halted_trans";
+    private static final String TAG_RUNNING_PARALLEL_ENTRIES = "running_parallel_entries";
+    private static final String TAG_QUEUED_PARALLEL_ENTRIES = "queued_parallel_entries";
+    private static final String TAG_PEAK_RUNNING_PARALLEL_ENTRIES = "peak_running_parallel_entries";
+    private static final String TAG_PEAK_QUEUED_PARALLEL_ENTRIES = "peak_queued_parallel_entries";
+    private static final String TAG_TOTAL_QUEUED_PARALLEL_ENTRIES = "total_queued_parallel_entries";
+    private static final String TAG_PARALLEL_ENTRIES_QUEUED_TIME = "parallel_entries_queued_time";
     private static final String TAG_ELAPSED_TIME = "elapsed_time";
 
     private static String SERVER_NAME;
@@ -278,6 +285,18 @@ public class GetHealthServlet extends BaseHttpServlet implements CartePluginInte
                 .append(XMLHandler.addTagValue(TAG_FINISHED_JOBS, finishedJobCount))
                 .append(XMLHandler.addTagValue(TAG_HALTED_JOBS, haltedJobCount));
 
+        // saturation of the global limit of parallel job entries
+        xml.append(XMLHandler.addTagValue(TAG_RUNNING_PARALLEL_ENTRIES, JobEntryLauncher.getGlobalRunning()))
+                .append(XMLHandler.addTagValue(TAG_QUEUED_PARALLEL_ENTRIES, JobEntryLauncher.getGlobalQueued()))
+                .append(XMLHandler.addTagValue(TAG_PEAK_RUNNING_PARALLEL_ENTRIES,
+                        JobEntryLauncher.getGlobalPeakRunning()))
+                .append(XMLHandler.addTagValue(TAG_PEAK_QUEUED_PARALLEL_ENTRIES,
+                        JobEntryLauncher.getGlobalPeakQueued()))
+                .append(XMLHandler.addTagValue(TAG_TOTAL_QUEUED_PARALLEL_ENTRIES,
+                        JobEntryLauncher.getGlobalQueuedCount()))
+                .append(XMLHandler.addTagValue(TAG_PARALLEL_ENTRIES_QUEUED_TIME,
+                        JobEntryLauncher.getGlobalQueuedMillis()));
+
         int totalTransCount = 0;
         int runningTransCount = 0;
         int haltedTransCount = 0;
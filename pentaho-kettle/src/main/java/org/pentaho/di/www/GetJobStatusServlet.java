@@ -29,10 +29,13 @@ import org.pentaho.di.core.Result;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.Point;
 import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.MappedLogSpool;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobEntryResult;
+import org.pentaho.di.job.JobEntryResultHistory;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
@@ -42,6 +45,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.List;
 
 public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginInterface {
     private static Class<?> PKG = GetJobStatusServlet.class; // for i18n purposes, needed by Translator2!!
@@ -49,6 +53,9 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
     private static final long serialVersionUID = 3634806745372015720L;
     public static final String CONTEXT_PATH = "/kettle/jobStatus";
 
+    static final int MAX_ENTRY_RESULTS_PER_PAGE
+            = Integer.parseInt(System.getProperty("KETTLE_CARTE_MAX_ENTRY_RESULTS_PER_PAGE", "100"));
+
     public GetJobStatusServlet() {
     }
 
@@ -190,6 +197,8 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
         boolean autoRefresh = "Y".equalsIgnoreCase(request.getParameter("refresh"));
         boolean showImage = "Y".equalsIgnoreCase(request.getParameter("image"));
         int startLineNr = Const.toInt(request.getParameter("from"), 0);
+        boolean showEntries = "Y".equalsIgnoreCase(request.getParameter("entries"));
+        long entryFrom = Const.toLong(request.getParameter("entryFrom"), -1L);
 
         response.setStatus(HttpServletResponse.SC_OK);
 
@@ -234,9 +243,19 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
 
         if (job != null) {
             String status = job.getStatus();
-            int lastLineNr = KettleLogStore.getLastBufferLineNr();
-            String logText = startLineNr >= lastLineNr ? "" : KettleLogStore.getAppender().getBuffer(
-                    job.getLogChannel().getLogChannelId(), false, startLineNr, lastLineNr).toString();
+            String logChannelId = job.getLogChannel().getLogChannelId();
+            MappedLogSpool logSpool = MappedLogSpool.getInstance();
+            int lastLineNr;
+            String logText;
+            if (logSpool.isInstalled()) {
+                // line numbers are local to the spooled Carte object
+                lastLineNr = logSpool.getLastLineNr(logChannelId, startLineNr);
+                logText = logSpool.getLines(logChannelId, startLineNr, lastLineNr);
+            } else {
+                lastLineNr = KettleLogStore.getLastBufferLineNr();
+                logText = startLineNr >= lastLineNr ? "" : KettleLogStore.getAppender().getBuffer(
+                        logChannelId, false, startLineNr, lastLineNr).toString();
+            }
 
             if (useXML) {
                 response.setContentType("text/xml");
@@ -361,6 +380,16 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
                     out.println("  joblog.scrollTop=joblog.scrollHeight; ");
                     out.println("</script> ");
                     out.println("<p>");
+
+                    String entriesUrl = convertContextPath(GetJobStatusServlet.CONTEXT_PATH) + "?name="
+                            + URLEncoder.encode(Const.NVL(jobName, ""), "UTF-8") + "&id=" + URLEncoder.encode(id, "UTF-8")
+                            + "&entries=Y&entryFrom=";
+                    if (showEntries) {
+                        printEntryResults(out, job.getJobEntryResultHistory(), entryFrom, entriesUrl);
+                    } else {
+                        out.println("<a href=\"" + entriesUrl + "\">Show job entry results</a>");
+                    }
+                    out.println("<p>");
                 } catch (Exception ex) {
                     out.println("<p>");
                     out.println("<pre>");
@@ -385,6 +414,52 @@ public class GetJobStatusServlet extends BaseHttpServlet implements CartePluginI
         }
     }
 
+    /**
+     * Print a page of job entry results as a HTML table, the latest page by default.
+     */
+    private void printEntryResults(PrintWriter out, JobEntryResultHistory history, long from, String url) {
+        long total = history.getTotalCount();
+        long first = history.getFirstAvailable();
+        if (from < 0L) {
+            from = total - MAX_ENTRY_RESULTS_PER_PAGE;
+        }
+        from = Math.max(first, Math.min(from, total));
+
+        List<JobEntryResult> results = history.getPage(from, MAX_ENTRY_RESULTS_PER_PAGE);
+
+        out.println(new StringBuilder().append("<p>Job entries executed: ").append(total)
+                .append(", succeeded: ").append(history.getSuccessCount())
+                .append(", failed: ").append(history.getFailureCount())
+                .append(", errors: ").append(history.getErrorCount())
+                .append(", kept in memory: ").append(history.size())
+                .append(", spilled: ").append(history.getSpilledCount()).append("</p>").toString());
+
+        out.println("<table border=\"1\">");
+        out.println("<tr> <th>#</th> <th>Job entry</th> <th>Result</th> <th>Errors</th> <th>Exit status</th> "
+                + "<th>Comment</th> <th>Reason</th> <th>Log date</th> </tr>");
+        long seq = from;
+        for (JobEntryResult jer : results) {
+            Result result = jer.getResult();
+            out.print(new StringBuilder().append("<tr> <td>").append(seq++).append("</td> <td>")
+                    .append(Const.NVL(Encode.forHtml(jer.getJobEntryName()), "")).append("</td> <td>")
+                    .append(result == null ? "" : (result.getResult() ? "Success" : "Failure")).append("</td> <td>")
+                    .append(result == null ? "" : String.valueOf(result.getNrErrors())).append("</td> <td>")
+                    .append(result == null ? "" : String.valueOf(result.getExitStatus())).append("</td> <td>")
+                    .append(Const.NVL(Encode.forHtml(jer.getComment()), "")).append("</td> <td>")
+                    .append(Const.NVL(Encode.forHtml(jer.getReason()), "")).append("</td> <td>")
+                    .append(jer.getLogDate() == null ? "" : XMLHandler.date2string(jer.getLogDate()))
+                    .append("</td> </tr>").toString());
+        }
+        out.println("</table>");
+
+        if (from > first) {
+            out.print("<a href=\"" + url + Math.max(first, from - MAX_ENTRY_RESULTS_PER_PAGE) + "\">Previous</a>&nbsp; ");
+        }
+        if (from + MAX_ENTRY_RESULTS_PER_PAGE < total) {
+            out.print("<a href=\"" + url + (from + MAX_ENTRY_RESULTS_PER_PAGE) + "\">Next</a>");
+        }
+    }
+
     public String toString() {
         return "Job Status Handler";
     }
@@ -29,6 +29,7 @@ import org.pentaho.di.core.Result;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.Point;
 import org.pentaho.di.core.logging.KettleLogStore;
+import org.pentaho.di.core.logging.MappedLogSpool;
 import org.pentaho.di.core.util.Utils;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
@@ -238,9 +239,19 @@ public class GetTransStatusServlet extends BaseHttpServlet implements CartePlugi
 
         if (trans != null) {
             String status = trans.getStatus();
-            int lastLineNr = KettleLogStore.getLastBufferLineNr();
-            String logText = startLineNr >= lastLineNr ? "" : KettleLogStore.getAppender().getBuffer(
-                    trans.getLogChannel().getLogChannelId(), false, startLineNr, lastLineNr).toString();
+            String logChannelId = trans.getLogChannel().getLogChannelId();
+            MappedLogSpool logSpool = MappedLogSpool.getInstance();
+            int lastLineNr;
+            String logText;
+            if (logSpool.isInstalled()) {
+                // line numbers are local to the spooled Carte object
+                lastLineNr = logSpool.getLastLineNr(logChannelId, startLineNr);
+                logText = logSpool.getLines(logChannelId, startLineNr, lastLineNr);
+            } else {
+                lastLineNr = KettleLogStore.getLastBufferLineNr();
+                logText = startLineNr >= lastLineNr ? "" : KettleLogStore.getAppender().getBuffer(
+                        logChannelId, false, startLineNr, lastLineNr).toString();
+            }
 
             if (useXML) {
                 response.setContentType("text/xml");